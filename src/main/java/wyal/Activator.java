@@ -16,6 +16,7 @@ package wyal;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import wyal.lang.WyalFile;
 import wyal.tasks.CompileTask;
@@ -30,13 +31,21 @@ import wyfs.lang.Content;
 import wyfs.lang.Path;
 import wyfs.util.Trie;
 import wytp.provers.AutomatedTheoremProver;
+import wytp.provers.ProofCache;
 import wytp.types.TypeSystem;
 
 public class Activator implements Module.Activator {
 	private static Trie PKGNAME_CONFIG_OPTION = Trie.fromString("package/name");
 	public static Trie SOURCE_CONFIG_OPTION = Trie.fromString("build/wyal/source");
 	public static Trie TARGET_CONFIG_OPTION = Trie.fromString("build/wyal/target");
+	public static Trie THREADS_CONFIG_OPTION = Trie.fromString("build/wyal/threads");
+	public static Trie SPLIT_THREADS_CONFIG_OPTION = Trie.fromString("build/wyal/split-threads");
+	public static Trie SEARCH_THREADS_CONFIG_OPTION = Trie.fromString("build/wyal/search-threads");
+	public static Trie TIMEOUT_CONFIG_OPTION = Trie.fromString("build/wyal/timeout");
+	public static Trie SEARCH_TIMEOUT_CONFIG_OPTION = Trie.fromString("build/wyal/search-timeout");
 	private static Value.UTF8 TARGET_DEFAULT = new Value.UTF8("bin");
+	private static Value.Int THREADS_DEFAULT = new Value.Int(1);
+	private static Value.Int TIMEOUT_DEFAULT = new Value.Int(0);
 
 	public static Command.Platform WYAL_PLATFORM = new Command.Platform() {
 
@@ -50,7 +59,12 @@ public class Activator implements Module.Activator {
 		public Configuration.Schema getConfigurationSchema() {
 			return Configuration.fromArray(
 					Configuration.UNBOUND_STRING(SOURCE_CONFIG_OPTION, "Specify location for wyal source files", TARGET_DEFAULT),
-					Configuration.UNBOUND_STRING(TARGET_CONFIG_OPTION, "Specify location for compiled wyal files", TARGET_DEFAULT));
+					Configuration.UNBOUND_STRING(TARGET_CONFIG_OPTION, "Specify location for compiled wyal files", TARGET_DEFAULT),
+					Configuration.BOUND_INTEGER(THREADS_CONFIG_OPTION, "Specify number of threads used for verification", THREADS_DEFAULT, 1),
+					Configuration.BOUND_INTEGER(SPLIT_THREADS_CONFIG_OPTION, "Specify number of threads used for exploring case splits", THREADS_DEFAULT, 1),
+					Configuration.BOUND_INTEGER(SEARCH_THREADS_CONFIG_OPTION, "Specify number of threads used for counterexample search", THREADS_DEFAULT, 1),
+					Configuration.BOUND_INTEGER(TIMEOUT_CONFIG_OPTION, "Specify time limit (ms) per assertion, or 0 for none", TIMEOUT_DEFAULT, 0),
+					Configuration.BOUND_INTEGER(SEARCH_TIMEOUT_CONFIG_OPTION, "Specify time limit (ms) for counterexample search per assertion, or 0 for none", TIMEOUT_DEFAULT, 0));
 		}
 
 		@Override
@@ -60,6 +74,11 @@ public class Activator implements Module.Activator {
 			// Extract source path
 			Trie source = Trie.fromString(configuration.get(Value.UTF8.class, SOURCE_CONFIG_OPTION).unwrap());
 			Trie target = Trie.fromString(configuration.get(Value.UTF8.class, TARGET_CONFIG_OPTION).unwrap());
+			int threads = configuration.get(Value.Int.class, THREADS_CONFIG_OPTION).unwrap().intValue();
+			int splitThreads = configuration.get(Value.Int.class, SPLIT_THREADS_CONFIG_OPTION).unwrap().intValue();
+			int searchThreads = configuration.get(Value.Int.class, SEARCH_THREADS_CONFIG_OPTION).unwrap().intValue();
+			long timeout = configuration.get(Value.Int.class, TIMEOUT_CONFIG_OPTION).unwrap().longValue();
+			long searchTimeout = configuration.get(Value.Int.class, SEARCH_TIMEOUT_CONFIG_OPTION).unwrap().longValue();
 			//
 			Content.Filter<WyalFile> includes = Content.filter("**", WyalFile.ContentType);
 			// Construct the source root
@@ -71,15 +90,35 @@ public class Activator implements Module.Activator {
 			//
 			TypeSystem typeSystem = new TypeSystem(project);
 			AutomatedTheoremProver prover = new AutomatedTheoremProver(typeSystem);
+			if (threads > 1) {
+				// Check assertions in parallel
+				prover.setExecutor(new ForkJoinPool(threads));
+			}
+			if (splitThreads > 1) {
+				// Explore case splits in parallel
+				prover.setSplitPool(new ForkJoinPool(splitThreads));
+			}
+			if (timeout > 0) {
+				prover.setTimeout(timeout);
+			}
+			// Search for counterexamples in parallel
+			ForkJoinPool searchPool = searchThreads > 1 ? new ForkJoinPool(searchThreads) : null;
 			// Add build rule to project.
 			project.getRules().add(new AbstractBuildRule<WyalFile, WyalFile>(sourceRoot, includes, null) {
 				@Override
 				protected void apply(List<Path.Entry<WyalFile>> matches, Collection<Build.Task> tasks)
 						throws IOException {
+					Path.Entry<WyalFile> source = matches.get(0);
+					// Verdicts are cached between builds, with one cache per
+					// source file so that concurrent tasks never share one.
+					Path.Entry<ProofCache> cache = binaryRoot.create(source.id(), ProofCache.ContentType);
 					// Construct a new build task
-					CompileTask task = new CompileTask(project, sourceRoot, binary, matches.get(0), typeSystem, prover);
+					CompileTask task = new CompileTask(project, sourceRoot, binary, source, typeSystem, prover);
 					//
 					task.setVerify(true);
+					task.setProofCache(cache);
+					task.setSearchPool(searchPool);
+					task.setSearchTimeout(searchTimeout);
 					// Submit the task for execution
 					tasks.add(task);
 				}
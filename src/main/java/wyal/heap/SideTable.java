@@ -0,0 +1,82 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyal.heap;
+
+import java.util.Arrays;
+
+import wybs.lang.SyntacticHeap;
+import wybs.lang.SyntacticItem;
+
+/**
+ * Associates information derived from the items of a heap with those items,
+ * indexed by their position in the heap. Since items are never modified once
+ * allocated, such information need only be computed once per item. A side
+ * table can be safely shared between threads, although information may
+ * occasionally be computed more than once.
+ *
+ * @param <T>
+ */
+public class SideTable<T> {
+	private Object[] entries = new Object[0];
+
+	/**
+	 * Get the side table for a given key associated with the heap of a given
+	 * item, or <code>null</code> if that heap does not support side tables.
+	 * Only structurally equivalent heaps (i.e. those used for proofs) are
+	 * supported, since their items are known to be immutable.
+	 *
+	 * @param item
+	 * @param key
+	 * @return
+	 */
+	public static <T> SideTable<T> of(SyntacticItem item, Object key) {
+		SyntacticHeap heap = item.getHeap();
+		if (heap instanceof StructurallyEquivalentHeap) {
+			return ((StructurallyEquivalentHeap) heap).getSideTable(key);
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * Get the information recorded for the item at a given index, or
+	 * <code>null</code> if there is none.
+	 *
+	 * @param index
+	 * @return
+	 */
+	public synchronized T get(int index) {
+		if (index < entries.length) {
+			// Safe since only values of type T are ever put
+			@SuppressWarnings("unchecked")
+			T value = (T) entries[index];
+			return value;
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * Record information for the item at a given index.
+	 *
+	 * @param index
+	 * @param value
+	 */
+	public synchronized void put(int index, T value) {
+		if (index >= entries.length) {
+			entries = Arrays.copyOf(entries, Math.max(index + 1, entries.length * 2));
+		}
+		entries[index] = value;
+	}
+}
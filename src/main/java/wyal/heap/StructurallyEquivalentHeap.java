@@ -13,9 +13,12 @@
 // limitations under the License.
 package wyal.heap;
 
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.IdentityHashMap;
 import java.util.Map;
 
+import wyal.lang.WyalFile;
 import wybs.lang.SyntacticHeap;
 import wybs.lang.SyntacticItem;
 import wybs.util.AbstractSyntacticHeap;
@@ -30,16 +33,46 @@ import wybs.util.AbstractSyntacticHeap;
  */
 public class StructurallyEquivalentHeap extends AbstractSyntacticHeap implements SyntacticHeap {
 	private final SyntacticHeap parent;
+
+	/**
+	 * The hash-consing table used to enforce the structural invariant. This maps
+	 * the "shape" of every item in this heap (i.e. its class, opcode, data and
+	 * children) to the unique item with that shape. This is kept in step with
+	 * <code>syntacticItems</code>.
+	 */
+	private final HashMap<Key, SyntacticItem> table;
+
+	/**
+	 * The parent heap is not required to maintain the structural invariant.
+	 * Therefore, this maps the index of every item inherited from the parent to
+	 * the first structurally equivalent item in the parent (which may be
+	 * itself). This ensures that an item whose children are inherited from the
+	 * parent is still matched against its structural equivalent.
+	 */
+	private final SyntacticItem[] canonicals;
+
+	/**
+	 * The side tables associated with this heap, identified by arbitrary
+	 * keys.
+	 */
+	private final HashMap<Object, SideTable<?>> sideTables = new HashMap<>();
+
 	/**
 	 * @param parent
 	 */
 	public StructurallyEquivalentHeap(SyntacticHeap parent) {
 		this.parent = parent;
+		this.table = new HashMap<>();
+		this.canonicals = new SyntacticItem[parent.size()];
 		//
 		for(int i=0;i<parent.size();i++) {
 			// dummy
 			syntacticItems.add(parent.getSyntacticItem(i));
 		}
+		// Register inherited items in the hash-consing table
+		for (int i = 0; i < canonicals.length; i++) {
+			canonicalise(parent.getSyntacticItem(i));
+		}
 	}
 
 	@Override
@@ -47,20 +80,54 @@ public class StructurallyEquivalentHeap extends AbstractSyntacticHeap implements
 		return parent;
 	}
 
+	/**
+	 * Allocate an item into this heap. Allocation is synchronised so that a
+	 * heap can be shared between proof branches explored in parallel.
+	 */
 	@Override
-	public <T extends SyntacticItem> T allocate(T item) {
+	public synchronized <T extends SyntacticItem> T allocate(T item) {
 		return allocate(item,new IdentityHashMap<>());
 	}
 
+	@Override
+	public synchronized int size() {
+		return super.size();
+	}
+
+	@Override
+	public synchronized SyntacticItem getSyntacticItem(int index) {
+		return super.getSyntacticItem(index);
+	}
+
+	/**
+	 * Get the side table identified by a given key, creating it if it doesn't
+	 * already exist. This allows information derived from items in this heap
+	 * (e.g. the terms they contain) to be cached alongside them. Every use of
+	 * a given key must expect the same type of information.
+	 *
+	 * @param key
+	 * @return
+	 */
+	public synchronized <T> SideTable<T> getSideTable(Object key) {
+		// Safe provided every use of the key expects the same type
+		@SuppressWarnings("unchecked")
+		SideTable<T> table = (SideTable<T>) sideTables.get(key);
+		if (table == null) {
+			table = new SideTable<>();
+			sideTables.put(key, table);
+		}
+		return table;
+	}
+
 	private <T extends SyntacticItem> T allocate(T item, Map<SyntacticItem,SyntacticItem> map) {
 		//
 		SyntacticHeap parent = item.getHeap();
 		T allocated = (T) map.get(item);
 		if(allocated != null) {
 			return allocated;
-		} else if (parent == this || parent == this.parent) {
-			// Item already allocated to this heap, hence return its existing
-			// address.
+		} else if (parent == this || isAncestor(parent)) {
+			// Item already allocated to this heap (or inherited by it), hence
+			// return its existing address.
 			return item;
 		} else {
 			// We need to recursively descend into children of this item
@@ -86,13 +153,19 @@ public class StructurallyEquivalentHeap extends AbstractSyntacticHeap implements
 			// Look for any structural equivalents that exist
 			// already in this heap. If we find one, then we can
 			// just return the directly.
-			T equivalent = (T) findStructuralEquivalent(nItem, item.getClass());
+			Key key = isInternable(nItem) ? new Key(nItem, canonicalChildren(nChildren)) : null;
+			// Safe since an equivalent item has the same class as nItem
+			@SuppressWarnings("unchecked")
+			T equivalent = key == null ? null : (T) table.get(key);
 			//
 			if (equivalent == null) {
 				// Allocate the item (or its clone) into this heap.
 				int index = syntacticItems.size();
 				syntacticItems.add(nItem);
 				nItem.allocate(this, index);
+				if (key != null) {
+					table.put(key, nItem);
+				}
 			} else {
 				nItem = equivalent;
 			}
@@ -102,39 +175,149 @@ public class StructurallyEquivalentHeap extends AbstractSyntacticHeap implements
 	}
 
 	/**
-	 * Look for a structurally equivalent node in the current heap, assuming
-	 * that all children are already allocated (and, hence, for which the
-	 * invariant is already true).
+	 * Determine the canonical representative of an item inherited from the
+	 * parent heap, registering it in the hash-consing table if no structural
+	 * equivalent exists already. Since children are canonicalised before their
+	 * parents, this is recursive.
+	 *
+	 * @param item
+	 * @return
+	 */
+	private SyntacticItem canonicalise(SyntacticItem item) {
+		int index = item.getIndex();
+		SyntacticItem canonical = canonicals[index];
+		if (canonical == null) {
+			// Mark as visited to protect against (unexpected) cycles.
+			canonicals[index] = item;
+			SyntacticItem[] nChildren = new SyntacticItem[item.size()];
+			for (int i = 0; i != nChildren.length; ++i) {
+				SyntacticItem child = item.get(i);
+				if (child != null && isAncestor(child.getHeap()) && child.getIndex() < canonicals.length) {
+					nChildren[i] = canonicalise(child);
+				} else {
+					nChildren[i] = child;
+				}
+			}
+			if (isInternable(item)) {
+				Key key = new Key(item, nChildren);
+				canonical = table.get(key);
+				if (canonical == null) {
+					table.put(key, item);
+					canonical = item;
+				}
+			} else {
+				canonical = item;
+			}
+			canonicals[index] = canonical;
+		}
+		return canonical;
+	}
+
+	/**
+	 * Determine whether a given heap is an ancestor of this heap. Since a heap
+	 * inherits every item of its parent at the same index, the items of any
+	 * ancestor are also inherited by this heap. This allows heaps to be
+	 * nested, such as when a proof continues from a snapshot of another proof.
+	 *
+	 * @param heap
+	 * @return
+	 */
+	private boolean isAncestor(SyntacticHeap heap) {
+		for (SyntacticHeap h = parent; h != null; h = h.getParent()) {
+			if (h == heap) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Determine whether a given item can be shared with its structural
+	 * equivalents. Variable declarations are the exception here, since two
+	 * declarations are only considered equal if they are the same.
+	 *
+	 * @param item
+	 * @return
+	 */
+	private static boolean isInternable(SyntacticItem item) {
+		return !(item instanceof WyalFile.VariableDeclaration);
+	}
+
+	/**
+	 * Map the children of an item being allocated to their canonical
+	 * representatives. Children allocated in this heap are already canonical,
+	 * whilst those inherited from an ancestor heap may not be.
 	 *
-	 * @param opcode
-	 * @param data
 	 * @param children
 	 * @return
 	 */
-	private SyntacticItem findStructuralEquivalent(SyntacticItem item, Class<?> clazz) {
-		for (int i = 0; i != syntacticItems.size(); ++i) {
-			SyntacticItem candidate = getSyntacticItem(i);
-			if(candidate.getClass() == clazz && item.equals(candidate)) {
-				return candidate;
+	private SyntacticItem[] canonicalChildren(SyntacticItem[] children) {
+		SyntacticItem[] nChildren = children;
+		for (int i = 0; i != children.length; ++i) {
+			SyntacticItem child = children[i];
+			if (child != null && isAncestor(child.getHeap()) && child.getIndex() < canonicals.length) {
+				SyntacticItem canonical = canonicals[child.getIndex()];
+				if (canonical != child && nChildren == children) {
+					nChildren = Arrays.copyOf(children, children.length);
+				}
+				nChildren[i] = canonical;
 			}
 		}
-		return null;
+		return nChildren;
 	}
 
-	private boolean haveIdenticalChildren(SyntacticItem[] left, SyntacticItem[] right) {
-		if (left == null || right == null) {
-			return left == right;
-		} else if (left.length != right.length) {
+	/**
+	 * The key used for hash-consing. Since every child is already allocated
+	 * (and, hence, for which the structural invariant is already true), two
+	 * items are structurally equivalent exactly when they have the same class,
+	 * opcode and data, and their canonical children are identical.
+	 */
+	private static final class Key {
+		private final Class<?> kind;
+		private final int opcode;
+		private final byte[] data;
+		private final SyntacticItem[] children;
+		private final int hash;
+
+		public Key(SyntacticItem item, SyntacticItem[] children) {
+			this.kind = item.getClass();
+			this.opcode = item.getOpcode();
+			this.data = item.getData();
+			this.children = children;
+			int hash = kind.hashCode() ^ opcode ^ Arrays.hashCode(data);
+			for (int i = 0; i != children.length; ++i) {
+				SyntacticItem child = children[i];
+				hash = (hash * 31) + (child == null ? 0 : child.getIndex());
+			}
+			this.hash = hash;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (o instanceof Key) {
+				Key k = (Key) o;
+				return hash == k.hash && kind == k.kind && opcode == k.opcode && haveIdenticalChildren(children, k.children)
+						&& Arrays.equals(data, k.data);
+			}
 			return false;
-		} else if(left.getClass().equals(right.getClass())){
-			for (int j = 0; j != left.length; ++j) {
-				if (left[j] != right[j]) {
-					return false;
+		}
+
+		private static boolean haveIdenticalChildren(SyntacticItem[] left, SyntacticItem[] right) {
+			if (left.length != right.length) {
+				return false;
+			} else {
+				for (int j = 0; j != left.length; ++j) {
+					if (left[j] != right[j]) {
+						return false;
+					}
 				}
+				return true;
 			}
-			return true;
-		} else {
-			return false;
 		}
 	}
 }
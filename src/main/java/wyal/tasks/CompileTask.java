@@ -16,13 +16,15 @@ package wyal.tasks;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Function;
 
 import wyal.lang.WyalFile;
 import wyal.lang.WyalFile.Declaration;
 import wyal.util.Interpreter;
 import wyal.util.NameResolver;
-import wyal.util.SmallWorldDomain;
+import wyal.util.IterativeDeepeningSearch;
+import wyal.util.StagedInterpreter;
 import wyal.util.TypeChecker;
 import wyal.util.WyalFileResolver;
 import wybs.lang.Build;
@@ -34,6 +36,7 @@ import wybs.util.AbstractBuildTask;
 import wybs.util.Logger;
 import wyfs.lang.Path;
 import wytp.provers.AutomatedTheoremProver;
+import wytp.provers.ProofCache;
 import wytp.types.TypeSystem;
 import wytp.types.extractors.TypeInvariantExtractor;
 
@@ -49,6 +52,15 @@ public class CompileTask extends AbstractBuildTask<WyalFile, WyalFile> {
 	 */
 	private final AutomatedTheoremProver prover;
 
+	/**
+	 * The resolver and type invariant extractor used when searching for
+	 * counterexamples. These are shared by every search, so that the symbol
+	 * tables the resolver constructs are reused.
+	 */
+	private final NameResolver resolver;
+
+	private final TypeInvariantExtractor extractor;
+
 	/**
 	 * The logger used for logging system events
 	 */
@@ -64,12 +76,32 @@ public class CompileTask extends AbstractBuildTask<WyalFile, WyalFile> {
 	 */
 	private boolean counterexamples = false;
 
+	/**
+	 * The pool used to search for counterexamples in parallel, or
+	 * <code>null</code> if the search should be sequential.
+	 */
+	private ForkJoinPool searchPool;
+
+	/**
+	 * The time (in milliseconds) allowed for searching for a counterexample
+	 * to an assertion, or zero if unlimited.
+	 */
+	private long searchTimeout;
+
+	/**
+	 * The entry used to store the verdicts of assertions between builds, or
+	 * <code>null</code> if verdicts should not be cached.
+	 */
+	private Path.Entry<ProofCache> cache;
+
 	public CompileTask(Build.Project project, Path.Root sourceRoot, Path.Entry<WyalFile> target,
 			Path.Entry<WyalFile> source, TypeSystem typeSystem, AutomatedTheoremProver prover) {
 		super(project, target, Arrays.asList(source));
 		this.logger = Logger.NULL;
 		this.typeSystem = typeSystem;
 		this.prover = prover;
+		this.resolver = new WyalFileResolver(project);
+		this.extractor = new TypeInvariantExtractor(resolver);
 	}
 
 	@Override
@@ -89,23 +121,36 @@ public class CompileTask extends AbstractBuildTask<WyalFile, WyalFile> {
 		this.counterexamples = flag;
 	}
 
+	public void setSearchPool(ForkJoinPool pool) {
+		this.searchPool = pool;
+	}
+
+	public void setSearchTimeout(long timeout) {
+		this.searchTimeout = timeout;
+	}
+
+	public void setProofCache(Path.Entry<ProofCache> cache) {
+		this.cache = cache;
+	}
+
 	@Override
 	public Function<Meter, Boolean> initialise() throws IOException {
 		// Extract target and source files for compilation. This is the component which
 		// requires I/O.
 		WyalFile src = sources.get(0).read();
+		ProofCache verdicts = readProofCache();
 		// Construct the lambda for subsequent execution. This will eventually make its
 		// way into some kind of execution pool, possibly for concurrent execution with
 		// other tasks.
-		return m -> execute(src);
+		return m -> execute(src, verdicts);
 	}
 
-	private boolean execute(WyalFile src) {
+	private boolean execute(WyalFile src, ProofCache verdicts) {
 		new TypeChecker(typeSystem, src, null).check();
 		//
 		if (verify) {
 			try {
-				prover.check(src);
+				prover.check(src, verdicts);
 			} catch (SyntacticException e) {
 				SyntacticItem item = e.getElement();
 				if (counterexamples && item instanceof Declaration.Assert) {
@@ -116,28 +161,63 @@ public class CompileTask extends AbstractBuildTask<WyalFile, WyalFile> {
 						throw e;
 					}
 				}
+			} finally {
+				if (cache != null) {
+					// Retain any assertions shown to hold, even if others failed.
+					writeProofCache(verdicts);
+				}
 			}
 		}
 		//
 		return true;
 	}
 
+	/**
+	 * Read the assertions cached by the previous build (if any), and construct
+	 * the cache for this build from them.
+	 *
+	 * @return The cache for this build, or <code>null</code> if verdicts
+	 *         should not be cached.
+	 */
+	private ProofCache readProofCache() {
+		if (cache == null) {
+			return null;
+		}
+		try {
+			return new ProofCache(cache.read());
+		} catch (IOException e) {
+			// No previous build (or cache unreadable), so start afresh.
+			return new ProofCache();
+		}
+	}
+
+	private void writeProofCache(ProofCache verdicts) {
+		try {
+			cache.write(verdicts);
+		} catch (IOException e) {
+			// Failing to write the cache only costs time in the next build, so
+			// should not mask the outcome of this one.
+			logger.logTimedMessage("unable to write proof cache (" + e.getMessage() + ")", 0, 0);
+		}
+	}
+
 	// ======================================================================
 	// Private Implementation
 	// ======================================================================
 
 	public String findCounterexamples(WyalFile.Declaration.Assert assertion) {
-		// FIXME: it doesn't feel right creating new instances here.
-		NameResolver resolver = new WyalFileResolver(project);
-		TypeInvariantExtractor extractor = new TypeInvariantExtractor(resolver);
-		Interpreter interpreter = new Interpreter(new SmallWorldDomain(resolver), resolver, extractor);
+		IterativeDeepeningSearch search = new IterativeDeepeningSearch(resolver, extractor);
+		search.setPool(searchPool);
+		search.setTimeout(searchTimeout);
 		try {
-			Interpreter.Result result = interpreter.evaluate(assertion);
+			Interpreter.Result result = search.evaluate(assertion);
 			if (!result.holds()) {
 				return result.getEnvironment().toString();
 			}
 		} catch (Interpreter.UndefinedException e) {
 			// do nothing for now
+		} catch (StagedInterpreter.TimeoutError e) {
+			// search abandoned without finding a counterexample
 		}
 //		catch (Exception e) {
 //			// NOTE: getting here usually means some kind of exception occurred in the
@@ -24,6 +24,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 
+import wyal.heap.StructurallyEquivalentHeap;
 import wyal.lang.Domain;
 import wyal.lang.WyalFile;
 import wyal.lang.WyalFile.Declaration;
@@ -35,6 +36,7 @@ import wyal.lang.WyalFile.Type;
 import wyal.lang.WyalFile.VariableDeclaration;
 import wyal.util.NameResolver.NameNotFoundError;
 import wyal.util.NameResolver.ResolutionError;
+import wybs.lang.SyntacticHeap;
 import wybs.util.AbstractCompilationUnit.Identifier;
 import wybs.util.AbstractCompilationUnit.Pair;
 import wybs.util.AbstractCompilationUnit.Tuple;
@@ -46,6 +48,20 @@ public class Interpreter {
 	private final NameResolver resolver;
 	private final TypeInvariantExtractor extractor;
 
+	/**
+	 * The invariant extracted from the type of each variable declaration
+	 * encountered, or <code>null</code> if its type has none.
+	 */
+	private final IdentityHashMap<VariableDeclaration, Expr> invariants = new IdentityHashMap<>();
+
+	/**
+	 * The heap used for allocating extracted invariants for each heap
+	 * containing variable declarations. This inherits the items of the
+	 * original heap, so that names in an invariant are resolved as before,
+	 * without growing the original heap itself.
+	 */
+	private final IdentityHashMap<SyntacticHeap, SyntacticHeap> scratchHeaps = new IdentityHashMap<>();
+
 	public Interpreter(Domain domain, NameResolver resolver, TypeInvariantExtractor extractor) {
 		this.domain = domain;
 		this.resolver = resolver;
@@ -142,6 +158,9 @@ public class Interpreter {
 
 	protected Object evaluateExpression(Expr expr, Environment environment) throws UndefinedException {
 
+		// NOTE: extracted type invariants are formulae, whose classes differ
+		// from those of the corresponding source-level expressions. Hence,
+		// the most general class for each opcode is used here.
 		switch (expr.getOpcode()) {
 		case WyalFile.EXPR_const:
 			return evaluateConstant((Expr.Constant) expr, environment);
@@ -150,23 +169,23 @@ public class Interpreter {
 		case WyalFile.EXPR_invoke:
 			return evaluateInvoke((Expr.Invoke) expr, environment);
 		case WyalFile.EXPR_and:
-			return evaluateLogicalAnd((Expr.LogicalAnd) expr,environment);
+			return evaluateLogicalAnd((Expr.Operator) expr,environment);
 		case WyalFile.EXPR_or:
-			return evaluateLogicalOr((Expr.LogicalOr) expr,environment);
+			return evaluateLogicalOr((Expr.Operator) expr,environment);
 		case WyalFile.EXPR_not:
 			return evaluateLogicalNot((Expr.LogicalNot) expr,environment);
 		case WyalFile.EXPR_exists:
-			return evaluateExistentialQuantifier((Expr.ExistentialQuantifier) expr,environment);
+			return evaluateExistentialQuantifier((Expr.Quantifier) expr,environment);
 		case WyalFile.EXPR_forall:
-			return evaluateUniversalQuantifier((Expr.UniversalQuantifier) expr,environment);
+			return evaluateUniversalQuantifier((Expr.Quantifier) expr,environment);
 		case WyalFile.EXPR_implies:
 			return evaluateLogicalImplication((Expr.LogicalImplication) expr,environment);
 		case WyalFile.EXPR_iff:
 			return evaluateLogicalIff((Expr.LogicalIff) expr,environment);
 		case WyalFile.EXPR_eq:
-			return evaluateEqual((Expr.Equal) expr,environment);
+			return evaluateEqual((Expr.Operator) expr,environment);
 		case WyalFile.EXPR_neq:
-			return evaluateNotEqual((Expr.NotEqual) expr,environment);
+			return evaluateNotEqual((Expr.Operator) expr,environment);
 		case WyalFile.EXPR_neg:
 			return evaluateNegation((Expr.Negation) expr,environment);
 		case WyalFile.EXPR_lt:
@@ -251,6 +270,17 @@ public class Interpreter {
 		    return evaluateBlock(macro.getBody(),localEnvironment).value;
 		  } else {
 		    Declaration.Named.Type type = (Declaration.Named.Type) decl;
+		    // The invariant of the underlying type (e.g. another nominal type)
+		    // must also hold.
+		    Expr inherited;
+		    try {
+		      inherited = getTypeInvariant(type.getVariableDeclaration());
+		    } catch (NameResolver.ResolutionError err) {
+		      throw new RuntimeException(err);
+		    }
+		    if (inherited != null && !(Boolean) evaluateExpression(inherited, localEnvironment)) {
+		      return false;
+		    }
 		    Tuple<Block> invariant = type.getInvariant();
 		    for(int i=0;i!=invariant.size();++i) {
 		      if (!evaluateBlock(invariant.get(i), localEnvironment).value) {
@@ -289,7 +319,7 @@ public class Interpreter {
 		}
 	}
 
-	protected boolean evaluateLogicalAnd(Expr.LogicalAnd conjunct, Environment environment) throws UndefinedException {
+	protected boolean evaluateLogicalAnd(Expr.Operator conjunct, Environment environment) throws UndefinedException {
 		for(int i=0;i!=conjunct.size();++i) {
 			Expr child = conjunct.get(i);
 			boolean b = (Boolean) evaluateExpression(child,environment);
@@ -300,7 +330,7 @@ public class Interpreter {
 		return true;
 	}
 
-	protected boolean evaluateLogicalOr(Expr.LogicalOr disjunct, Environment environment) throws UndefinedException {
+	protected boolean evaluateLogicalOr(Expr.Operator disjunct, Environment environment) throws UndefinedException {
 		for (int i = 0; i != disjunct.size(); ++i) {
 			Expr child = disjunct.get(i);
 			boolean b = (Boolean) evaluateExpression(child, environment);
@@ -328,7 +358,7 @@ public class Interpreter {
 		return lhs == rhs;
 	}
 
-	protected boolean evaluateExistentialQuantifier(Expr.ExistentialQuantifier stmt, Environment environment) {
+	protected boolean evaluateExistentialQuantifier(Expr.Quantifier stmt, Environment environment) {
 		Tuple<VariableDeclaration> vars = stmt.getParameters();
 		for(Environment nEnv : environment.declare(vars)) {
 			try {
@@ -344,7 +374,7 @@ public class Interpreter {
 		return false;
 	}
 
-	protected boolean evaluateUniversalQuantifier(Expr.UniversalQuantifier stmt, Environment environment) {
+	protected boolean evaluateUniversalQuantifier(Expr.Quantifier stmt, Environment environment) {
 		Tuple<VariableDeclaration> vars = stmt.getParameters();
 		for(Environment nEnv : environment.declare(vars)) {
 			try {
@@ -359,13 +389,13 @@ public class Interpreter {
 		}
 		return true;
 	}
-	protected boolean evaluateEqual(Expr.Equal expr, Environment environment) throws UndefinedException {
+	protected boolean evaluateEqual(Expr.Operator expr, Environment environment) throws UndefinedException {
 		Object lhs = evaluateExpression(expr.get(0), environment);
 		Object rhs = evaluateExpression(expr.get(1), environment);
 		return equals(lhs,rhs);
 	}
 
-	protected boolean evaluateNotEqual(Expr.NotEqual expr, Environment environment) throws UndefinedException {
+	protected boolean evaluateNotEqual(Expr.Operator expr, Environment environment) throws UndefinedException {
 		Object lhs = evaluateExpression(expr.get(0), environment);
 		Object rhs = evaluateExpression(expr.get(1), environment);
 		return !equals(lhs,rhs);
@@ -449,7 +479,7 @@ public class Interpreter {
 	protected Object evaluateAddition(Expr.Addition expr, Environment environment) throws UndefinedException {
 		BigInteger value = (BigInteger) evaluateExpression(expr.get(0), environment);
 		for (int i = 1; i != expr.size(); ++i) {
-			BigInteger next = (BigInteger) evaluateExpression(expr.get(1), environment);
+			BigInteger next = (BigInteger) evaluateExpression(expr.get(i), environment);
 			value = value.add(next);
 		}
 		return value;
@@ -458,7 +488,7 @@ public class Interpreter {
 	protected Object evaluateSubtraction(Expr.Subtraction expr, Environment environment) throws UndefinedException {
 		BigInteger value = (BigInteger) evaluateExpression(expr.get(0), environment);
 		for (int i = 1; i != expr.size(); ++i) {
-			BigInteger next = (BigInteger) evaluateExpression(expr.get(1), environment);
+			BigInteger next = (BigInteger) evaluateExpression(expr.get(i), environment);
 			value = value.subtract(next);
 		}
 		return value;
@@ -467,7 +497,7 @@ public class Interpreter {
 	protected Object evaluateMultiplication(Expr.Multiplication expr, Environment environment) throws UndefinedException {
 		BigInteger value = (BigInteger) evaluateExpression(expr.get(0), environment);
 		for (int i = 1; i != expr.size(); ++i) {
-			BigInteger next = (BigInteger) evaluateExpression(expr.get(1), environment);
+			BigInteger next = (BigInteger) evaluateExpression(expr.get(i), environment);
 			value = value.multiply(next);
 		}
 		return value;
@@ -476,8 +506,8 @@ public class Interpreter {
 	protected Object evaluateDivision(Expr.Division expr, Environment environment) throws UndefinedException {
 		BigInteger value = (BigInteger) evaluateExpression(expr.get(0), environment);
 		for (int i = 1; i != expr.size(); ++i) {
-			BigInteger next = (BigInteger) evaluateExpression(expr.get(1), environment);
-			if (next == BigInteger.ZERO) {
+			BigInteger next = (BigInteger) evaluateExpression(expr.get(i), environment);
+			if (next.signum() == 0) {
 				throw new UndefinedException("division by zero");
 			}
 			value = value.divide(next);
@@ -678,13 +708,8 @@ public class Interpreter {
 			throws UndefinedException {
 		try {
 			for (int i = 0; i != vars.size(); ++i) {
-				VariableDeclaration decl = vars.get(i);
-				Expr invariant = extractor.extract(decl.getType(), new Expr.VariableAccess(decl));
+				Expr invariant = getTypeInvariant(vars.get(i));
 				if (invariant != null) {
-					// NOTE: need to allocate extracted invariant here since it is not a
-					// source-level construct. Is kinda strange that we have to do this.
-					invariant = decl.getHeap().allocate(invariant);
-					//
 					boolean b = (Boolean) evaluateExpression(invariant, environment);
 					if (!b) {
 						throw new UndefinedException("invalid type invariant");
@@ -698,6 +723,34 @@ public class Interpreter {
 		}
 	}
 
+	/**
+	 * Get the invariant of a variable declaration's type, extracting it if
+	 * this hasn't already been done.
+	 *
+	 * @param decl
+	 * @return The invariant, or <code>null</code> if there is none.
+	 * @throws ResolutionError
+	 */
+	protected Expr getTypeInvariant(VariableDeclaration decl) throws ResolutionError {
+		if (invariants.containsKey(decl)) {
+			return invariants.get(decl);
+		}
+		Expr invariant = extractor.extract(decl.getType(), new Expr.VariableAccess(decl));
+		if (invariant != null) {
+			// NOTE: need to allocate extracted invariant here since it is not a
+			// source-level construct.
+			SyntacticHeap heap = decl.getHeap();
+			SyntacticHeap scratch = scratchHeaps.get(heap);
+			if (scratch == null) {
+				scratch = new StructurallyEquivalentHeap(heap);
+				scratchHeaps.put(heap, scratch);
+			}
+			invariant = scratch.allocate(invariant);
+		}
+		invariants.put(decl, invariant);
+		return invariant;
+	}
+
 	/**
 	 * A result simply catches the result of a given boolean expression, and the
 	 * environment which lead to that result.
@@ -761,6 +814,22 @@ public class Interpreter {
 			return domain.generator(fn.getSignatureType().getReturns().get(0)).get();
 		}
 
+		/**
+		 * Construct an environment which extends this environment by binding
+		 * the given variables to the given values.
+		 *
+		 * @param variables
+		 * @param values
+		 * @return
+		 */
+		public Environment bind(VariableDeclaration[] variables, Object[] values) {
+			Environment env = new Environment(this);
+			for (int i = 0; i != variables.length; ++i) {
+				env.values.put(variables[i], values[i]);
+			}
+			return env;
+		}
+
 		public Iterable<Environment> declare(Tuple<VariableDeclaration> variables) {
 			// Some Java switcheroo stuff
 			return new Iterable<Environment>() {
@@ -874,7 +943,7 @@ public class Interpreter {
 				return r += "]";
 			}
 			// Default
-			return o.toString();
+			return Objects.toString(o);
 		}
 
 		private class Iterator implements java.util.Iterator<Environment> {
@@ -978,7 +1047,7 @@ public class Interpreter {
 				if(i!=0) {
 					r += ",";
 				}
-				r += fields[i] + ":" + Objects.toString(values[i]);
+				r += fields[i] + ":" + Environment.toString(values[i]);
 			}
 			return "{" + r + "}";
 		}
@@ -0,0 +1,260 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyal.util;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+
+import wyal.lang.Domain;
+import wyal.lang.WyalFile;
+import wyal.lang.WyalFile.Expr;
+import wyal.lang.WyalFile.VariableDeclaration;
+import wybs.lang.SyntacticItem;
+import wybs.util.AbstractCompilationUnit.Value;
+
+/**
+ * <p>
+ * A (possibly unbounded) interval of integers, as implied for some variable by
+ * a constraint. Only the simplest constraints are considered, namely
+ * conjunctions of comparisons between the variable and a constant. For
+ * example, the constraint <code>x >= 0 && x < 10</code> implies the interval
+ * <code>[0,9]</code> for <code>x</code>. Any other constraint is ignored, and
+ * hence the interval is always an over-approximation of the values satisfying
+ * the constraint.
+ * </p>
+ * <p>
+ * This is used to avoid generating values which are certain to be rejected,
+ * such as negative values for a variable of type <code>nat</code>.
+ * </p>
+ */
+public final class Interval {
+	public static final Interval UNBOUNDED = new Interval(null, null);
+
+	/**
+	 * The least and greatest values in this interval, either of which is
+	 * <code>null</code> if unbounded.
+	 */
+	private final BigInteger lower;
+	private final BigInteger upper;
+
+	public Interval(BigInteger lower, BigInteger upper) {
+		this.lower = lower;
+		this.upper = upper;
+	}
+
+	public boolean isUnbounded() {
+		return lower == null && upper == null;
+	}
+
+	public boolean contains(BigInteger value) {
+		return (lower == null || lower.compareTo(value) <= 0) && (upper == null || upper.compareTo(value) >= 0);
+	}
+
+	public Interval intersect(Interval other) {
+		BigInteger l = lower == null ? other.lower : (other.lower == null ? lower : lower.max(other.lower));
+		BigInteger u = upper == null ? other.upper : (other.upper == null ? upper : upper.min(other.upper));
+		return new Interval(l, u);
+	}
+
+	/**
+	 * Restrict a generator to those values in this interval. If the generator
+	 * produces any value which is not an integer, or none of its values are in
+	 * this interval, then it is returned unchanged.
+	 *
+	 * @param generator
+	 * @return
+	 */
+	public Domain.Generator restrict(Domain.Generator generator) {
+		Object[] values = select(generator);
+		return values == null ? generator : generator(values);
+	}
+
+	/**
+	 * Determine the values of a generator which are in this interval, in the
+	 * order they are generated. This allows the same restriction to be applied
+	 * many times without recomputing it.
+	 *
+	 * @param generator
+	 * @return The values in this interval, or <code>null</code> if the
+	 *         generator should not be restricted (see above).
+	 */
+	public Object[] select(Domain.Generator generator) {
+		if (isUnbounded()) {
+			return null;
+		}
+		ArrayList<Object> values = new ArrayList<>();
+		boolean integers = true;
+		while (integers) {
+			Object value = generator.get();
+			if (!(value instanceof BigInteger)) {
+				integers = false;
+			} else if (contains((BigInteger) value)) {
+				values.add(value);
+			}
+			if (!generator.hasNext()) {
+				break;
+			}
+			generator.next();
+		}
+		generator.reset();
+		if (!integers || values.isEmpty()) {
+			return null;
+		} else {
+			return values.toArray();
+		}
+	}
+
+	/**
+	 * Construct a generator for a fixed sequence of values, such as those
+	 * selected by an interval.
+	 *
+	 * @param values
+	 * @return
+	 */
+	public static Domain.Generator generator(Object[] values) {
+		return new Generator(values);
+	}
+
+	@Override
+	public String toString() {
+		return "[" + (lower == null ? "" : lower) + "," + (upper == null ? "" : upper) + "]";
+	}
+
+	/**
+	 * Extract the interval implied for a given variable by a constraint. The
+	 * constraint may be a block (whose statements are conjoined), or an
+	 * expression.
+	 *
+	 * @param variable
+	 * @param constraint
+	 * @return
+	 */
+	public static Interval extract(VariableDeclaration variable, SyntacticItem constraint) {
+		switch (constraint.getOpcode()) {
+		case WyalFile.STMT_block:
+		case WyalFile.EXPR_and: {
+			Interval r = UNBOUNDED;
+			for (int i = 0; i != constraint.size(); ++i) {
+				r = r.intersect(extract(variable, constraint.get(i)));
+			}
+			return r;
+		}
+		case WyalFile.EXPR_lt:
+		case WyalFile.EXPR_lteq:
+		case WyalFile.EXPR_gt:
+		case WyalFile.EXPR_gteq: {
+			Expr lhs = (Expr) constraint.get(0);
+			Expr rhs = (Expr) constraint.get(1);
+			int opcode = constraint.getOpcode();
+			BigInteger c;
+			if (isAccess(variable, lhs) && (c = toConstant(rhs)) != null) {
+				return bound(opcode, c);
+			} else if (isAccess(variable, rhs) && (c = toConstant(lhs)) != null) {
+				return bound(flip(opcode), c);
+			}
+			return UNBOUNDED;
+		}
+		default:
+			return UNBOUNDED;
+		}
+	}
+
+	/**
+	 * Determine the interval for <code>x op c</code>.
+	 *
+	 * @param opcode
+	 * @param c
+	 * @return
+	 */
+	private static Interval bound(int opcode, BigInteger c) {
+		switch (opcode) {
+		case WyalFile.EXPR_lt:
+			return new Interval(null, c.subtract(BigInteger.ONE));
+		case WyalFile.EXPR_lteq:
+			return new Interval(null, c);
+		case WyalFile.EXPR_gt:
+			return new Interval(c.add(BigInteger.ONE), null);
+		default:
+			return new Interval(c, null);
+		}
+	}
+
+	/**
+	 * Determine the opcode of the comparison obtained by swapping its operands.
+	 *
+	 * @param opcode
+	 * @return
+	 */
+	private static int flip(int opcode) {
+		switch (opcode) {
+		case WyalFile.EXPR_lt:
+			return WyalFile.EXPR_gt;
+		case WyalFile.EXPR_lteq:
+			return WyalFile.EXPR_gteq;
+		case WyalFile.EXPR_gt:
+			return WyalFile.EXPR_lt;
+		default:
+			return WyalFile.EXPR_lteq;
+		}
+	}
+
+	private static boolean isAccess(VariableDeclaration variable, Expr expr) {
+		return expr instanceof Expr.VariableAccess && ((Expr.VariableAccess) expr).getVariableDeclaration() == variable;
+	}
+
+	private static BigInteger toConstant(Expr expr) {
+		if (expr instanceof Expr.Constant) {
+			Value value = ((Expr.Constant) expr).getValue();
+			if (value instanceof Value.Int) {
+				return ((Value.Int) value).get();
+			}
+		} else if (expr instanceof Expr.Negation) {
+			BigInteger c = toConstant(((Expr.Negation) expr).getOperand());
+			return c == null ? null : c.negate();
+		}
+		return null;
+	}
+
+	/**
+	 * Generates a fixed sequence of values.
+	 */
+	private static final class Generator implements Domain.Generator {
+		private final Object[] values;
+		private int index;
+
+		public Generator(Object[] values) {
+			this.values = values;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return index + 1 < values.length;
+		}
+
+		@Override
+		public Object get() {
+			return values[index];
+		}
+
+		@Override
+		public void next() {
+			index = index + 1;
+		}
+
+		@Override
+		public void reset() {
+			index = 0;
+		}
+	}
+}
@@ -0,0 +1,222 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyal.util;
+
+import java.util.IdentityHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+import wyal.lang.WyalFile;
+import wyal.lang.WyalFile.Declaration;
+import wyal.lang.WyalFile.Expr;
+import wyal.lang.WyalFile.Stmt;
+import wybs.lang.SyntacticItem;
+import wytp.types.extractors.TypeInvariantExtractor;
+
+/**
+ * <p>
+ * Searches for a counterexample to an assertion over a sequence of
+ * increasingly large small worlds. The first world has tiny bounds and each
+ * subsequent world widens them, until either a counterexample is found or the
+ * maximum bounds are reached. Thus, counterexamples involving only small
+ * values are found quickly, and larger worlds are searched only when
+ * necessary.
+ * </p>
+ * <p>
+ * Since each world contains the previous one, and the assertion is known to
+ * hold over the previous one, points whose values were all generated by it are
+ * not searched again (where this is safe). A time budget can also be given,
+ * after which the search is abandoned.
+ * </p>
+ * <p>
+ * A counterexample found in a smaller world must also be one in the largest
+ * world. This is not the case for all assertions. For example, an existential
+ * quantifier may have no witness in a smaller world, but one in a larger
+ * world. Such assertions are only evaluated over the largest world.
+ * </p>
+ */
+public class IterativeDeepeningSearch {
+	private final NameResolver resolver;
+	private final TypeInvariantExtractor extractor;
+	private int intLowerBound = SmallWorldDomain.DEFAULT_INT_LOWER_BOUND;
+	private int intUpperBound = SmallWorldDomain.DEFAULT_INT_UPPER_BOUND;
+	private int arrayLengthBound = SmallWorldDomain.DEFAULT_ARRAY_LENGTH_BOUND;
+	private int depthBound = SmallWorldDomain.DEFAULT_DEPTH_BOUND;
+	private ForkJoinPool pool;
+	/**
+	 * The time (in milliseconds) allowed for searching an assertion, or zero
+	 * if unlimited.
+	 */
+	private long timeout;
+
+	public IterativeDeepeningSearch(NameResolver resolver, TypeInvariantExtractor extractor) {
+		this.resolver = resolver;
+		this.extractor = extractor;
+	}
+
+	/**
+	 * Set the bounds of the largest world searched.
+	 *
+	 * @param intLowerBound
+	 * @param intUpperBound
+	 * @param arrayLengthBound
+	 * @param depthBound
+	 */
+	public void setBounds(int intLowerBound, int intUpperBound, int arrayLengthBound, int depthBound) {
+		this.intLowerBound = intLowerBound;
+		this.intUpperBound = intUpperBound;
+		this.arrayLengthBound = arrayLengthBound;
+		this.depthBound = depthBound;
+	}
+
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Evaluate an assertion over successively larger worlds. The result is
+	 * that for the first world in which the assertion fails or, otherwise, the
+	 * largest world. If the time budget is exceeded, then a
+	 * <code>TimeoutError</code> is thrown.
+	 *
+	 * @param assertion
+	 * @return
+	 * @throws Interpreter.UndefinedException
+	 */
+	public Interpreter.Result evaluate(Declaration.Assert assertion) throws Interpreter.UndefinedException {
+		long deadline = timeout == 0 ? 0 : System.currentTimeMillis() + timeout;
+		SmallWorldDomain tested = null;
+		int round = 1;
+		if (!isMonotonic(assertion)) {
+			// Only the largest world can be searched
+			round = Integer.MAX_VALUE;
+		}
+		for (;; ++round) {
+			SmallWorldDomain domain = new SmallWorldDomain(resolver, Math.max(intLowerBound, -round),
+					Math.min(intUpperBound, round), Math.min(arrayLengthBound, round), Math.min(depthBound, round));
+			StagedInterpreter interpreter = new StagedInterpreter(domain, resolver, extractor);
+			interpreter.setPool(pool);
+			interpreter.setTested(tested);
+			interpreter.setDeadline(deadline);
+			Interpreter.Result result = interpreter.evaluate(assertion);
+			if (!result.holds() || isLargest(domain)) {
+				return result;
+			}
+			tested = domain;
+		}
+	}
+
+	/**
+	 * Determine whether any counterexample to an assertion in a smaller world
+	 * is also one in a larger world.
+	 *
+	 * @param assertion
+	 * @return
+	 */
+	private boolean isMonotonic(Declaration.Assert assertion) {
+		StagedInterpreter interpreter = new StagedInterpreter(new SmallWorldDomain(resolver), resolver, extractor);
+		return isMonotonic(assertion.getBody(), true, interpreter, new IdentityHashMap<>());
+	}
+
+	/**
+	 * Determine whether a statement (or expression) which is false in a smaller
+	 * world is also false in a larger world (if positive), or which is true in
+	 * a smaller world is also true in a larger world (if negative). Universal
+	 * quantifiers can only appear in positive positions, and existential
+	 * quantifiers in negative positions. Otherwise, the values of expressions
+	 * cannot depend on the world.
+	 *
+	 * @param item
+	 * @param positive
+	 * @param interpreter
+	 *            Used to resolve invocations.
+	 * @param visited
+	 *            The polarity with which each macro has been visited.
+	 * @return
+	 */
+	private boolean isMonotonic(SyntacticItem item, boolean positive, StagedInterpreter interpreter,
+			IdentityHashMap<Declaration.Named, Boolean> visited) {
+		switch (item.getOpcode()) {
+		case WyalFile.STMT_block:
+		case WyalFile.STMT_caseof:
+		case WyalFile.EXPR_and:
+		case WyalFile.EXPR_or:
+			for (int i = 0; i != item.size(); ++i) {
+				if (!isMonotonic(item.get(i), positive, interpreter, visited)) {
+					return false;
+				}
+			}
+			return true;
+		case WyalFile.STMT_ifthen: {
+			Stmt.IfThen stmt = (Stmt.IfThen) item;
+			return isMonotonic(stmt.getIfBody(), !positive, interpreter, visited)
+					&& isMonotonic(stmt.getThenBody(), positive, interpreter, visited);
+		}
+		case WyalFile.EXPR_implies:
+			return isMonotonic(item.get(0), !positive, interpreter, visited)
+					&& isMonotonic(item.get(1), positive, interpreter, visited);
+		case WyalFile.EXPR_not:
+			return isMonotonic(item.get(0), !positive, interpreter, visited);
+		case WyalFile.STMT_forall:
+		case WyalFile.STMT_exists: {
+			boolean universal = item.getOpcode() == WyalFile.STMT_forall;
+			Stmt.Quantifier stmt = (Stmt.Quantifier) item;
+			return universal == positive && !interpreter.dependsOnDomain(stmt.getParameters())
+					&& isMonotonic(stmt.getBody(), positive, interpreter, visited);
+		}
+		case WyalFile.EXPR_forall:
+		case WyalFile.EXPR_exists: {
+			boolean universal = item.getOpcode() == WyalFile.EXPR_forall;
+			Expr.Quantifier expr = (Expr.Quantifier) item;
+			return universal == positive && !interpreter.dependsOnDomain(expr.getParameters())
+					&& isMonotonic(expr.getBody(), positive, interpreter, visited);
+		}
+		case WyalFile.EXPR_invoke: {
+			Expr.Invoke expr = (Expr.Invoke) item;
+			if (interpreter.dependsOnDomain(expr.getArguments())) {
+				return false;
+			} else if (!interpreter.dependsOnDomain(expr)) {
+				return true;
+			}
+			Declaration.Named decl;
+			try {
+				decl = interpreter.resolve(expr);
+			} catch (RuntimeException e) {
+				return false;
+			}
+			if (!(decl instanceof Declaration.Named.Macro)) {
+				return false;
+			}
+			Boolean polarity = visited.put(decl, positive);
+			if (polarity != null) {
+				// Recursive macro
+				return polarity == positive;
+			}
+			boolean r = isMonotonic(((Declaration.Named.Macro) decl).getBody(), positive, interpreter, visited);
+			visited.remove(decl);
+			return r;
+		}
+		default:
+			return !interpreter.dependsOnDomain(item);
+		}
+	}
+
+	private boolean isLargest(SmallWorldDomain domain) {
+		return domain.getIntLowerBound() <= intLowerBound && domain.getIntUpperBound() >= intUpperBound
+				&& domain.getArrayLengthBound() >= arrayLengthBound && domain.getDepthBound() >= depthBound;
+	}
+}
@@ -34,14 +34,60 @@ import static wyal.lang.WyalFile.*;
  *
  */
 public class SmallWorldDomain implements Domain {
-	private final int intLowerBound = -3;
-	private final int intUpperBound = 5;
-	private final int arrayLengthBound = 2;
-	private final int depthBound = 2;
+	public static final int DEFAULT_INT_LOWER_BOUND = -3;
+	public static final int DEFAULT_INT_UPPER_BOUND = 5;
+	public static final int DEFAULT_ARRAY_LENGTH_BOUND = 2;
+	public static final int DEFAULT_DEPTH_BOUND = 2;
+
+	private final int intLowerBound;
+	private final int intUpperBound;
+	private final int arrayLengthBound;
+	private final int depthBound;
 	protected final NameResolver resolver;
 
 	public SmallWorldDomain(NameResolver resolver) {
+		this(resolver, DEFAULT_INT_LOWER_BOUND, DEFAULT_INT_UPPER_BOUND, DEFAULT_ARRAY_LENGTH_BOUND,
+				DEFAULT_DEPTH_BOUND);
+	}
+
+	/**
+	 * Construct a small world with the given bounds.
+	 *
+	 * @param resolver
+	 * @param intLowerBound
+	 *            The least integer generated.
+	 * @param intUpperBound
+	 *            The greatest integer generated.
+	 * @param arrayLengthBound
+	 *            The maximum length of arrays generated (which also limits the
+	 *            number of cases of a union considered).
+	 * @param depthBound
+	 *            The maximum number of times recursive types are unrolled,
+	 *            plus one.
+	 */
+	public SmallWorldDomain(NameResolver resolver, int intLowerBound, int intUpperBound, int arrayLengthBound,
+			int depthBound) {
 		this.resolver = resolver;
+		this.intLowerBound = intLowerBound;
+		this.intUpperBound = intUpperBound;
+		this.arrayLengthBound = arrayLengthBound;
+		this.depthBound = depthBound;
+	}
+
+	public int getIntLowerBound() {
+		return intLowerBound;
+	}
+
+	public int getIntUpperBound() {
+		return intUpperBound;
+	}
+
+	public int getArrayLengthBound() {
+		return arrayLengthBound;
+	}
+
+	public int getDepthBound() {
+		return depthBound;
 	}
 
 	@Override
@@ -109,7 +155,16 @@ public class SmallWorldDomain implements Domain {
 				}
 				nvisited.add(name);
 				// Recursively generate for this type
-				return  generator(decl.getVariableDeclaration().getType(), depth, nvisited);
+				Generator generator = generator(decl.getVariableDeclaration().getType(), depth, nvisited);
+				if (generator == VOID_GENERATOR) {
+					return generator;
+				}
+				// Avoid values which cannot satisfy the type's invariant
+				Interval interval = Interval.UNBOUNDED;
+				for (Stmt.Block clause : decl.getInvariant()) {
+					interval = interval.intersect(Interval.extract(decl.getVariableDeclaration(), clause));
+				}
+				return interval.restrict(generator);
 			} catch (ResolutionError e) {
 				throw new RuntimeException(e);
 			}
@@ -0,0 +1,1277 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyal.util;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+import wyal.lang.Domain;
+import wyal.lang.WyalFile;
+import wyal.lang.WyalFile.Declaration;
+import wyal.lang.WyalFile.Expr;
+import wyal.lang.WyalFile.Stmt;
+import wyal.lang.WyalFile.Stmt.Block;
+import wyal.lang.WyalFile.Type;
+import wyal.lang.WyalFile.VariableDeclaration;
+import wyal.util.NameResolver.ResolutionError;
+import wybs.lang.SyntacticItem;
+import wybs.util.AbstractCompilationUnit.Identifier;
+import wybs.util.AbstractCompilationUnit.Pair;
+import wybs.util.AbstractCompilationUnit.Tuple;
+import wybs.util.AbstractCompilationUnit.Value;
+import wytp.types.extractors.TypeInvariantExtractor;
+
+/**
+ * <p>
+ * An interpreter which first compiles an assertion into a tree of closures,
+ * and then evaluates that. This is intended for exhaustively evaluating an
+ * assertion over a domain, where the same statements and expressions are
+ * evaluated very many times. In particular:
+ * </p>
+ * <ul>
+ * <li>The dispatch on opcodes, the resolution of invoked names and the
+ * extraction of type invariants happen once during compilation, rather than
+ * every time an expression is evaluated.</li>
+ * <li>Every variable is assigned a slot in a frame (i.e. an array), and
+ * quantifiers assign their variables directly into their slots. Hence, no
+ * environment is constructed for each point in the domain. An environment is
+ * only constructed for the point at which the assertion fails (if any).</li>
+ * </ul>
+ * <p>
+ * The semantics are those of the underlying interpreter. For example, errors
+ * which arise from resolving names are still only reported if the expression
+ * in question is evaluated.
+ * </p>
+ */
+public class StagedInterpreter extends Interpreter {
+	private final Domain domain;
+
+	/**
+	 * The compiled form of each macro and type invoked, which are compiled on
+	 * demand.
+	 */
+	private final IdentityHashMap<Declaration.Named, Routine> routines = new IdentityHashMap<>();
+
+	/**
+	 * The pool used to search the outermost quantifiers of an assertion in
+	 * parallel, or <code>null</code> if they should be searched sequentially.
+	 */
+	private ForkJoinPool pool;
+
+	/**
+	 * A (smaller) domain over which the assertion is already known to hold, or
+	 * <code>null</code> if there is none. Points of an outermost universal
+	 * quantifier whose values were all generated by this domain need not be
+	 * searched again, provided the outcome at a point cannot otherwise depend
+	 * on the domain.
+	 */
+	private Domain tested;
+
+	/**
+	 * The time (in milliseconds) after which searching is abandoned, or zero
+	 * if there is no such time.
+	 */
+	private long deadline;
+
+	private final NameResolver resolver;
+
+	public StagedInterpreter(Domain domain, NameResolver resolver, TypeInvariantExtractor extractor) {
+		super(domain, resolver, extractor);
+		this.domain = domain;
+		this.resolver = resolver;
+	}
+
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	public void setTested(Domain tested) {
+		this.tested = tested;
+	}
+
+	public void setDeadline(long deadline) {
+		this.deadline = deadline;
+	}
+
+	/**
+	 * Evaluate an assertion. If a deadline is set and passes before evaluation
+	 * completes, then a <code>TimeoutError</code> is thrown.
+	 */
+	@Override
+	public Result evaluate(Declaration.Assert a) throws UndefinedException {
+		Layout layout = new Layout(pool != null);
+		Scope root = new Scope(null, new VariableDeclaration[0], new int[0]);
+		Block block = a.getBody();
+		// NOTE: tested points can only be skipped for the outermost statements
+		// of the assertion, since these are always evaluated when it holds.
+		Statement[] stmts = new Statement[block.size()];
+		for (int i = 0; i != stmts.length; ++i) {
+			Stmt stmt = block.get(i);
+			if (tested != null && stmt.getOpcode() == WyalFile.STMT_forall) {
+				Stmt.UniversalQuantifier forall = (Stmt.UniversalQuantifier) stmt;
+				boolean skipTested = !dependsOnDomain(forall.getParameters(), forall.getBody());
+				stmts[i] = compileForAll(forall, layout, root, skipTested);
+			} else {
+				stmts[i] = compileStatement(stmt, layout, root);
+			}
+		}
+		Object[] frame = new Object[layout.size()];
+		Scope failure = null;
+		for (int i = 0; i != stmts.length && failure == null; ++i) {
+			failure = stmts[i].check(frame);
+		}
+		if (failure == null) {
+			return new Result(new Environment(domain), true);
+		} else {
+			return new Result(failure.toEnvironment(domain, frame), false);
+		}
+	}
+
+	// =========================================================================
+	// Statements
+	// =========================================================================
+
+	private Statement compileBlock(Block block, Layout layout, Scope scope) {
+		Statement[] stmts = new Statement[block.size()];
+		for (int i = 0; i != stmts.length; ++i) {
+			stmts[i] = compileStatement(block.get(i), layout, scope);
+		}
+		return frame -> {
+			for (int i = 0; i != stmts.length; ++i) {
+				Scope r = stmts[i].check(frame);
+				if (r != null) {
+					return r;
+				}
+			}
+			return null;
+		};
+	}
+
+	private Statement compileStatement(Stmt stmt, Layout layout, Scope scope) {
+		switch (stmt.getOpcode()) {
+		case WyalFile.STMT_block:
+			return compileBlock((Stmt.Block) stmt, layout, scope);
+		case WyalFile.STMT_ifthen:
+			return compileIfThen((Stmt.IfThen) stmt, layout, scope);
+		case WyalFile.STMT_caseof:
+			return compileCaseOf((Stmt.CaseOf) stmt, layout, scope);
+		case WyalFile.STMT_exists:
+			return compileExists((Stmt.ExistentialQuantifier) stmt, layout, scope);
+		case WyalFile.STMT_forall:
+			return compileForAll((Stmt.UniversalQuantifier) stmt, layout, scope, false);
+		default:
+			if (stmt instanceof Expr) {
+				Code condition = compileExpression((Expr) stmt, layout);
+				return frame -> (Boolean) condition.eval(frame) ? null : scope;
+			} else {
+				throw new RuntimeException("unknown statement encountered " + stmt.getClass().getName());
+			}
+		}
+	}
+
+	private Statement compileIfThen(Stmt.IfThen stmt, Layout layout, Scope scope) {
+		Statement ifBody = compileBlock(stmt.getIfBody(), layout, scope);
+		Statement thenBody = compileBlock(stmt.getThenBody(), layout, scope);
+		return frame -> ifBody.check(frame) == null ? thenBody.check(frame) : null;
+	}
+
+	private Statement compileCaseOf(Stmt.CaseOf stmt, Layout layout, Scope scope) {
+		Statement[] cases = new Statement[stmt.size()];
+		for (int i = 0; i != cases.length; ++i) {
+			cases[i] = compileBlock(stmt.get(i), layout, scope);
+		}
+		return frame -> {
+			for (int i = 0; i != cases.length; ++i) {
+				if (cases[i].check(frame) == null) {
+					return null;
+				}
+			}
+			return scope;
+		};
+	}
+
+	private Statement compileExists(Stmt.ExistentialQuantifier stmt, Layout layout, Scope scope) {
+		// Only points satisfying the body can be witnesses
+		Quantifier q = compileQuantifier(stmt.getParameters(), stmt.getBody(), layout, scope);
+		Statement body = compileBlock(stmt.getBody(), layout, q.scope);
+		if (layout.parallel && scope.parent == null) {
+			return frame -> search(q, body, frame, false, scope, false);
+		} else {
+			return frame -> sequentialSearch(q, body, frame, false, scope);
+		}
+	}
+
+	/**
+	 * Compile a universal quantifier statement.
+	 *
+	 * @param stmt
+	 * @param layout
+	 * @param scope
+	 * @param skipTested
+	 *            Indicates whether points already tested can be skipped.
+	 * @return
+	 */
+	private Statement compileForAll(Stmt.UniversalQuantifier stmt, Layout layout, Scope scope, boolean skipTested) {
+		// Points not satisfying the condition of a sole if statement cannot be
+		// counterexamples
+		Block block = stmt.getBody();
+		SyntacticItem guard = null;
+		if (block.size() == 1 && block.get(0).getOpcode() == WyalFile.STMT_ifthen) {
+			guard = ((Stmt.IfThen) block.get(0)).getIfBody();
+		}
+		Quantifier q = compileQuantifier(stmt.getParameters(), guard, layout, scope);
+		Statement body = compileBlock(block, layout, q.scope);
+		if (skipTested || (layout.parallel && scope.parent == null)) {
+			return frame -> search(q, body, frame, true, scope, skipTested);
+		} else {
+			return frame -> sequentialSearch(q, body, frame, true, scope);
+		}
+	}
+
+	// =========================================================================
+	// Expressions
+	// =========================================================================
+
+	private Code compileExpression(Expr expr, Layout layout) {
+		switch (expr.getOpcode()) {
+		case WyalFile.EXPR_const:
+			return compileConstant((Expr.Constant) expr);
+		case WyalFile.EXPR_varcopy:
+			return compileVariable((Expr.VariableAccess) expr, layout);
+		case WyalFile.EXPR_invoke:
+			return compileInvoke((Expr.Invoke) expr, layout);
+		case WyalFile.EXPR_and: {
+			Code[] operands = compileExpressions(expr, layout);
+			return frame -> {
+				for (int i = 0; i != operands.length; ++i) {
+					if (!(Boolean) operands[i].eval(frame)) {
+						return false;
+					}
+				}
+				return true;
+			};
+		}
+		case WyalFile.EXPR_or: {
+			Code[] operands = compileExpressions(expr, layout);
+			return frame -> {
+				for (int i = 0; i != operands.length; ++i) {
+					if ((Boolean) operands[i].eval(frame)) {
+						return true;
+					}
+				}
+				return false;
+			};
+		}
+		case WyalFile.EXPR_not: {
+			Code operand = compileExpression(((Expr.LogicalNot) expr).getOperand(), layout);
+			return frame -> !(Boolean) operand.eval(frame);
+		}
+		case WyalFile.EXPR_exists:
+			return compileExistentialQuantifier((Expr.Quantifier) expr, layout);
+		case WyalFile.EXPR_forall:
+			return compileUniversalQuantifier((Expr.Quantifier) expr, layout);
+		case WyalFile.EXPR_implies: {
+			Code lhs = compileExpression((Expr) expr.get(0), layout);
+			Code rhs = compileExpression((Expr) expr.get(1), layout);
+			return frame -> {
+				boolean l = (Boolean) lhs.eval(frame);
+				boolean r = (Boolean) rhs.eval(frame);
+				return !l || r;
+			};
+		}
+		case WyalFile.EXPR_iff: {
+			Code lhs = compileExpression((Expr) expr.get(0), layout);
+			Code rhs = compileExpression((Expr) expr.get(1), layout);
+			return frame -> {
+				boolean l = (Boolean) lhs.eval(frame);
+				boolean r = (Boolean) rhs.eval(frame);
+				return l == r;
+			};
+		}
+		case WyalFile.EXPR_eq: {
+			Code lhs = compileExpression((Expr) expr.get(0), layout);
+			Code rhs = compileExpression((Expr) expr.get(1), layout);
+			return frame -> {
+				Object l = lhs.eval(frame);
+				Object r = rhs.eval(frame);
+				return equals(l, r);
+			};
+		}
+		case WyalFile.EXPR_neq: {
+			Code lhs = compileExpression((Expr) expr.get(0), layout);
+			Code rhs = compileExpression((Expr) expr.get(1), layout);
+			return frame -> {
+				Object l = lhs.eval(frame);
+				Object r = rhs.eval(frame);
+				return !equals(l, r);
+			};
+		}
+		case WyalFile.EXPR_neg: {
+			Code operand = compileExpression((Expr) expr.get(0), layout);
+			return frame -> ((BigInteger) operand.eval(frame)).negate();
+		}
+		case WyalFile.EXPR_lt:
+		case WyalFile.EXPR_lteq:
+		case WyalFile.EXPR_gt:
+		case WyalFile.EXPR_gteq:
+			return compileComparison(expr, layout);
+		case WyalFile.EXPR_add:
+		case WyalFile.EXPR_sub:
+		case WyalFile.EXPR_mul:
+		case WyalFile.EXPR_div:
+			return compileArithmetic(expr, layout);
+		case WyalFile.EXPR_is:
+			return compileIs((Expr.Is) expr, layout);
+		case WyalFile.EXPR_arrlen: {
+			Code source = compileExpression(((Expr.ArrayLength) expr).getSource(), layout);
+			return frame -> BigInteger.valueOf(((Object[]) source.eval(frame)).length);
+		}
+		case WyalFile.EXPR_arridx:
+			return compileArrayAccess((Expr.ArrayAccess) expr, layout);
+		case WyalFile.EXPR_arrinit: {
+			Code[] operands = compileExpressions(expr, layout);
+			return frame -> {
+				Object[] arr = new Object[operands.length];
+				for (int i = 0; i != arr.length; ++i) {
+					arr[i] = operands[i].eval(frame);
+				}
+				return arr;
+			};
+		}
+		case WyalFile.EXPR_arrupdt:
+			return compileArrayUpdate((Expr.ArrayUpdate) expr, layout);
+		case WyalFile.EXPR_arrgen:
+			return compileArrayGenerator((Expr.ArrayGenerator) expr, layout);
+		case WyalFile.EXPR_recinit:
+			return compileRecordInitialiser((Expr.RecordInitialiser) expr, layout);
+		case WyalFile.EXPR_recfield: {
+			Expr.RecordAccess e = (Expr.RecordAccess) expr;
+			Code source = compileExpression(e.getSource(), layout);
+			Identifier field = e.getField();
+			return frame -> ((Record) source.eval(frame)).getField(field);
+		}
+		case WyalFile.EXPR_recupdt: {
+			Expr.RecordUpdate e = (Expr.RecordUpdate) expr;
+			Code source = compileExpression(e.getSource(), layout);
+			Code value = compileExpression(e.getValue(), layout);
+			Identifier field = e.getField();
+			return frame -> {
+				Record r = (Record) source.eval(frame);
+				return r.setField(field, value.eval(frame));
+			};
+		}
+		default:
+			return fail(new RuntimeException("unknown expression encountered: " + expr.getClass().getName()));
+		}
+	}
+
+	private Code[] compileExpressions(Expr expr, Layout layout) {
+		Code[] operands = new Code[expr.size()];
+		for (int i = 0; i != operands.length; ++i) {
+			operands[i] = compileExpression((Expr) expr.get(i), layout);
+		}
+		return operands;
+	}
+
+	private Code compileConstant(Expr.Constant expr) {
+		Value value = expr.getValue();
+		if (value instanceof Value.Null) {
+			return frame -> null;
+		} else if (value instanceof Value.Bool) {
+			Boolean b = ((Value.Bool) value).get();
+			return frame -> b;
+		} else if (value instanceof Value.Int) {
+			BigInteger i = ((Value.Int) value).get();
+			return frame -> i;
+		} else {
+			return fail(new ClassCastException(value.getClass().getName()));
+		}
+	}
+
+	private Code compileVariable(Expr.VariableAccess expr, Layout layout) {
+		Integer slot = layout.get(expr.getVariableDeclaration());
+		if (slot == null) {
+			return fail(new IllegalArgumentException("invalid variable access"));
+		} else {
+			int index = slot;
+			return frame -> frame[index];
+		}
+	}
+
+	private Code compileInvoke(Expr.Invoke expr, Layout layout) {
+		Tuple<Expr> arguments = expr.getArguments();
+		Code[] operands = new Code[arguments.size()];
+		for (int i = 0; i != operands.length; ++i) {
+			operands[i] = compileExpression(arguments.get(i), layout);
+		}
+		Declaration.Named decl;
+		try {
+			decl = resolve(expr);
+		} catch (RuntimeException e) {
+			return fail(e);
+		}
+		if (decl instanceof Declaration.Named.Function) {
+			// Hard case, as we don't have access to bodies of functions. The
+			// generator for the return type is never advanced, so the same one
+			// serves every evaluation.
+			Type returnType = ((Declaration.Named.Function) decl).getSignatureType().getReturns().get(0);
+			Domain.Generator generator;
+			try {
+				generator = domain.generator(returnType);
+			} catch (RuntimeException e) {
+				return fail(e);
+			}
+			return frame -> {
+				for (int i = 0; i != operands.length; ++i) {
+					operands[i].eval(frame);
+				}
+				return generator.get();
+			};
+		} else {
+			Routine routine = getRoutine(decl);
+			return frame -> {
+				Object[] local = new Object[routine.frameSize];
+				for (int i = 0; i != operands.length; ++i) {
+					local[routine.parameters[i]] = operands[i].eval(frame);
+				}
+				return routine.holds(local);
+			};
+		}
+	}
+
+	private Code compileExistentialQuantifier(Expr.Quantifier expr, Layout layout) {
+		Quantifier q = compileQuantifier(expr.getParameters(), expr.getBody(), layout, null);
+		Code body = compileExpression(expr.getBody(), layout);
+		return frame -> {
+			Domain.Generator[] generators = q.generators();
+			boolean done = false;
+			while (!done) {
+				checkDeadline();
+				done = q.next(generators, frame);
+				try {
+					q.checkTypeInvariants(frame);
+					if ((Boolean) body.eval(frame)) {
+						return true;
+					}
+				} catch (UndefinedException e) {
+					continue;
+				}
+			}
+			return false;
+		};
+	}
+
+	private Code compileUniversalQuantifier(Expr.Quantifier expr, Layout layout) {
+		SyntacticItem guard = null;
+		if (expr.getBody().getOpcode() == WyalFile.EXPR_implies) {
+			guard = expr.getBody().get(0);
+		}
+		Quantifier q = compileQuantifier(expr.getParameters(), guard, layout, null);
+		Code body = compileExpression(expr.getBody(), layout);
+		return frame -> {
+			Domain.Generator[] generators = q.generators();
+			boolean done = false;
+			while (!done) {
+				checkDeadline();
+				done = q.next(generators, frame);
+				try {
+					q.checkTypeInvariants(frame);
+					if (!(Boolean) body.eval(frame)) {
+						return false;
+					}
+				} catch (UndefinedException e) {
+					continue;
+				}
+			}
+			return true;
+		};
+	}
+
+	private Code compileComparison(Expr expr, Layout layout) {
+		Code lhs = compileExpression((Expr) expr.get(0), layout);
+		Code rhs = compileExpression((Expr) expr.get(1), layout);
+		int opcode = expr.getOpcode();
+		return frame -> {
+			BigInteger l = (BigInteger) lhs.eval(frame);
+			BigInteger r = (BigInteger) rhs.eval(frame);
+			int c = l.compareTo(r);
+			switch (opcode) {
+			case WyalFile.EXPR_lt:
+				return c < 0;
+			case WyalFile.EXPR_lteq:
+				return c <= 0;
+			case WyalFile.EXPR_gt:
+				return c > 0;
+			default:
+				return c >= 0;
+			}
+		};
+	}
+
+	private Code compileArithmetic(Expr expr, Layout layout) {
+		Code[] operands = compileExpressions(expr, layout);
+		int opcode = expr.getOpcode();
+		return frame -> {
+			BigInteger value = (BigInteger) operands[0].eval(frame);
+			for (int i = 1; i != operands.length; ++i) {
+				BigInteger next = (BigInteger) operands[i].eval(frame);
+				switch (opcode) {
+				case WyalFile.EXPR_add:
+					value = value.add(next);
+					break;
+				case WyalFile.EXPR_sub:
+					value = value.subtract(next);
+					break;
+				case WyalFile.EXPR_mul:
+					value = value.multiply(next);
+					break;
+				default:
+					if (next.signum() == 0) {
+						throw new UndefinedException("division by zero");
+					}
+					value = value.divide(next);
+				}
+			}
+			return value;
+		};
+	}
+
+	private Code compileIs(Expr.Is expr, Layout layout) {
+		Code operand = compileExpression(expr.getTestExpr(), layout);
+		Type type = expr.getTestType();
+		return frame -> {
+			Object value = operand.eval(frame);
+			try {
+				return isInstance(value, type);
+			} catch (ResolutionError e) {
+				throw new RuntimeException(e);
+			}
+		};
+	}
+
+	private Code compileArrayAccess(Expr.ArrayAccess expr, Layout layout) {
+		Code source = compileExpression(expr.getSource(), layout);
+		Code subscript = compileExpression(expr.getSubscript(), layout);
+		return frame -> {
+			Object[] arr = (Object[]) source.eval(frame);
+			int idx = ((BigInteger) subscript.eval(frame)).intValue();
+			if (idx < 0 || idx >= arr.length) {
+				throw new UndefinedException("index out-of-bounds");
+			}
+			return arr[idx];
+		};
+	}
+
+	private Code compileArrayUpdate(Expr.ArrayUpdate expr, Layout layout) {
+		Code source = compileExpression(expr.getSource(), layout);
+		Code subscript = compileExpression(expr.getSubscript(), layout);
+		Code value = compileExpression(expr.getValue(), layout);
+		return frame -> {
+			Object[] arr = (Object[]) source.eval(frame);
+			int index = ((BigInteger) subscript.eval(frame)).intValue();
+			Object v = value.eval(frame);
+			arr = Arrays.copyOf(arr, arr.length);
+			arr[index] = v;
+			return arr;
+		};
+	}
+
+	private Code compileArrayGenerator(Expr.ArrayGenerator expr, Layout layout) {
+		Code value = compileExpression(expr.getValue(), layout);
+		Code length = compileExpression(expr.getLength(), layout);
+		return frame -> {
+			Object v = value.eval(frame);
+			int n = ((BigInteger) length.eval(frame)).intValue();
+			if (n < 0) {
+				throw new UndefinedException("negative array length");
+			}
+			Object[] arr = new Object[n];
+			Arrays.fill(arr, v);
+			return arr;
+		};
+	}
+
+	private Code compileRecordInitialiser(Expr.RecordInitialiser expr, Layout layout) {
+		Pair<Identifier, Expr>[] fieldAssignments = expr.getFields();
+		Arrays.sort(fieldAssignments, (l, r) -> l.getFirst().compareTo(r.getFirst()));
+		Identifier[] fields = new Identifier[fieldAssignments.length];
+		Code[] values = new Code[fieldAssignments.length];
+		for (int i = 0; i != fieldAssignments.length; ++i) {
+			fields[i] = fieldAssignments[i].getFirst();
+			values[i] = compileExpression(fieldAssignments[i].getSecond(), layout);
+		}
+		return frame -> {
+			Object[] vs = new Object[values.length];
+			for (int i = 0; i != vs.length; ++i) {
+				vs[i] = values[i].eval(frame);
+			}
+			return new Record(fields, vs);
+		};
+	}
+
+	// =========================================================================
+	// Parallel Search
+	// =========================================================================
+
+	/**
+	 * Search the points of an outermost quantifier in parallel. The points
+	 * form the cartesian product of the values for each quantified variable
+	 * and, hence, can be numbered in the order they are enumerated
+	 * sequentially. This numbering is divided into ranges which are searched
+	 * independently, each with its own copy of the frame. Searching stops
+	 * globally once some point decides the outcome (i.e. falsifies a universal
+	 * or satisfies an existential quantifier, or raises an error), although
+	 * points before it are still searched. Thus, the outcome is always that of
+	 * the first such point, exactly as for a sequential search. If no pool is
+	 * set, then the points are simply searched in order.
+	 *
+	 * @param q
+	 * @param body
+	 * @param frame
+	 * @param universal
+	 * @param scope
+	 *            The scope of the quantifier statement itself.
+	 * @param skipTested
+	 *            Indicates whether points already tested can be skipped.
+	 * @return
+	 * @throws UndefinedException
+	 */
+	private Scope search(Quantifier q, Statement body, Object[] frame, boolean universal, Scope scope,
+			boolean skipTested) throws UndefinedException {
+		Search search = new Search(q, body, frame, universal, skipTested ? tested : null);
+		if (search.size == 0) {
+			// Cannot divide search
+			return sequentialSearch(q, body, frame, universal, scope);
+		} else if (pool == null) {
+			search.new Range(0, search.size, search.size).invoke();
+		} else {
+			long grain = Math.max(1, search.size / (pool.getParallelism() * 16L));
+			pool.invoke(search.new Range(0, search.size, grain));
+		}
+		if (search.error != null) {
+			throw search.error;
+		} else if (search.frame == null) {
+			// No point decided the outcome
+			return universal ? null : scope;
+		} else {
+			System.arraycopy(search.frame, 0, frame, 0, frame.length);
+			return search.failure;
+		}
+	}
+
+	/**
+	 * Search the points of a quantifier one after another, in the order they
+	 * are generated.
+	 *
+	 * @param q
+	 * @param body
+	 * @param frame
+	 * @param universal
+	 * @param scope
+	 *            The scope of the quantifier statement itself.
+	 * @return
+	 */
+	private Scope sequentialSearch(Quantifier q, Statement body, Object[] frame, boolean universal, Scope scope) {
+		Domain.Generator[] generators = q.generators();
+		boolean done = false;
+		while (!done) {
+			checkDeadline();
+			done = q.next(generators, frame);
+			try {
+				q.checkTypeInvariants(frame);
+				Scope r = body.check(frame);
+				if (universal && r != null) {
+					return r;
+				} else if (!universal && r == null) {
+					return null;
+				}
+			} catch (UndefinedException e) {
+				continue;
+			}
+		}
+		return universal ? null : scope;
+	}
+
+	private final class Search {
+		private final Quantifier quantifier;
+		private final Statement body;
+		private final Object[] initial;
+		private final boolean universal;
+		/**
+		 * The values for each quantified variable, in the order they are
+		 * generated.
+		 */
+		private final Object[][] values;
+		/**
+		 * Indicates, for each value of each quantified variable, whether it
+		 * was generated by the tested domain. This is <code>null</code> if
+		 * no points should be skipped.
+		 */
+		private final boolean[][] tested;
+		/**
+		 * The total number of points, or zero if this is too large.
+		 */
+		private final long size;
+		/**
+		 * The number of the first point known to decide the outcome.
+		 */
+		private final AtomicLong first = new AtomicLong(Long.MAX_VALUE);
+		// The outcome at the first deciding point
+		private Object[] frame;
+		private Scope failure;
+		private RuntimeException error;
+
+		public Search(Quantifier quantifier, Statement body, Object[] initial, boolean universal, Domain tested) {
+			this.quantifier = quantifier;
+			this.body = body;
+			this.initial = initial;
+			this.universal = universal;
+			Domain.Generator[] generators = quantifier.generators(domain);
+			this.values = new Object[generators.length][];
+			long size = 1;
+			for (int i = 0; i != generators.length; ++i) {
+				values[i] = materialise(generators[i]);
+				try {
+					size = Math.multiplyExact(size, values[i].length);
+				} catch (ArithmeticException e) {
+					size = 0;
+					break;
+				}
+			}
+			this.size = size;
+			if (tested != null && size != 0) {
+				Domain.Generator[] previous = quantifier.generators(tested);
+				this.tested = new boolean[values.length][];
+				for (int i = 0; i != values.length; ++i) {
+					Object[] vs = materialise(previous[i]);
+					this.tested[i] = new boolean[values[i].length];
+					for (int j = 0; j != values[i].length; ++j) {
+						for (int k = 0; k != vs.length && !this.tested[i][j]; ++k) {
+							this.tested[i][j] = StagedInterpreter.this.equals(values[i][j], vs[k]);
+						}
+					}
+				}
+			} else {
+				this.tested = null;
+			}
+		}
+
+		private Object[] materialise(Domain.Generator gen) {
+			ArrayList<Object> vs = new ArrayList<>();
+			vs.add(gen.get());
+			while (gen.hasNext()) {
+				gen.next();
+				vs.add(gen.get());
+			}
+			return vs.toArray();
+		}
+
+		/**
+		 * Check whether the values at a given point were all generated by the
+		 * tested domain.
+		 *
+		 * @param digits
+		 * @return
+		 */
+		private boolean isTested(int[] digits) {
+			if (tested == null) {
+				return false;
+			}
+			for (int i = 0; i != digits.length; ++i) {
+				if (!tested[i][digits[i]]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Record the outcome at a given point, provided no earlier point has
+		 * already decided the outcome.
+		 *
+		 * @param point
+		 * @param frame
+		 * @param failure
+		 * @param error
+		 */
+		private synchronized void decide(long point, Object[] frame, Scope failure, RuntimeException error) {
+			if (point < first.get()) {
+				first.set(point);
+				this.frame = frame;
+				this.failure = failure;
+				this.error = error;
+			}
+		}
+
+		private final class Range extends RecursiveAction {
+			private static final long serialVersionUID = 1L;
+			private final long start;
+			private final long end;
+			private final long grain;
+
+			public Range(long start, long end, long grain) {
+				this.start = start;
+				this.end = end;
+				this.grain = grain;
+			}
+
+			@Override
+			protected void compute() {
+				if (end - start > grain) {
+					long middle = start + (end - start) / 2;
+					invokeAll(new Range(start, middle, grain), new Range(middle, end, grain));
+				} else {
+					search();
+				}
+			}
+
+			private void search() {
+				int[] slots = quantifier.slots;
+				Object[] local = initial.clone();
+				// Determine the value of each variable at the starting point,
+				// noting that the first variable varies fastest.
+				int[] digits = new int[slots.length];
+				long remainder = start;
+				for (int i = 0; i != digits.length; ++i) {
+					digits[i] = (int) (remainder % values[i].length);
+					remainder = remainder / values[i].length;
+				}
+				for (long point = start; point < end && point < first.get(); ++point) {
+					for (int i = 0; i != slots.length; ++i) {
+						local[slots[i]] = values[i][digits[i]];
+					}
+					try {
+						checkDeadline();
+						if (!isTested(digits)) {
+							quantifier.checkTypeInvariants(local);
+							Scope r = body.check(local);
+							if (universal && r != null) {
+								decide(point, local, r, null);
+								return;
+							} else if (!universal && r == null) {
+								decide(point, local, null, null);
+								return;
+							}
+						}
+					} catch (UndefinedException e) {
+						// Skip this point
+					} catch (RuntimeException e) {
+						decide(point, local, null, e);
+						return;
+					}
+					// Advance to next point
+					for (int i = 0; i != digits.length; ++i) {
+						if (++digits[i] < values[i].length) {
+							break;
+						}
+						digits[i] = 0;
+					}
+				}
+			}
+		}
+	}
+
+	// =========================================================================
+	// Helpers
+	// =========================================================================
+
+	/**
+	 * Compile the declaration of one or more quantified variables. This
+	 * assigns each a slot in the frame, and compiles the invariant of its type
+	 * (if any). The values generated for each variable are restricted to the
+	 * interval implied by a guard (if any), which must hold at any point of
+	 * interest.
+	 *
+	 * @param parameters
+	 * @param guard
+	 *            A constraint which must hold at any point of interest, or
+	 *            <code>null</code>.
+	 * @param layout
+	 * @param scope
+	 *            The enclosing scope, or <code>null</code> if the scope of
+	 *            this quantifier is not needed (i.e. because it's within an
+	 *            expression).
+	 * @return
+	 */
+	private Quantifier compileQuantifier(Tuple<VariableDeclaration> parameters, SyntacticItem guard, Layout layout,
+			Scope scope) {
+		VariableDeclaration[] variables = parameters.toArray(VariableDeclaration.class);
+		int[] slots = new int[variables.length];
+		Interval[] intervals = new Interval[variables.length];
+		for (int i = 0; i != variables.length; ++i) {
+			slots[i] = layout.declare(variables[i]);
+			intervals[i] = guard == null ? Interval.UNBOUNDED : Interval.extract(variables[i], guard);
+		}
+		Code[] invariants = new Code[variables.length];
+		for (int i = 0; i != variables.length; ++i) {
+			VariableDeclaration decl = variables[i];
+			try {
+				Expr invariant = getTypeInvariant(decl);
+				if (invariant != null) {
+					invariants[i] = compileExpression(invariant, layout);
+				}
+			} catch (ResolutionError err) {
+				invariants[i] = fail(new RuntimeException(err));
+			}
+		}
+		// Restrict the values of each variable once, rather than every time
+		// the quantifier is evaluated.
+		Object[][] values = new Object[variables.length][];
+		for (int i = 0; i != variables.length; ++i) {
+			if (!intervals[i].isUnbounded()) {
+				try {
+					values[i] = intervals[i].select(domain.generator(variables[i].getType()));
+				} catch (RuntimeException e) {
+					// Reported when the quantifier is evaluated
+				}
+			}
+		}
+		Scope inner = scope == null ? null : new Scope(scope, variables, slots);
+		return new Quantifier(variables, slots, intervals, values, invariants, inner);
+	}
+
+	private Routine getRoutine(Declaration.Named decl) {
+		Routine routine = routines.get(decl);
+		if (routine == null) {
+			// Register routine before compiling its body, in case it is
+			// recursive.
+			Layout layout = new Layout(false);
+			Tuple<VariableDeclaration> parameters = decl.getParameters();
+			int[] slots = new int[parameters.size()];
+			for (int i = 0; i != slots.length; ++i) {
+				slots[i] = layout.declare(parameters.get(i));
+			}
+			routine = new Routine(slots);
+			routines.put(decl, routine);
+			Scope root = new Scope(null, new VariableDeclaration[0], new int[0]);
+			if (decl instanceof Declaration.Named.Macro) {
+				Declaration.Named.Macro macro = (Declaration.Named.Macro) decl;
+				routine.blocks = new Statement[] { compileBlock(macro.getBody(), layout, root) };
+			} else {
+				Declaration.Named.Type type = (Declaration.Named.Type) decl;
+				Tuple<Block> invariant = type.getInvariant();
+				// The invariant of the underlying type (e.g. another nominal
+				// type) is checked first.
+				routine.blocks = new Statement[invariant.size() + 1];
+				routine.blocks[0] = compileTypeInvariant(type.getVariableDeclaration(), layout, root);
+				for (int i = 0; i != invariant.size(); ++i) {
+					routine.blocks[i + 1] = compileBlock(invariant.get(i), layout, root);
+				}
+			}
+			routine.frameSize = layout.size();
+		}
+		return routine;
+	}
+
+	/**
+	 * Compile the invariant of a variable declaration's type into a statement
+	 * which holds if the invariant does (or there is none).
+	 *
+	 * @param decl
+	 * @param layout
+	 * @param scope
+	 * @return
+	 */
+	private Statement compileTypeInvariant(VariableDeclaration decl, Layout layout, Scope scope) {
+		Code invariant;
+		try {
+			Expr expr = getTypeInvariant(decl);
+			if (expr == null) {
+				return frame -> null;
+			}
+			invariant = compileExpression(expr, layout);
+		} catch (ResolutionError err) {
+			invariant = fail(new RuntimeException(err));
+		}
+		Code condition = invariant;
+		return frame -> (Boolean) condition.eval(frame) ? null : scope;
+	}
+
+	/**
+	 * Abandon the search if the deadline has passed.
+	 */
+	private void checkDeadline() {
+		if (deadline != 0 && System.currentTimeMillis() > deadline) {
+			throw new TimeoutError();
+		}
+	}
+
+	/**
+	 * Determine whether evaluating any of the given items might depend on the
+	 * domain, other than through the values of the variables they use.
+	 *
+	 * @param items
+	 * @return
+	 */
+	boolean dependsOnDomain(SyntacticItem... items) {
+		IdentityHashMap<SyntacticItem, Boolean> visited = new IdentityHashMap<>();
+		for (SyntacticItem item : items) {
+			if (dependsOnDomain(item, visited)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Determine whether evaluating an item might depend on the domain, other
+	 * than through the values of the variables it uses. This is the case if it
+	 * contains a quantifier, or invokes a function (whose result is drawn from
+	 * the domain), either directly or via the macros and types it uses.
+	 *
+	 * @param item
+	 * @param visited
+	 *            The declarations already visited.
+	 * @return
+	 */
+	private boolean dependsOnDomain(SyntacticItem item, IdentityHashMap<SyntacticItem, Boolean> visited) {
+		switch (item.getOpcode()) {
+		case WyalFile.STMT_exists:
+		case WyalFile.STMT_forall:
+		case WyalFile.EXPR_exists:
+		case WyalFile.EXPR_forall:
+			return true;
+		case WyalFile.EXPR_invoke: {
+			Declaration.Named decl;
+			try {
+				decl = resolve((Expr.Invoke) item);
+			} catch (RuntimeException e) {
+				return true;
+			}
+			if (decl instanceof Declaration.Named.Function) {
+				return true;
+			} else if (visited.put(decl, Boolean.TRUE) == null && dependsOnDomain(decl, visited)) {
+				return true;
+			}
+			break;
+		}
+		case WyalFile.TYPE_nom: {
+			Declaration.Named.Type decl;
+			try {
+				decl = resolver.resolveExactly(((Type.Nominal) item).getName(), Declaration.Named.Type.class);
+			} catch (ResolutionError e) {
+				return true;
+			}
+			if (visited.put(decl, Boolean.TRUE) == null && dependsOnDomain(decl, visited)) {
+				return true;
+			}
+			break;
+		}
+		}
+		for (int i = 0; i != item.size(); ++i) {
+			SyntacticItem child = item.get(i);
+			if (child != null && dependsOnDomain(child, visited)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Construct code which, when evaluated, throws a given exception. This
+	 * ensures problems encountered during compilation are reported only if
+	 * the expression in question is actually evaluated.
+	 *
+	 * @param e
+	 * @return
+	 */
+	private static Code fail(RuntimeException e) {
+		return frame -> {
+			throw e;
+		};
+	}
+
+	/**
+	 * Signals that the deadline for evaluating an assertion has passed.
+	 */
+	public static class TimeoutError extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		public TimeoutError() {
+			super("search time exceeded");
+		}
+	}
+
+	/**
+	 * A compiled expression.
+	 */
+	private interface Code {
+		public Object eval(Object[] frame) throws UndefinedException;
+	}
+
+	/**
+	 * A compiled statement. This returns <code>null</code> if the statement
+	 * holds, or the scope in which it failed otherwise.
+	 */
+	private interface Statement {
+		public Scope check(Object[] frame) throws UndefinedException;
+	}
+
+	/**
+	 * Assigns each variable declaration a slot in the frame.
+	 */
+	private static final class Layout {
+		private final IdentityHashMap<VariableDeclaration, Integer> slots = new IdentityHashMap<>();
+		/**
+		 * Indicates whether outermost quantifiers in this frame should be
+		 * searched in parallel.
+		 */
+		private final boolean parallel;
+
+		public Layout(boolean parallel) {
+			this.parallel = parallel;
+		}
+
+		public int declare(VariableDeclaration decl) {
+			Integer slot = slots.get(decl);
+			if (slot == null) {
+				slot = slots.size();
+				slots.put(decl, slot);
+			}
+			return slot;
+		}
+
+		public Integer get(VariableDeclaration decl) {
+			return slots.get(decl);
+		}
+
+		public int size() {
+			return slots.size();
+		}
+	}
+
+	/**
+	 * The variables declared by a quantifier statement, along with those of
+	 * the enclosing statements. This is used to construct the environment for
+	 * a failing statement.
+	 */
+	private static final class Scope {
+		private final Scope parent;
+		private final VariableDeclaration[] variables;
+		private final int[] slots;
+
+		public Scope(Scope parent, VariableDeclaration[] variables, int[] slots) {
+			this.parent = parent;
+			this.variables = variables;
+			this.slots = slots;
+		}
+
+		public Environment toEnvironment(Domain domain, Object[] frame) {
+			if (parent == null) {
+				return new Environment(domain);
+			} else {
+				Object[] values = new Object[slots.length];
+				for (int i = 0; i != slots.length; ++i) {
+					values[i] = frame[slots[i]];
+				}
+				return parent.toEnvironment(domain, frame).bind(variables, values);
+			}
+		}
+	}
+
+	private final class Quantifier {
+		private final VariableDeclaration[] variables;
+		private final int[] slots;
+		private final Interval[] intervals;
+		/**
+		 * The values of each variable in the domain which are in its interval,
+		 * or <code>null</code> if its values are not restricted.
+		 */
+		private final Object[][] values;
+		private final Code[] invariants;
+		private final Scope scope;
+
+		public Quantifier(VariableDeclaration[] variables, int[] slots, Interval[] intervals, Object[][] values,
+				Code[] invariants, Scope scope) {
+			this.variables = variables;
+			this.slots = slots;
+			this.intervals = intervals;
+			this.values = values;
+			this.invariants = invariants;
+			this.scope = scope;
+		}
+
+		public Domain.Generator[] generators() {
+			return generators(domain);
+		}
+
+		public Domain.Generator[] generators(Domain domain) {
+			Domain.Generator[] generators = new Domain.Generator[variables.length];
+			for (int i = 0; i != generators.length; ++i) {
+				if (domain == StagedInterpreter.this.domain && values[i] != null) {
+					generators[i] = Interval.generator(values[i]);
+				} else {
+					generators[i] = intervals[i].restrict(domain.generator(variables[i].getType()));
+				}
+			}
+			return generators;
+		}
+
+		/**
+		 * Assign the current values of the generators to the quantified
+		 * variables, and advance the generators to the next point.
+		 *
+		 * @param generators
+		 * @param frame
+		 * @return True if this was the last point.
+		 */
+		public boolean next(Domain.Generator[] generators, Object[] frame) {
+			for (int i = 0; i != generators.length; ++i) {
+				frame[slots[i]] = generators[i].get();
+			}
+			for (int i = 0; i != generators.length; ++i) {
+				Domain.Generator gen = generators[i];
+				if (gen.hasNext()) {
+					gen.next();
+					return false;
+				} else {
+					gen.reset();
+				}
+			}
+			return true;
+		}
+
+		public void checkTypeInvariants(Object[] frame) throws UndefinedException {
+			for (int i = 0; i != invariants.length; ++i) {
+				if (invariants[i] != null && !(Boolean) invariants[i].eval(frame)) {
+					throw new UndefinedException("invalid type invariant");
+				}
+			}
+		}
+	}
+
+	private static final class Routine {
+		private final int[] parameters;
+		private Statement[] blocks;
+		private int frameSize;
+
+		public Routine(int[] parameters) {
+			this.parameters = parameters;
+		}
+
+		public boolean holds(Object[] frame) throws UndefinedException {
+			for (int i = 0; i != blocks.length; ++i) {
+				if (blocks[i].check(frame) != null) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
@@ -21,8 +21,13 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
 
+import wyal.io.WyalFileLexer;
+import wyal.io.WyalFileParser;
 import wyal.lang.WyalFile;
 import wyal.tasks.CompileTask;
 import wybs.lang.Build;
@@ -74,6 +79,20 @@ public class TestUtils {
 		}
 	};
 
+	/**
+	 * Parse and type check a WyAL file given as a string. Names in the file
+	 * can only be resolved against the file itself.
+	 *
+	 * @param source
+	 * @return
+	 */
+	public static WyalFile parse(String source) {
+		WyalFile file = new WyalFile(null);
+		new WyalFileParser(file, new WyalFileLexer(source).scan()).read();
+		new TypeChecker(new TypeSystem(null), file, null).check();
+		return file;
+	}
+
 	/**
 	 * Run the Whiley Compiler with the given list of arguments.
 	 *
@@ -131,6 +150,91 @@ public class TestUtils {
 		return new Pair<>(result, output);
 	}
 
+	/**
+	 * Check every test in a given directory with a prover constructed for
+	 * that directory, and determine which tests verify. This is useful for
+	 * checking that different prover configurations agree.
+	 *
+	 * @param dir
+	 *            The directory containing the tests.
+	 * @param ignored
+	 *            The names of tests which should not be checked.
+	 * @param prover
+	 *            Constructs the prover from the type system for the directory.
+	 * @return Maps the name of each test to its verdict.
+	 * @throws IOException
+	 */
+	public static Map<String, Boolean> check(File dir, Collection<String> ignored,
+			Function<TypeSystem, AutomatedTheoremProver> prover) throws IOException {
+		DirectoryRoot root = new DirectoryRoot(dir, registry);
+		TypeSystem typeSystem = new TypeSystem(new SequentialBuildProject(root));
+		AutomatedTheoremProver p = prover.apply(typeSystem);
+		Map<String, Boolean> verdicts = new TreeMap<>();
+		for (Path.Entry<WyalFile> entry : root.get(wyalIncludes)) {
+			String name = entry.id().toString();
+			if (!ignored.contains(name)) {
+				try {
+					WyalFile file = entry.read();
+					new TypeChecker(typeSystem, file, null).check();
+					p.check(file);
+					verdicts.put(name, true);
+				} catch (SyntacticException e) {
+					verdicts.put(name, false);
+				}
+			}
+		}
+		return verdicts;
+	}
+
+	/**
+	 * Evaluate every assertion of every test in a given directory with an
+	 * interpreter constructed for that directory, and describe the outcome.
+	 * This is useful for checking that different interpreters agree. The
+	 * outcome of an assertion is either "holds", the environment in which it
+	 * fails, or the name of the exception raised.
+	 *
+	 * @param dir
+	 *            The directory containing the tests.
+	 * @param ignored
+	 *            The names of tests which should not be evaluated.
+	 * @param interpreter
+	 *            Constructs the interpreter from the resolver for the
+	 *            directory.
+	 * @return Maps the name of each test to the outcome of each assertion.
+	 * @throws IOException
+	 */
+	public static Map<String, List<String>> evaluate(File dir, Collection<String> ignored,
+			Function<NameResolver, Interpreter> interpreter) throws IOException {
+		DirectoryRoot root = new DirectoryRoot(dir, registry);
+		SequentialBuildProject project = new SequentialBuildProject(root);
+		TypeSystem typeSystem = new TypeSystem(project);
+		Interpreter in = interpreter.apply(new WyalFileResolver(project));
+		Map<String, List<String>> outcomes = new TreeMap<>();
+		for (Path.Entry<WyalFile> entry : root.get(wyalIncludes)) {
+			String name = entry.id().toString();
+			if (!ignored.contains(name)) {
+				List<String> outcome = new ArrayList<>();
+				try {
+					WyalFile file = entry.read();
+					new TypeChecker(typeSystem, file, null).check();
+					for (WyalFile.Declaration.Assert assertion : file
+							.getSyntacticItems(WyalFile.Declaration.Assert.class)) {
+						try {
+							Interpreter.Result result = in.evaluate(assertion);
+							outcome.add(result.holds() ? "holds" : result.getEnvironment().toString());
+						} catch (RuntimeException | Interpreter.UndefinedException e) {
+							outcome.add(e.getClass().getName());
+						}
+					}
+				} catch (SyntacticException e) {
+					// Tests which cannot be read have no assertions
+				}
+				outcomes.put(name, outcome);
+			}
+		}
+		return outcomes;
+	}
+
 	/**
 	 * For each test, identify the corresponding Whiley file entry in the source
 	 * root.
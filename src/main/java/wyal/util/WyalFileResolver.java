@@ -14,7 +14,11 @@
 package wyal.util;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 import wyal.lang.WyalFile;
 import wybs.lang.CompilationUnit.Declaration;
@@ -22,12 +26,28 @@ import wybs.lang.Build;
 import wybs.lang.CompilationUnit;
 import wyal.util.NameResolver;
 import wybs.lang.SyntacticHeap;
+import wybs.lang.SyntacticItem;
 import wyfs.lang.Path;
 import wyfs.util.Trie;
 
+/**
+ * Resolves names against the declarations of the WyAL file in which they
+ * occur. To avoid scanning every declaration on each lookup, a symbol table is
+ * constructed for each file on demand. This maps the (fully qualified) name of
+ * every declaration to the positions of those declarations in the file. Since
+ * declarations are only ever added to a file, the table is extended with any
+ * items added since it was constructed.
+ */
 public final class WyalFileResolver implements NameResolver {
 	private final Build.Project project;
 
+	/**
+	 * The symbol table for each file encountered. Tables refer to declarations
+	 * only by position, so that they don't prevent files from being
+	 * collected.
+	 */
+	private final Map<WyalFile, SymbolTable> tables = new WeakHashMap<>();
+
 	public WyalFileResolver(Build.Project project) {
 		this.project = project;
 	}
@@ -35,8 +55,9 @@ public final class WyalFileResolver implements NameResolver {
 	@Override
 	public <T extends Declaration> T resolveExactly(CompilationUnit.Name name, Class<T> kind) throws ResolutionError {
 		WyalFile parent = getWyalFile(name.getHeap());
-		for(WyalFile.Declaration.Named d : parent.getSyntacticItems(WyalFile.Declaration.Named.class)) {
-			if(kind.isInstance(d) && name.equals(d.getName())) {
+		for (int index : getSymbolTable(parent).get(toPathID(name))) {
+			SyntacticItem d = parent.getSyntacticItem(index);
+			if (kind.isInstance(d)) {
 				return (T) d;
 			}
 		}
@@ -47,14 +68,37 @@ public final class WyalFileResolver implements NameResolver {
 	public <T extends Declaration> List<T> resolveAll(CompilationUnit.Name name, Class<T> kind) throws ResolutionError {
 		WyalFile parent = getWyalFile(name.getHeap());
 		List<T> results = new ArrayList<>();
-		for (WyalFile.Declaration.Named d : parent.getSyntacticItems(WyalFile.Declaration.Named.class)) {
-			if (kind.isInstance(d) && name.equals(d.getName())) {
+		for (int index : getSymbolTable(parent).get(toPathID(name))) {
+			SyntacticItem d = parent.getSyntacticItem(index);
+			if (kind.isInstance(d)) {
 				results.add((T) d);
 			}
 		}
 		return results;
 	}
 
+	/**
+	 * Get the symbol table for a given file, constructing it if it doesn't
+	 * exist or extending it if items have been added to the file since it was
+	 * constructed.
+	 *
+	 * @param file
+	 * @return
+	 */
+	private SymbolTable getSymbolTable(WyalFile file) {
+		synchronized (tables) {
+			SymbolTable table = tables.get(file);
+			if (table == null) {
+				table = new SymbolTable(SymbolTable.EMPTY_TABLE, file);
+				tables.put(file, table);
+			} else if (table.size != file.size()) {
+				table = new SymbolTable(table, file);
+				tables.put(file, table);
+			}
+			return table;
+		}
+	}
+
 	public WyalFile getWyalFile(SyntacticHeap heap) {
 		if(heap instanceof WyalFile) {
 			return (WyalFile) heap;
@@ -63,11 +107,65 @@ public final class WyalFileResolver implements NameResolver {
 		}
 	}
 
-	private Path.ID toPathID(CompilationUnit.Name name) {
+	private static Path.ID toPathID(CompilationUnit.Name name) {
 		Trie r = Trie.ROOT;
 		for(int i=0;i!=name.size();++i) {
 			r = r.append(name.get(i).get());
 		}
 		return r;
 	}
+
+	private static final class SymbolTable {
+		private static final int[] EMPTY = new int[0];
+
+		private static final SymbolTable EMPTY_TABLE = new SymbolTable();
+
+		/**
+		 * The number of items in the file when this table was constructed.
+		 */
+		private final int size;
+
+		/**
+		 * Maps the name of each declaration to the positions of all
+		 * declarations with that name, in the order they occur.
+		 */
+		private final HashMap<Path.ID, int[]> declarations = new HashMap<>();
+
+		private SymbolTable() {
+			this.size = 0;
+		}
+
+		/**
+		 * Construct the table for a given file by extending that constructed
+		 * for an earlier version of it. Hence, only the items added since are
+		 * scanned. Tables are never modified once constructed, since they may
+		 * be in use by other threads.
+		 *
+		 * @param previous
+		 * @param file
+		 */
+		public SymbolTable(SymbolTable previous, WyalFile file) {
+			this.size = file.size();
+			this.declarations.putAll(previous.declarations);
+			for (int i = previous.size; i != size; ++i) {
+				SyntacticItem item = file.getSyntacticItem(i);
+				if (item instanceof WyalFile.Declaration.Named) {
+					Path.ID id = toPathID(((WyalFile.Declaration.Named) item).getName());
+					int[] indices = declarations.get(id);
+					if (indices == null) {
+						indices = new int[] { i };
+					} else {
+						indices = Arrays.copyOf(indices, indices.length + 1);
+						indices[indices.length - 1] = i;
+					}
+					declarations.put(id, indices);
+				}
+			}
+		}
+
+		public int[] get(Path.ID id) {
+			int[] indices = declarations.get(id);
+			return indices == null ? EMPTY : indices;
+		}
+	}
 }
@@ -0,0 +1,170 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wytp.proof;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * A budget limits the resources which can be consumed in searching for a
+ * proof. Specifically, it limits the wall-clock time taken, the number of rule
+ * applications, the size of the heap in which formulae are allocated and the
+ * depth of nested case splits. Every proof has exactly one budget which is
+ * shared by all of its states (including those of branches being explored in
+ * parallel).
+ * </p>
+ * <p>
+ * Budgets are enforced cooperatively. That is, the prover and any rules which
+ * can perform a large amount of work are expected to check the budget
+ * periodically. When the budget is exhausted, an <code>Exhausted</code>
+ * exception is thrown to abandon the proof search. This does not mean the
+ * assertion is invalid, only that it could not be proved within the given
+ * budget.
+ * </p>
+ */
+public class Budget {
+	/**
+	 * The time (as given by <code>System.nanoTime()</code>) by which the proof
+	 * must be completed, or <code>null</code> if there is no time limit.
+	 */
+	private final Long deadline;
+
+	/**
+	 * The maximum number of rule applications permitted.
+	 */
+	private final int maxSteps;
+
+	/**
+	 * The maximum number of items permitted in the heap.
+	 */
+	private final int maxHeapSize;
+
+	/**
+	 * The maximum depth of nested case splits permitted.
+	 */
+	private final int maxSplitDepth;
+
+	/**
+	 * The number of rule applications performed so far.
+	 */
+	private final AtomicInteger steps = new AtomicInteger();
+
+	/**
+	 * Construct an unlimited budget.
+	 */
+	public Budget() {
+		this(-1, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Construct a budget with a given set of limits. The time limit starts from
+	 * the moment the budget is constructed.
+	 *
+	 * @param timeout
+	 *            The maximum time (in milliseconds) permitted, or a negative
+	 *            value for no time limit.
+	 * @param maxSteps
+	 *            The maximum number of rule applications permitted.
+	 * @param maxHeapSize
+	 *            The maximum number of items permitted in the heap.
+	 * @param maxSplitDepth
+	 *            The maximum depth of nested case splits permitted.
+	 */
+	public Budget(long timeout, int maxSteps, int maxHeapSize, int maxSplitDepth) {
+		this.deadline = timeout < 0 ? null : System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		this.maxSteps = maxSteps;
+		this.maxHeapSize = maxHeapSize;
+		this.maxSplitDepth = maxSplitDepth;
+	}
+
+	/**
+	 * Get the number of rule applications performed so far.
+	 *
+	 * @return
+	 */
+	public int getSteps() {
+		return steps.get();
+	}
+
+	/**
+	 * Check whether the time limit for this budget has been reached. This is
+	 * cheap enough to be called from within the inner loops of rules.
+	 *
+	 * @throws Exhausted
+	 *             If the time limit has been reached.
+	 */
+	public void check() {
+		if (deadline != null && System.nanoTime() - deadline > 0) {
+			throw new Exhausted("time limit reached");
+		}
+	}
+
+	/**
+	 * Record that a rule is about to be applied, checking that neither the
+	 * step nor the time limit has been reached.
+	 *
+	 * @throws Exhausted
+	 *             If either limit has been reached.
+	 */
+	public void step() {
+		if (steps.incrementAndGet() > maxSteps) {
+			throw new Exhausted("step limit reached");
+		}
+		check();
+	}
+
+	/**
+	 * Check that the heap size limit has not been exceeded.
+	 *
+	 * @param size
+	 *            The current number of items in the heap.
+	 * @throws Exhausted
+	 *             If the limit has been exceeded.
+	 */
+	public void checkHeapSize(int size) {
+		if (size > maxHeapSize) {
+			throw new Exhausted("heap limit reached");
+		}
+	}
+
+	/**
+	 * Check that the split depth limit has not been exceeded.
+	 *
+	 * @param depth
+	 *            The current depth of nested case splits.
+	 * @throws Exhausted
+	 *             If the limit has been exceeded.
+	 */
+	public void checkSplitDepth(int depth) {
+		if (depth > maxSplitDepth) {
+			throw new Exhausted("split limit reached");
+		}
+	}
+
+	/**
+	 * Signals that a budget has been exhausted and, hence, that the proof
+	 * search has been abandoned.
+	 */
+	public static class Exhausted extends RuntimeException {
+		/**
+		 *
+		 */
+		private static final long serialVersionUID = 1L;
+
+		public Exhausted(String message) {
+			super(message);
+		}
+	}
+}
@@ -23,6 +23,8 @@ import wyal.util.NameResolver;
 import wyal.util.NameResolver.ResolutionError;
 import wybs.lang.SyntacticHeap;
 import wytp.proof.Formula.Disjunct;
+import wytp.proof.util.InstantiationTable;
+import wytp.proof.util.TermIndex;
 import wytp.types.TypeInferer;
 import wytp.types.TypeSystem;
 
@@ -65,6 +67,27 @@ public interface Proof {
 	 */
 	public SyntacticHeap getHeap();
 
+	/**
+	 * Get the budget which limits the resources this proof may consume.
+	 *
+	 * @return
+	 */
+	public Budget getBudget();
+
+	/**
+	 * Get the index of truths arising in this proof.
+	 *
+	 * @return
+	 */
+	public TermIndex getTermIndex();
+
+	/**
+	 * Get the table of quantifier instances produced in this proof.
+	 *
+	 * @return
+	 */
+	public InstantiationTable getInstantiationTable();
+
 	/**
 	 * A proof branch considered of one or more states which were derived from
 	 * an existing state using a given rule.
@@ -33,6 +33,7 @@ import wytp.proof.Proof.State;
 import wytp.proof.util.AbstractClosureRule;
 import wytp.proof.util.Arithmetic;
 import wytp.proof.util.Arithmetic.Polynomial;
+import wytp.proof.util.TermIndex;
 import wytp.types.TypeSystem;
 
 /**
@@ -77,6 +78,14 @@ import wytp.types.TypeSystem;
  * with <code>x == f(x) && f(f(x)) < 0</code>, and so on. Therefore, care must
  * be taken in any such rule to ensure such looping does not occur.
  * </p>
+ * <p>
+ * <b>NOTE:</b> Substitution is used here, rather than maintaining equivalence
+ * classes (e.g. using union-find), for two reasons. Firstly, arithmetic
+ * equalities are solved for a term (e.g. <code>x+1 == y</code> gives
+ * <code>x</code> as <code>y-1</code>), which merging classes of terms does
+ * not capture. Secondly, the arithmetic, quantifier and case analysis rules
+ * all match syntactically against the substituted truths produced here.
+ * </p>
  *
  * @author David J. Pearce
  *
@@ -171,9 +180,11 @@ public class CongruenceClosure extends AbstractClosureRule implements Proof.Line
 
 	private State applyAssignment(Assignment assignment, Proof.Delta.Set existingTruths, Proof.State head) throws ResolutionError {
 		Formula newTruth = assignment.getDependency();
+		List<Formula> candidates = findCandidatesForSubstitution(assignment, existingTruths, head);
 		//
-		for (int i = 0; i != existingTruths.size(); ++i) {
-			Formula existingTruth = existingTruths.get(i);
+		for (int i = 0; i != candidates.size(); ++i) {
+			checkBudget(head);
+			Formula existingTruth = candidates.get(i);
 			//
 			Formula updatedTruth = (Formula) substitute(assignment.getLeftHandSide(), assignment.getRightHandSide(),
 					existingTruth);
@@ -192,6 +203,37 @@ public class CongruenceClosure extends AbstractClosureRule implements Proof.Line
 		return head;
 	}
 
+	/**
+	 * Determine those existing truths into which an assignment could be
+	 * substituted. Any such truth must contain the left-hand side of the
+	 * assignment and, hence, every variable within it. Therefore, we use the
+	 * index to find those truths referring to the variable which occurs in the
+	 * fewest truths. If the left-hand side contains no variables, then all
+	 * existing truths are candidates.
+	 *
+	 * @param assignment
+	 * @param existingTruths
+	 * @param head
+	 * @return
+	 */
+	private static List<Formula> findCandidatesForSubstitution(Assignment assignment, Proof.Delta.Set existingTruths,
+			Proof.State head) {
+		List<Formula> candidates = null;
+		for (VariableDeclaration var : TermIndex.findVariables(assignment.getLeftHandSide())) {
+			List<Formula> truths = head.getProof().getTermIndex().getTruths(var, existingTruths);
+			if (candidates == null || truths.size() < candidates.size()) {
+				candidates = truths;
+			}
+		}
+		if (candidates == null) {
+			candidates = new ArrayList<>();
+			for (int i = 0; i != existingTruths.size(); ++i) {
+				candidates.add(existingTruths.get(i));
+			}
+		}
+		return candidates;
+	}
+
 	/**
 	 * Rearrange an equality into two parts. The left-hand side (lhs)
 	 * substituted through existing truths and replaced by the right-hand side
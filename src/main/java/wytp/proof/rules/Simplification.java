@@ -16,6 +16,7 @@ package wytp.proof.rules;
 import java.math.BigInteger;
 import java.util.Arrays;
 
+import wyal.heap.SideTable;
 import wyal.lang.WyalFile.Expr;
 import wyal.util.NameResolver.ResolutionError;
 
@@ -43,6 +44,14 @@ public class Simplification extends AbstractProofRule implements Proof.LinearRul
 	private final static Formula TRUE = new Formula.Truth(true);
 	private final static Formula FALSE = new Formula.Truth(false);
 
+	/**
+	 * Identifies the side table used to cache the simplified form of
+	 * formulae and expressions in a proof heap. Since many rules simplify the
+	 * same (often already simplified) sub-formulae repeatedly, this ensures
+	 * each is only simplified once.
+	 */
+	private final static Object SIMPLIFIED = new Object();
+
 	public Simplification(TypeSystem types) {
 		super(null,types);
 	}
@@ -56,9 +65,10 @@ public class Simplification extends AbstractProofRule implements Proof.LinearRul
 	@Override
 	public State apply(State head, Formula truth) throws ResolutionError {
 		Formula simplifiedTruth = simplify(truth);
-		if(!simplifiedTruth.equals(truth)) {
-			// FIXME: useful optimisation would be to support pointer equality
-			// for the above test.
+		// NOTE: simplification returns the original object when no
+		// simplification is performed and, hence, the equality check is
+		// rarely needed.
+		if(simplifiedTruth != truth && !simplifiedTruth.equals(truth)) {
 			head = head.subsume(this, truth, simplifiedTruth);
 		}
 		return head;
@@ -67,7 +77,8 @@ public class Simplification extends AbstractProofRule implements Proof.LinearRul
 	/**
 	 * Recursively simplify a given formula by applying the "standard"
 	 * simplifications for each kind. If no simplification is performed, this
-	 * returns the original object in tact.
+	 * returns the original object in tact. For formulae in a proof heap, the
+	 * result is cached.
 	 *
 	 * @param f
 	 * @return
@@ -75,6 +86,18 @@ public class Simplification extends AbstractProofRule implements Proof.LinearRul
 	 * @throws NameNotFoundError
 	 */
 	public Formula simplify(Formula f) throws ResolutionError {
+		SideTable<Expr> table = SideTable.of(f, SIMPLIFIED);
+		Expr result = table == null ? null : table.get(f.getIndex());
+		if (result == null) {
+			result = simplifyUncachedFormula(f);
+			if (table != null) {
+				table.put(f.getIndex(), result);
+			}
+		}
+		return (Formula) result;
+	}
+
+	private Formula simplifyUncachedFormula(Formula f) throws ResolutionError {
 		switch (f.getOpcode()) {
 		case EXPR_const:
 			return f;
@@ -232,7 +255,7 @@ public class Simplification extends AbstractProofRule implements Proof.LinearRul
 			return evaluateInequality(ieq.getOpcode(), lhs_v, rhs_v);
 		} else if (nLhs.equals(nRhs)) {
 			return new Formula.Truth(true);
-		} else if(lhs.equals(nLhs) && rhs.equals(nRhs)) {
+		} else if((lhs == nLhs || lhs.equals(nLhs)) && (rhs == nRhs || rhs.equals(nRhs))) {
 			return ieq;
 		} else {
 			return new Inequality(bs.getFirst(), bs.getSecond());
@@ -287,8 +310,7 @@ public class Simplification extends AbstractProofRule implements Proof.LinearRul
 			nLhs = nRhs;
 			nRhs = tmp;
 		}
-		if(nLhs.equals(lhs) && nRhs.equals(rhs)) {
-			// FIXME: above could be more efficient
+		if((nLhs == lhs || nLhs.equals(lhs)) && (nRhs == rhs || nRhs.equals(rhs))) {
 			return eq;
 		} else {
 			return new ArithmeticEquality(eq.getSign(), nLhs, nRhs);
@@ -376,7 +398,8 @@ public class Simplification extends AbstractProofRule implements Proof.LinearRul
 	}
 
 	/**
-	 * Convert an arbitrary expression to an atom.
+	 * Convert an arbitrary expression to an atom. For expressions in a proof
+	 * heap, the result is cached.
 	 *
 	 * @param e
 	 * @return
@@ -384,6 +407,22 @@ public class Simplification extends AbstractProofRule implements Proof.LinearRul
 	 * @throws NameNotFoundError
 	 */
 	public Expr simplifyExpression(Expr e) throws ResolutionError {
+		if (e instanceof Formula) {
+			// Formulae are cached by simplify()
+			return simplifyUncachedExpression(e);
+		}
+		SideTable<Expr> table = SideTable.of(e, SIMPLIFIED);
+		Expr result = table == null ? null : table.get(e.getIndex());
+		if (result == null) {
+			result = simplifyUncachedExpression(e);
+			if (table != null) {
+				table.put(e.getIndex(), result);
+			}
+		}
+		return result;
+	}
+
+	private Expr simplifyUncachedExpression(Expr e) throws ResolutionError {
 		switch (e.getOpcode()) {
 		case EXPR_varcopy:
 			return e;
@@ -0,0 +1,478 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wytp.proof.rules.arithmetic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+
+import wyal.lang.WyalFile.Expr;
+import wyal.util.NameResolver.ResolutionError;
+import wytp.proof.Formula;
+import wytp.proof.Proof;
+import wytp.proof.Proof.State;
+import wytp.proof.rules.Simplification;
+import wytp.proof.util.AbstractClosureRule;
+import wytp.proof.util.Arithmetic;
+import wytp.proof.util.Arithmetic.Polynomial;
+import wytp.proof.util.TermIndex;
+import wytp.types.TypeSystem;
+
+/**
+ * <p>
+ * Responsible for deciding whether the active linear constraints (i.e.
+ * inequalities and arithmetic equalities) are unsatisfiable, using
+ * <i>Fourier-Motzkin elimination</i>. Unlike <code>InequalityIntroduction</code>,
+ * which derives new inequalities one pair at a time, this considers all
+ * constraints related to a new truth at once and, hence, finds contradictions
+ * without populating the proof with intermediate inequalities. For example,
+ * consider the constraints <code>x >= y + 1</code>, <code>y >= z + 1</code> and
+ * <code>z >= x</code>. Eliminating <code>x</code> and then <code>y</code> gives
+ * <code>0 >= 2</code>, which is a contradiction.
+ * </p>
+ * <p>
+ * Each constraint is normalised into the form <code>p >= 0</code>, where
+ * <code>p</code> is a polynomial. Every distinct (possibly non-linear)
+ * combination of atoms is treated as an independent variable. Since all
+ * variables range over integers, each derived constraint is tightened by
+ * dividing through by the gcd of its coefficients and rounding down the
+ * constant. Both steps are sound, though neither is complete.
+ * </p>
+ * <p>
+ * When a contradiction is found, the constraints it depends upon are
+ * minimised by deletion so that the dependency cone of the resulting proof
+ * is as small as possible. Elimination can generate exponentially many
+ * constraints and, hence, is abandoned once a fixed bound is exceeded.
+ * </p>
+ */
+public class FourierMotzkinElimination extends AbstractClosureRule implements Proof.LinearRule {
+	/**
+	 * The maximum number of input constraints considered at once.
+	 */
+	private static final int MAX_INPUTS = 64;
+
+	/**
+	 * The maximum number of constraints which may exist at any point during
+	 * elimination.
+	 */
+	private static final int MAX_CONSTRAINTS = 512;
+
+	public FourierMotzkinElimination(Simplification simp, TypeSystem types) {
+		super(simp, types);
+	}
+
+	@Override
+	public String getName() {
+		return "FM-E";
+	}
+
+	@Override
+	public State apply(Proof.Delta.Set existingTruths, Proof.State state, Formula newTruth) throws ResolutionError {
+		if (!isLinearConstraint(newTruth)) {
+			return state;
+		}
+		// Translate the new truth and all active constraints
+		TermIndex index = state.getProof().getTermIndex();
+		List<Formula> candidates = new ArrayList<>();
+		candidates.add(newTruth);
+		candidates.addAll(index.getTruths(Formula.Inequality.class, existingTruths));
+		candidates.addAll(index.getTruths(Formula.ArithmeticEquality.class, existingTruths));
+		Variables variables = new Variables();
+		Constraint[][] translations = new Constraint[candidates.size()][];
+		BitSet[] used = new BitSet[candidates.size()];
+		for (int i = 0; i != candidates.size(); ++i) {
+			Formula candidate = candidates.get(i);
+			if (isLinearConstraint(candidate)) {
+				translations[i] = variables.toConstraints(candidate);
+				used[i] = translations[i] == null ? null : translations[i][0].getVariables();
+			}
+		}
+		if (translations[0] == null) {
+			// New truth is not a polynomial (e.g. involves division)
+			return state;
+		}
+		// Determine the constraints related (transitively) to the new truth.
+		// Any new contradiction must involve it, since otherwise it would have
+		// been found already.
+		List<Formula> sources = new ArrayList<>();
+		List<Constraint[]> constraints = new ArrayList<>();
+		BitSet related = new BitSet();
+		boolean changed = true;
+		while (changed && sources.size() <= MAX_INPUTS) {
+			changed = false;
+			for (int i = 0; i != candidates.size(); ++i) {
+				if (used[i] != null && (i == 0 || used[i].intersects(related))) {
+					related.or(used[i]);
+					sources.add(candidates.get(i));
+					constraints.add(translations[i].clone());
+					used[i] = null;
+					changed = true;
+				}
+			}
+		}
+		if (sources.size() == 1 || sources.size() > MAX_INPUTS) {
+			return state;
+		}
+		// Identify each constraint by its position amongst the sources
+		for (int i = 0; i != constraints.size(); ++i) {
+			Constraint[] cs = constraints.get(i);
+			for (int j = 0; j != cs.length; ++j) {
+				cs[j] = cs[j].withSource(i);
+			}
+		}
+		checkBudget(state);
+		BitSet all = new BitSet();
+		all.set(0, sources.size());
+		BitSet conflict = eliminate(constraints, all, variables.size());
+		if (conflict == null) {
+			return state;
+		}
+		conflict = minimise(constraints, conflict, variables.size(), state);
+		Formula[] dependencies = new Formula[conflict.cardinality()];
+		for (int i = conflict.nextSetBit(0), j = 0; i >= 0; i = conflict.nextSetBit(i + 1), ++j) {
+			dependencies[j] = sources.get(i);
+		}
+		return state.infer(this, new Formula.Truth(false), dependencies);
+	}
+
+	private static boolean isLinearConstraint(Formula f) {
+		if (f instanceof Formula.Inequality) {
+			return true;
+		} else if (f instanceof Formula.ArithmeticEquality) {
+			return ((Formula.ArithmeticEquality) f).getSign();
+		} else {
+			return false;
+		}
+	}
+
+	/**
+	 * Remove constraints from a conflict one at a time, keeping only those
+	 * whose removal means the conflict is no longer found. The result is a
+	 * conflict from which no single constraint can be removed.
+	 *
+	 * @param constraints
+	 * @param conflict
+	 * @param nVariables
+	 * @param state
+	 * @return
+	 */
+	private static BitSet minimise(List<Constraint[]> constraints, BitSet conflict, int nVariables, State state) {
+		for (int i = conflict.nextSetBit(0); i >= 0; i = conflict.nextSetBit(i + 1)) {
+			checkBudget(state);
+			BitSet candidate = (BitSet) conflict.clone();
+			candidate.clear(i);
+			BitSet smaller = eliminate(constraints, candidate, nVariables);
+			if (smaller != null) {
+				conflict = smaller;
+			}
+		}
+		return conflict;
+	}
+
+	/**
+	 * Apply Fourier-Motzkin elimination to a given subset of constraints,
+	 * returning the subset responsible for a contradiction (or
+	 * <code>null</code> if none was found).
+	 *
+	 * @param inputs
+	 * @param selected
+	 * @param nVariables
+	 * @return
+	 */
+	private static BitSet eliminate(List<Constraint[]> inputs, BitSet selected, int nVariables) {
+		ArrayList<Constraint> rows = new ArrayList<>();
+		for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1)) {
+			for (Constraint c : inputs.get(i)) {
+				if (c.isContradiction()) {
+					return c.dependencies;
+				} else if (!c.isTrivial()) {
+					rows.add(c);
+				}
+			}
+		}
+		try {
+			for (int v = selectVariable(rows, nVariables); v >= 0; v = selectVariable(rows, nVariables)) {
+				ArrayList<Constraint> lower = new ArrayList<>();
+				ArrayList<Constraint> upper = new ArrayList<>();
+				ArrayList<Constraint> nRows = new ArrayList<>();
+				for (Constraint c : rows) {
+					if (c.get(v) > 0) {
+						lower.add(c);
+					} else if (c.get(v) < 0) {
+						upper.add(c);
+					} else {
+						nRows.add(c);
+					}
+				}
+				// NOTE: if v is bounded on one side only, then all constraints
+				// involving it can be satisfied by choosing v appropriately.
+				// Hence, they are simply dropped.
+				for (Constraint l : lower) {
+					for (Constraint u : upper) {
+						Constraint c = Constraint.combine(l, u, v);
+						if (c.isContradiction()) {
+							return c.dependencies;
+						} else if (!c.isTrivial()) {
+							nRows.add(c);
+						}
+					}
+				}
+				if (nRows.size() > MAX_CONSTRAINTS) {
+					return null;
+				}
+				rows = nRows;
+			}
+		} catch (ArithmeticException e) {
+			// Coefficients overflowed, so give up
+		}
+		return null;
+	}
+
+	/**
+	 * Select the next variable to eliminate. This is the variable which
+	 * generates the fewest new constraints, or -1 if no variables remain.
+	 *
+	 * @param rows
+	 * @param nVariables
+	 * @return
+	 */
+	private static int selectVariable(List<Constraint> rows, int nVariables) {
+		int best = -1;
+		long bestCost = Long.MAX_VALUE;
+		for (int v = 0; v != nVariables; ++v) {
+			long positive = 0;
+			long negative = 0;
+			for (Constraint c : rows) {
+				if (c.get(v) > 0) {
+					positive++;
+				} else if (c.get(v) < 0) {
+					negative++;
+				}
+			}
+			if (positive + negative > 0) {
+				long cost = positive * negative;
+				if (cost < bestCost) {
+					best = v;
+					bestCost = cost;
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Maps each distinct combination of atoms to a variable index.
+	 */
+	private static final class Variables {
+		private final HashMap<List<Expr>, Integer> indices = new HashMap<>();
+
+		public int size() {
+			return indices.size();
+		}
+
+		/**
+		 * Translate a formula into one or more constraints of the form
+		 * <code>p >= 0</code>. Specifically, an inequality
+		 * <code>lhs >= rhs</code> becomes <code>lhs - rhs >= 0</code>, whilst
+		 * an equality <code>lhs == rhs</code> becomes both
+		 * <code>lhs - rhs >= 0</code> and <code>rhs - lhs >= 0</code>.
+		 *
+		 * @param f
+		 * @return
+		 */
+		public Constraint[] toConstraints(Formula f) {
+			Polynomial p;
+			try {
+				p = Arithmetic.asPolynomial((Expr) f.get(0)).subtract(Arithmetic.asPolynomial((Expr) f.get(1)));
+			} catch (IllegalArgumentException e) {
+				return null;
+			}
+			long[] coefficients = new long[0];
+			long constant = 0;
+			for (int i = 0; i != p.size(); ++i) {
+				Polynomial.Term term = p.getTerm(i);
+				if (term.getCoefficient().bitLength() >= Long.SIZE) {
+					return null;
+				}
+				long c = term.getCoefficient().longValue();
+				if (term.isConstant()) {
+					constant = c;
+				} else {
+					int v = indexOf(Arrays.asList(term.getAtoms()));
+					if (v >= coefficients.length) {
+						coefficients = Arrays.copyOf(coefficients, v + 1);
+					}
+					coefficients[v] = c;
+				}
+			}
+			Constraint c = Constraint.tighten(coefficients, constant, new BitSet());
+			if (f instanceof Formula.Inequality) {
+				return new Constraint[] { c };
+			} else {
+				return new Constraint[] { c, c.negate() };
+			}
+		}
+
+		private int indexOf(List<Expr> atoms) {
+			Integer v = indices.get(atoms);
+			if (v == null) {
+				v = indices.size();
+				indices.put(atoms, v);
+			}
+			return v;
+		}
+	}
+
+	/**
+	 * A constraint of the form <code>c1*x1 + ... + cn*xn + c >= 0</code>,
+	 * along with the input constraints from which it was derived.
+	 */
+	private static final class Constraint {
+		private final long[] coefficients;
+		private final long constant;
+		private final BitSet dependencies;
+
+		public Constraint(long[] coefficients, long constant, BitSet dependencies) {
+			this.coefficients = coefficients;
+			this.constant = constant;
+			this.dependencies = dependencies;
+		}
+
+		/**
+		 * Get the coefficient of a given variable.
+		 *
+		 * @param v
+		 * @return
+		 */
+		public long get(int v) {
+			return v < coefficients.length ? coefficients[v] : 0;
+		}
+
+		/**
+		 * Get the variables with a non-zero coefficient in this constraint.
+		 *
+		 * @return
+		 */
+		public BitSet getVariables() {
+			BitSet variables = new BitSet();
+			for (int v = 0; v != coefficients.length; ++v) {
+				if (coefficients[v] != 0) {
+					variables.set(v);
+				}
+			}
+			return variables;
+		}
+
+		/**
+		 * Get this constraint as derived from a given input constraint alone.
+		 *
+		 * @param source
+		 * @return
+		 */
+		public Constraint withSource(int source) {
+			BitSet dependencies = new BitSet();
+			dependencies.set(source);
+			return new Constraint(coefficients, constant, dependencies);
+		}
+
+		public boolean isContradiction() {
+			return isConstant() && constant < 0;
+		}
+
+		public boolean isTrivial() {
+			return isConstant() && constant >= 0;
+		}
+
+		private boolean isConstant() {
+			for (long c : coefficients) {
+				if (c != 0) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		public Constraint negate() {
+			long[] nCoefficients = new long[coefficients.length];
+			for (int i = 0; i != coefficients.length; ++i) {
+				nCoefficients[i] = Math.negateExact(coefficients[i]);
+			}
+			return new Constraint(nCoefficients, Math.negateExact(constant), dependencies);
+		}
+
+		/**
+		 * Combine a lower bound and an upper bound on a given variable to
+		 * eliminate that variable. The result is tightened by dividing through
+		 * by the gcd of its coefficients.
+		 *
+		 * @param lower
+		 *            A constraint with a positive coefficient for the variable.
+		 * @param upper
+		 *            A constraint with a negative coefficient for the variable.
+		 * @param v
+		 * @return
+		 */
+		public static Constraint combine(Constraint lower, Constraint upper, int v) {
+			long l = lower.get(v);
+			long u = Math.negateExact(upper.get(v));
+			int length = Math.max(lower.coefficients.length, upper.coefficients.length);
+			long[] coefficients = new long[length];
+			for (int i = 0; i != length; ++i) {
+				coefficients[i] = Math.addExact(Math.multiplyExact(lower.get(i), u), Math.multiplyExact(upper.get(i), l));
+			}
+			long constant = Math.addExact(Math.multiplyExact(lower.constant, u), Math.multiplyExact(upper.constant, l));
+			BitSet dependencies = (BitSet) lower.dependencies.clone();
+			dependencies.or(upper.dependencies);
+			return tighten(coefficients, constant, dependencies);
+		}
+
+		/**
+		 * Construct a constraint, dividing through by the gcd of its
+		 * coefficients. Since all variables are integers, the constant can
+		 * then be rounded down. For example, <code>2x - 3 >= 0</code> is
+		 * tightened to <code>x - 2 >= 0</code>.
+		 *
+		 * @param coefficients
+		 * @param constant
+		 * @param dependencies
+		 * @return
+		 */
+		public static Constraint tighten(long[] coefficients, long constant, BitSet dependencies) {
+			long gcd = 0;
+			for (int i = 0; i != coefficients.length; ++i) {
+				gcd = gcd(gcd, coefficients[i]);
+			}
+			if (gcd > 1) {
+				for (int i = 0; i != coefficients.length; ++i) {
+					coefficients[i] = coefficients[i] / gcd;
+				}
+				constant = Math.floorDiv(constant, gcd);
+			}
+			return new Constraint(coefficients, constant, dependencies);
+		}
+
+		private static long gcd(long a, long b) {
+			a = Math.abs(a);
+			b = Math.abs(b);
+			while (b != 0) {
+				long t = a % b;
+				a = b;
+				b = t;
+			}
+			return a;
+		}
+	}
+}
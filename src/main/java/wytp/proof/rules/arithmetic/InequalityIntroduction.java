@@ -14,6 +14,7 @@
 package wytp.proof.rules.arithmetic;
 
 import java.util.Arrays;
+import java.util.List;
 
 import wyal.lang.WyalFile.Expr;
 import wyal.util.NameResolver.ResolutionError;
@@ -57,12 +58,14 @@ public class InequalityIntroduction extends AbstractClosureRule implements Proof
 			// At this point, we have an inequality which potentially could be
 			// closed with one or more other inequalities. Therefore, we need to
 			// look back through the history to determine any inequalities which
-			// are currently "active".
-			for(int i=0;i!=existingTruths.size();++i) {
-				Formula existingTruth = existingTruths.get(i);
-				if(existingTruth instanceof Formula.Inequality) {
-					state = closeOver(inequality,(Formula.Inequality)existingTruth,state);
-				}
+			// are currently "active". Only those sharing a term with this
+			// inequality can be closed over, hence we use the index to find
+			// them.
+			List<Formula.Inequality> candidates = state.getProof().getTermIndex().getInequalities(inequality,
+					existingTruths);
+			for (int i = 0; i != candidates.size(); ++i) {
+				checkBudget(state);
+				state = closeOver(inequality, candidates.get(i), state);
 			}
 		}
 		// No change in the normal case
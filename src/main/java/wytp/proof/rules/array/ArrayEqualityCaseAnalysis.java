@@ -13,6 +13,8 @@
 // limitations under the License.
 package wytp.proof.rules.array;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 import wyal.lang.WyalFile;
 import wyal.util.NameResolver;
 import wyal.util.NameResolver.ResolutionError;
@@ -90,7 +92,7 @@ import wytp.types.TypeSystem;
  *
  */
 public class ArrayEqualityCaseAnalysis extends AbstractProofRule implements Proof.LinearRule {
-	private int skolem = 0;
+	private final AtomicInteger skolem = new AtomicInteger();
 
 	public ArrayEqualityCaseAnalysis(Simplification simplify, TypeSystem types) {
 		super(simplify, types);
@@ -215,7 +217,7 @@ public class ArrayEqualityCaseAnalysis extends AbstractProofRule implements Proo
 	private State expandArrayArrayNonEquality(Formula.Equality eq, Expr lhs, Expr rhs, Proof.State state)
 			throws ResolutionError {
 		WyalFile.VariableDeclaration var = new WyalFile.VariableDeclaration(new Type.Int(),
-				new Identifier("i:" + skolem++));
+				new Identifier("i:" + skolem.getAndIncrement()));
 		Expr va = new Expr.VariableAccess(var);
 		Expr lhsAccess = new Expr.ArrayAccess(lhs, va);
 		Expr rhsAccess = new Expr.ArrayAccess(rhs, va);
@@ -21,6 +21,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+import wyal.heap.SideTable;
 import wyal.lang.WyalFile;
 
 import static wyal.lang.WyalFile.*;
@@ -36,9 +37,12 @@ import wytp.proof.util.AbstractClosureRule;
 import wytp.proof.util.AbstractProofRule;
 import wytp.proof.util.Arithmetic;
 import wytp.proof.util.Formulae;
+import wytp.proof.util.InstantiationTable;
+import wytp.proof.util.TermIndex;
 import wytp.types.TypeSystem;
 
 public class ExhaustiveQuantifierInstantiation extends AbstractClosureRule implements Proof.LinearRule {
+	private static final Object GROUND_TERMS = new Object();
 
 	public ExhaustiveQuantifierInstantiation(Simplification simplify,TypeSystem types) {
 		super(simplify,types);
@@ -64,7 +68,10 @@ public class ExhaustiveQuantifierInstantiation extends AbstractClosureRule imple
 
 	/**
 	 * Attempt to match a given quantifier against any appropriate ground terms.
-	 * This may fail if no suitable bindings can be found.
+	 * This may fail if no suitable bindings can be found. Only those ground
+	 * terms which could match a trigger of the quantifier are considered, and
+	 * these are found using the term index rather than examining every
+	 * existing truth.
 	 *
 	 * @param quantifier
 	 * @param state
@@ -76,14 +83,20 @@ public class ExhaustiveQuantifierInstantiation extends AbstractClosureRule imple
 			// before (for example, it was hiding inside a macro invocation
 			// somewhere). Therefore, we need to search the history looking for
 			// suitable opportunities to instantiate it.
-			for (int i = 0; i != existingTruths.size(); ++i) {
-				Formula existingTruth = existingTruths.get(i);
-				if (existingTruth instanceof Formula.ArithmeticEquation) {
-					Formula.ArithmeticEquation ground = (Formula.ArithmeticEquation) existingTruth;
-					// Yes, this is a universal quantifier
-					state = applyQuantifierInstantiation(quantifier, ground, state);
-				} else {
-					// FIXME: we need to handle Assignment here
+			// FIXME: we need to handle Assignment here
+			List<TermIndex.Occurrence> occurrences = state.getProof().getTermIndex()
+					.getGroundTerms(TermIndex.findTriggers(quantifier), existingTruths);
+			for (int i = 0; i != occurrences.size();) {
+				checkBudget(state);
+				// Gather the targets occurring in the same truth
+				Formula truth = occurrences.get(i).getTruth();
+				ArrayList<Expr> targets = new ArrayList<>();
+				for (; i != occurrences.size() && occurrences.get(i).getTruth() == truth; ++i) {
+					targets.add(occurrences.get(i).getTerm());
+				}
+				if (truth instanceof Formula.ArithmeticEquation) {
+					state = applyQuantifierInstantiation(quantifier, (Formula.ArithmeticEquation) truth, targets,
+							state);
 				}
 			}
 		}
@@ -94,7 +107,8 @@ public class ExhaustiveQuantifierInstantiation extends AbstractClosureRule imple
 	/**
 	 * Attempt to match a given ground term against any active quantifiers in an
 	 * effort to instantiate them one or more times. This may fail if no
-	 * suitable bindings can be found.
+	 * suitable bindings can be found. Only those quantifiers with a trigger
+	 * which could match some term of the ground term are considered.
 	 *
 	 * @param groundTerm
 	 * @param state
@@ -105,29 +119,46 @@ public class ExhaustiveQuantifierInstantiation extends AbstractClosureRule imple
 		// could be used to instantiate one or more existing (universal)
 		// quantifiers. Therefore, we need to look back through the history to
 		// determine any cases where this can be applied.
-		for (int i = 0; i != existingTruths.size(); ++i) {
-			Formula existingTruth = existingTruths.get(i);
-			if (existingTruth instanceof Formula.Quantifier) {
-				Formula.Quantifier qf = (Formula.Quantifier) existingTruth;
-				if (qf.getSign()) {
-					// Yes, this is a universal quantifier
-					state = applyQuantifierInstantiation(qf, groundTerm, state);
-				}
+		List<Expr> targets = TermIndex.findTerms(groundTerm);
+		HashSet<TermIndex.Symbol> symbols = new HashSet<>();
+		for (int i = 0; i != targets.size(); ++i) {
+			symbols.addAll(TermIndex.Symbol.of(targets.get(i), Collections.emptyList()));
+		}
+		List<Formula.Quantifier> quantifiers = state.getProof().getTermIndex().getQuantifiers(symbols,
+				existingTruths);
+		for (int i = 0; i != quantifiers.size(); ++i) {
+			checkBudget(state);
+			Formula.Quantifier qf = quantifiers.get(i);
+			if (qf.getSign()) {
+				// Yes, this is a universal quantifier
+				state = applyQuantifierInstantiation(qf, groundTerm, targets, state);
 			}
 		}
 		//
 		return state;
 	}
 
-	private State applyQuantifierInstantiation(Formula.Quantifier quantifier, Formula.Equation groundTerm, State state)
-			throws ResolutionError {
+	/**
+	 * Attempt to instantiate every variable of a given quantifier against a
+	 * given ground term.
+	 *
+	 * @param quantifier
+	 * @param groundTerm
+	 * @param targets
+	 *            The terms of the ground term which triggers may match.
+	 * @param state
+	 * @return
+	 * @throws ResolutionError
+	 */
+	private State applyQuantifierInstantiation(Formula.Quantifier quantifier, Formula.Equation groundTerm,
+			List<Expr> targets, State state) throws ResolutionError {
 		// FIXME: I believe there is a bug here in the (unlikely?) situation
 		// that we can in fact match *multiple* variables in the same quantifier
 		// against the same ground term.
 		Tuple<VariableDeclaration> parameters = quantifier.getParameters();
 		for (int i = 0; i != parameters.size(); ++i) {
 			VariableDeclaration variable = parameters.get(i);
-			state = attemptQuantifierInstantiation(quantifier, variable, groundTerm, state);
+			state = attemptQuantifierInstantiation(quantifier, variable, groundTerm, targets, state);
 		}
 		return state;
 	}
@@ -147,28 +178,54 @@ public class ExhaustiveQuantifierInstantiation extends AbstractClosureRule imple
 	 *            --- The term with which we will attempt to bind the quantified
 	 *            variable against, thereby producing appropriate bindings for
 	 *            the instantiation (or not, if none exist).
+	 * @param targets
+	 *            --- The terms of the ground term which triggers may match.
 	 * @param state
 	 *            --- The state in which the instantiated quantifier will be
 	 *            asserted.
 	 * @return
 	 */
 	private State attemptQuantifierInstantiation(Formula.Quantifier quantifier, VariableDeclaration variable,
-			Formula.Equation groundTerm, State state) throws ResolutionError {
-		// Exhaustively instantiate this variable with all possible ground
-		// terms.
-		List<Expr> grounds = bind(state, variable, quantifier.getBody(), groundTerm);
+			Formula.Equation groundTerm, List<Expr> targets, State state) throws ResolutionError {
+		// Determine the candidate bindings by matching the triggers for this
+		// variable against the targets.
+		List<Expr> candidates = match(quantifier.getBody(), variable, targets);
+		if (candidates.isEmpty()) {
+			return state;
+		}
+		List<Expr> grounds = bind(state, variable, quantifier.getBody(), groundTerm, candidates);
 		//
 		for (int i = 0; i != grounds.size(); ++i) {
+			checkBudget(state);
 			Expr ground = grounds.get(i);
-			// NOTE: we don't bother checking the type of the term being
-			// instantiated here. That's because (at the moment) this is only
-			// matching integer terms anyway. In the future, if we relax this,
-			// then we might need a different approach.
-			state = instantiateQuantifier(quantifier, variable, groundTerm, ground, state);
+			if (isAdmissible(state, variable, ground)) {
+				state = instantiateQuantifier(quantifier, variable, groundTerm, ground, state);
+			}
 		}
 		return state;
 	}
 
+	/**
+	 * Check whether a given binding is permitted for a variable. Bindings for
+	 * integer variables are only ever arithmetic terms, so they need no check.
+	 * Otherwise (e.g. when binding through a field trigger) the type of the
+	 * binding must be a subtype of the variable's type.
+	 *
+	 * @param state
+	 * @param variable
+	 * @param binding
+	 * @return
+	 * @throws ResolutionError
+	 */
+	private boolean isAdmissible(State state, VariableDeclaration variable, Expr binding) throws ResolutionError {
+		Type type = variable.getType();
+		if (type instanceof Type.Int) {
+			return true;
+		}
+		Type actual = types.inferType(state.getTypeEnvironment(), binding);
+		return actual != null && types.isRawSubtype(type, actual);
+	}
+
 	/**
 	 * <p>
 	 * Instantiate the body of a universal quantifier using a binding for a
@@ -199,6 +256,34 @@ public class ExhaustiveQuantifierInstantiation extends AbstractClosureRule imple
 	 */
 	private State instantiateQuantifier(Formula.Quantifier quantifier, VariableDeclaration variable,
 			Formula.Equation groundTerm, Expr binding, State state) throws ResolutionError {
+		// Check whether this instance has been produced before (possibly on
+		// another branch) since, if so, there's no need to construct it again.
+		InstantiationTable table = state.getProof().getInstantiationTable();
+		int parameter = indexOf(quantifier.getParameters(), variable);
+		Formula grounded = table.get(quantifier.getIndex(), parameter, binding.getIndex());
+		if (grounded == null) {
+			grounded = state.allocate(constructInstance(quantifier, variable, binding));
+			table.put(quantifier.getIndex(), parameter, binding.getIndex(), grounded);
+		}
+		if (state.isKnown(grounded)) {
+			table.redundant();
+			return state;
+		}
+		return state.infer(this, grounded, quantifier, groundTerm);
+	}
+
+	/**
+	 * Construct the instance of a universal quantifier for a given binding of
+	 * one of its variables.
+	 *
+	 * @param quantifier
+	 * @param variable
+	 * @param binding
+	 * @return
+	 * @throws ResolutionError
+	 */
+	private Formula constructInstance(Formula.Quantifier quantifier, VariableDeclaration variable, Expr binding)
+			throws ResolutionError {
 		Tuple<VariableDeclaration> parameters = quantifier.getParameters();
 		// Substitute body through for the binding obtained the given parameter
 		Formula grounded = quantifier.getBody();
@@ -219,10 +304,16 @@ public class ExhaustiveQuantifierInstantiation extends AbstractClosureRule imple
 			// Re-quantify remaining variables
 			grounded = new Formula.Quantifier(true, stripped, grounded);
 		}
-		// Finally, assert the newly instantiated quantifier in the current
-		// state.
-		grounded = simp.simplify(grounded);
-		return state.infer(this, grounded, quantifier, groundTerm);
+		return simp.simplify(grounded);
+	}
+
+	private static int indexOf(Tuple<VariableDeclaration> parameters, VariableDeclaration variable) {
+		for (int i = 0; i != parameters.size(); ++i) {
+			if (parameters.get(i) == variable) {
+				return i;
+			}
+		}
+		return -1;
 	}
 
 	/**
@@ -255,18 +346,21 @@ public class ExhaustiveQuantifierInstantiation extends AbstractClosureRule imple
 	 * being "goal driven" in that we are looking for potential contradictions.
 	 *
 	 * @param variable
+	 * @param candidates
+	 *            The candidate bindings, as determined by matching triggers.
 	 * @return
 	 */
-	private List<Expr> bind(Proof.State state, VariableDeclaration variable, Formula quantified, Formula.Equation ground) throws ResolutionError {
+	private List<Expr> bind(Proof.State state, VariableDeclaration variable, Formula quantified, Formula.Equation ground,
+			List<Expr> candidates) throws ResolutionError {
 		ArrayList<Expr> result = new ArrayList<>();
 		//
 		if (quantified instanceof Formula.Inequality && ground instanceof Formula.Inequality) {
 			//
 			Formula.Inequality ieq = (Formula.Inequality) quantified;
 			// Positive (Quantified) versus Negative (Ground)
-			List<Expr> posNegMatches = bind(state, variable, ieq.get(0), ground.get(1), Match.NEGATIVE);
+			List<Expr> posNegMatches = bind(state, variable, ieq.get(0), ground.get(1), Match.NEGATIVE, candidates);
 			// Negative (Quantified) versus Positive (Ground)
-			List<Expr> negPosMatches = bind(state, variable, ieq.get(1), ground.get(0), Match.POSITIVE);
+			List<Expr> negPosMatches = bind(state, variable, ieq.get(1), ground.get(0), Match.POSITIVE, candidates);
 			//
 			result.addAll(posNegMatches);
 			result.addAll(negPosMatches);
@@ -274,10 +368,10 @@ public class ExhaustiveQuantifierInstantiation extends AbstractClosureRule imple
 			Formula.Equation ieq = (Formula.Equation) quantified;
 			Match leftSign = getSign(ieq,ground,0);
 			Match rightSign = getSign(ieq,ground,1);
-			List<Expr> posPosMatches = bind(state, variable, ieq.get(0), ground.get(0), leftSign);
-			List<Expr> posNegMatches = bind(state, variable, ieq.get(0), ground.get(1), rightSign);
-			List<Expr> negPosMatches = bind(state, variable, ieq.get(1), ground.get(0), leftSign);
-			List<Expr> negNegMatches = bind(state, variable, ieq.get(1), ground.get(1), rightSign);
+			List<Expr> posPosMatches = bind(state, variable, ieq.get(0), ground.get(0), leftSign, candidates);
+			List<Expr> posNegMatches = bind(state, variable, ieq.get(0), ground.get(1), rightSign, candidates);
+			List<Expr> negPosMatches = bind(state, variable, ieq.get(1), ground.get(0), leftSign, candidates);
+			List<Expr> negNegMatches = bind(state, variable, ieq.get(1), ground.get(1), rightSign, candidates);
 			//
 			result.addAll(posPosMatches);
 			result.addAll(posNegMatches);
@@ -286,12 +380,12 @@ public class ExhaustiveQuantifierInstantiation extends AbstractClosureRule imple
 		} else if (quantified instanceof Formula.Conjunct) {
 			Formula.Conjunct c = (Formula.Conjunct) quantified;
 			for (int i = 0; i != c.size(); ++i) {
-				result.addAll(bind(state, variable, c.get(i), ground));
+				result.addAll(bind(state, variable, c.get(i), ground, candidates));
 			}
 		} else if (quantified instanceof Formula.Disjunct) {
 			Formula.Disjunct c = (Formula.Disjunct) quantified;
 			for (int i = 0; i != c.size(); ++i) {
-				result.addAll(bind(state, variable, c.get(i), ground));
+				result.addAll(bind(state, variable, c.get(i), ground, candidates));
 			}
 		}
 		return result;
@@ -316,45 +410,49 @@ public class ExhaustiveQuantifierInstantiation extends AbstractClosureRule imple
 	/**
 	 * <p>
 	 * Here, we have a quantified expression (e.g. A[k]) and a ground expression
-	 * (e.g. A[0]). Our goal is to "guess" an appropriate instantiation of k
-	 * which gives A[0]. Instead of trying to be too clever (e.g. some kind of
-	 * matching), we're going to take a more "exhaustive" approach. That is,
-	 * given some set of ground terms, we're just going to substitute *every*
-	 * ground term for the quantified variable and see whether the result is a
-	 * match. There are lots of reasons why this turns out to be quite a good
-	 * idea.
+	 * (e.g. A[0]). Our goal is to determine an appropriate instantiation of k
+	 * which gives A[0]. The candidate bindings are those obtained by matching
+	 * the triggers of the quantified expression against ground terms (e.g.
+	 * matching A[k] against A[0] gives k=0). A candidate is only tried if every
+	 * trigger in the quantified expression, once instantiated, occurs in the
+	 * ground expression. The instantiated expression is then matched against
+	 * the ground expression.
 	 * </p>
 	 * <p>
-	 * The important question is from where we derive our set of ground terms to
-	 * try. If this set is too small, we may not be able to figure out what we
-	 * need. For example, consider matching A[k-1] against A[0]. The ground term
-	 * we need is -1 here.
+	 * Observe that this does not find every binding that might be useful. For
+	 * example, consider matching A[k-1] against A[0]. The binding we need is 1
+	 * here, which cannot be obtained by matching A[k-1] against A[0].
 	 * </p>
 	 *
 	 * @param variable
 	 * @param quantified
 	 * @param ground
+	 * @param candidates
+	 *            The candidate bindings, as determined by matching triggers.
 	 * @return
 	 */
-	private List<Expr> bind(Proof.State state, VariableDeclaration variable, Expr quantified, Expr ground, Match kind) throws ResolutionError {
-		//
-		if (containsTrigger(quantified,variable)) {
-			Expr access = new Expr.VariableAccess(variable);
-			List<Expr> candidates = determineGroundTerms(ground, new ArrayList<>());
-			List<Expr> result = new ArrayList<>();
-			for (int i = 0; i != candidates.size(); ++i) {
-				Expr candidate = candidates.get(i);
-				Expr attempt = (Expr) substitute(access, candidate, quantified);
-				// Attempt the match
-				if (match(attempt,ground,kind)) {
-					// Awesome, we made a correct guess!!!
-					result.add(candidate);
-				}
+	private List<Expr> bind(Proof.State state, VariableDeclaration variable, Expr quantified, Expr ground, Match kind,
+			List<Expr> candidates) throws ResolutionError {
+		List<Expr> triggers = findTriggers(quantified, variable, new ArrayList<>());
+		if (triggers.isEmpty()) {
+			return Collections.emptyList();
+		}
+		Expr access = new Expr.VariableAccess(variable);
+		List<Expr> grounds = determineGroundTerms(ground);
+		List<Expr> result = new ArrayList<>();
+		for (int i = 0; i != candidates.size(); ++i) {
+			Expr candidate = candidates.get(i);
+			if (!matchTriggers(access, candidate, triggers, grounds)) {
+				continue;
+			}
+			Expr attempt = (Expr) substitute(access, candidate, quantified);
+			// Attempt the match
+			if (match(attempt, ground, kind)) {
+				// Awesome, we made a correct guess!!!
+				result.add(candidate);
 			}
-			return result;
-		} else {
-			return Collections.EMPTY_LIST;
 		}
+		return result;
 	}
 
 	private boolean match(Expr attempt, Expr ground, Match kind) {
@@ -376,6 +474,26 @@ public class ExhaustiveQuantifierInstantiation extends AbstractClosureRule imple
 		}
 	}
 
+	/**
+	 * Determine the subterms of a given ground term, which are the candidate
+	 * bindings when matching against it. Since the same ground term is matched
+	 * against many quantifiers, these are cached.
+	 *
+	 * @param e
+	 * @return
+	 */
+	private List<Expr> determineGroundTerms(Expr e) {
+		SideTable<List<Expr>> table = SideTable.of(e, GROUND_TERMS);
+		List<Expr> result = table == null ? null : table.get(e.getIndex());
+		if (result == null) {
+			result = Collections.unmodifiableList(determineGroundTerms(e, new ArrayList<>()));
+			if (table != null) {
+				table.put(e.getIndex(), result);
+			}
+		}
+		return result;
+	}
+
 	private List<Expr> determineGroundTerms(Expr e, List<Expr> grounds) {
 		for (int i = 0; i != e.size(); ++i) {
 			SyntacticItem child = e.get(i);
@@ -397,47 +515,125 @@ public class ExhaustiveQuantifierInstantiation extends AbstractClosureRule imple
 	}
 
 	/**
-	 * Determine whether a given expression contains a "trigger" or not. That
-	 * is, a special term which we are using to signal that an instantiation
-	 * makes sense.
+	 * Find all triggers within a given quantified expression. A match against
+	 * a ground term can only succeed if every such trigger, once instantiated,
+	 * occurs within the ground term. Therefore, triggers are used to rule out
+	 * candidate bindings without instantiating the whole expression.
 	 *
-	 * @param ground
+	 * @param e
+	 * @param variable
+	 * @param triggers
 	 * @return
 	 */
-	private boolean containsTrigger(Expr e, VariableDeclaration variable) {
-		if(isTrigger(e, variable)) {
-			return true;
-		} else {
-			for (int i = 0; i != e.size(); ++i) {
-				SyntacticItem child = e.get(i);
-				if (child instanceof Expr) {
-					if(containsTrigger((Expr) child, variable)) {
-						return true;
-					}
-				} else if(child instanceof WyalFile.Tuple) {
-					// FIXME: this can occur for the parameters of a function
-					// invocation. Perhaps not ideal actually.
-					Tuple<?> t = (Tuple<?>) child;
-					for(SyntacticItem p : t.getAll()) {
-						if (p instanceof Expr) {
-							if(containsTrigger((Expr) p, variable)) {
-								return true;
-							}
-						}
+	private List<Expr> findTriggers(Expr e, VariableDeclaration variable, List<Expr> triggers) {
+		if (isTrigger(e, variable)) {
+			triggers.add(e);
+		}
+		for (int i = 0; i != e.size(); ++i) {
+			SyntacticItem child = e.get(i);
+			if (child instanceof Expr) {
+				findTriggers((Expr) child, variable, triggers);
+			} else if (child instanceof WyalFile.Tuple) {
+				Tuple<?> t = (Tuple<?>) child;
+				for (SyntacticItem p : t.getAll()) {
+					if (p instanceof Expr) {
+						findTriggers((Expr) p, variable, triggers);
 					}
 				}
 			}
-			return false;
 		}
+		return triggers;
 	}
 
-	private boolean isTrigger(Expr e, VariableDeclaration variable) {
-		if(e.getOpcode() == WyalFile.EXPR_arridx) {
-			Expr.Operator arridx = (Expr.Operator) e;
-			// Check whether the index includes the quantified variable or not.
-			return containsQuantifiedVariable(arridx.get(1),variable);
+	/**
+	 * Check whether every trigger, when instantiated with a given candidate
+	 * binding, occurs amongst the subterms of the ground term.
+	 *
+	 * @param access
+	 * @param candidate
+	 * @param triggers
+	 * @param grounds
+	 *            The subterms of the ground term.
+	 * @return
+	 */
+	private boolean matchTriggers(Expr access, Expr candidate, List<Expr> triggers, List<Expr> grounds) {
+		for (int i = 0; i != triggers.size(); ++i) {
+			SyntacticItem instance = substitute(access, candidate, triggers.get(i));
+			if (!grounds.contains(instance)) {
+				return false;
+			}
 		}
-		return false;
+		return true;
+	}
+
+	/**
+	 * Determine the candidate bindings for a variable by matching the triggers
+	 * for it within a quantified formula against a given list of ground terms.
+	 * For example, matching the trigger <code>xs[i+1]</code> against the ground
+	 * term <code>xs[n+1]</code> gives the binding <code>n</code>. Each binding
+	 * is reported at most once.
+	 *
+	 * @param quantified
+	 * @param variable
+	 * @param targets
+	 * @return
+	 */
+	private List<Expr> match(Formula quantified, VariableDeclaration variable, List<Expr> targets) {
+		List<VariableDeclaration> variables = Collections.singletonList(variable);
+		List<Expr> triggers = new ArrayList<>();
+		for (Expr term : TermIndex.findTerms(quantified)) {
+			if (TermIndex.Symbol.isTrigger(term, variables)) {
+				triggers.add(term);
+			}
+		}
+		Expr access = new Expr.VariableAccess(variable);
+		List<Expr> candidates = new ArrayList<>();
+		for (int i = 0; i != targets.size(); ++i) {
+			Expr target = targets.get(i);
+			for (int j = 0; j != triggers.size(); ++j) {
+				Expr trigger = triggers.get(j);
+				SyntacticItem binding = select(trigger, target, variable);
+				if (binding instanceof Expr && !candidates.contains(binding)
+						&& target.equals(substitute(access, binding, trigger))) {
+					candidates.add((Expr) binding);
+				}
+			}
+		}
+		return candidates;
+	}
+
+	/**
+	 * Select the subterm of a given term in the position of the first
+	 * occurrence of a variable within a given pattern, or <code>null</code> if
+	 * there is no such subterm.
+	 *
+	 * @param pattern
+	 * @param term
+	 * @param variable
+	 * @return
+	 */
+	private static SyntacticItem select(SyntacticItem pattern, SyntacticItem term, VariableDeclaration variable) {
+		if (pattern instanceof Expr.VariableAccess
+				&& ((Expr.VariableAccess) pattern).getVariableDeclaration().equals(variable)) {
+			return term;
+		} else if (pattern.getOpcode() != term.getOpcode() || pattern.size() != term.size()) {
+			return null;
+		}
+		for (int i = 0; i != pattern.size(); ++i) {
+			SyntacticItem p = pattern.get(i);
+			SyntacticItem t = term.get(i);
+			if (p != null && t != null) {
+				SyntacticItem binding = select(p, t, variable);
+				if (binding != null) {
+					return binding;
+				}
+			}
+		}
+		return null;
+	}
+
+	private boolean isTrigger(Expr e, VariableDeclaration variable) {
+		return TermIndex.Symbol.isTrigger(e, Collections.singletonList(variable));
 	}
 
 	/**
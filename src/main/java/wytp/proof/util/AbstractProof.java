@@ -18,19 +18,26 @@ import java.util.*;
 import wyal.lang.WyalFile;
 import wyal.lang.WyalFile.Declaration.Assert;
 import wybs.lang.SyntacticHeap;
+import wytp.proof.Budget;
 import wytp.proof.Formula;
 import wytp.proof.Proof;
 
 public class AbstractProof<T extends Proof.State> implements Proof {
 	protected final WyalFile.Declaration.Assert assertion;
 	protected final SyntacticHeap heap;
+	protected final Budget budget;
+	protected final TermIndex index;
+	protected final InstantiationTable instances;
 
 	protected final ArrayList<T> states;
 
-	public AbstractProof(WyalFile.Declaration.Assert assertion, SyntacticHeap heap) {
+	public AbstractProof(WyalFile.Declaration.Assert assertion, SyntacticHeap heap, Budget budget) {
 		this.states = new ArrayList<>();
 		this.assertion = assertion;
 		this.heap = heap;
+		this.budget = budget;
+		this.index = new TermIndex();
+		this.instances = new InstantiationTable();
 	}
 
 	@Override
@@ -38,6 +45,21 @@ public class AbstractProof<T extends Proof.State> implements Proof {
 		return heap;
 	}
 
+	@Override
+	public Budget getBudget() {
+		return budget;
+	}
+
+	@Override
+	public TermIndex getTermIndex() {
+		return index;
+	}
+
+	@Override
+	public InstantiationTable getInstantiationTable() {
+		return instances;
+	}
+
 	@Override
 	public Assert getAssertion() {
 		return assertion;
@@ -50,16 +72,16 @@ public class AbstractProof<T extends Proof.State> implements Proof {
 	}
 
 	@Override
-	public int size() {
+	public synchronized int size() {
 		return states.size();
 	}
 
 	@Override
-	public T getState(int ith) {
+	public synchronized T getState(int ith) {
 		return states.get(ith);
 	}
 
-	public T register(T state) {
+	public synchronized T register(T state) {
 		states.add(state);
 		return state;
 	}
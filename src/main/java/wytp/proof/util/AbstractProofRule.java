@@ -18,6 +18,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
+import wyal.heap.SideTable;
 import wyal.heap.StructurallyEquivalentHeap;
 import wyal.lang.WyalFile;
 import wyal.lang.WyalFile.Expr;
@@ -36,6 +37,13 @@ import wytp.proof.rules.CongruenceClosure.Assignment;
 import wytp.types.TypeSystem;
 
 public abstract class AbstractProofRule implements Proof.Rule {
+	/**
+	 * Identifies the side tables used to cache the results of
+	 * <code>findAllInstances()</code> and <code>extractDefinedTerms()</code>.
+	 */
+	private static final Object FIND_ALL_INSTANCES = new Object();
+	private static final Object EXTRACT_DEFINED_TERMS = new Object();
+
 	protected final Simplification simp;
 	protected final TypeSystem types;
 
@@ -71,21 +79,51 @@ public abstract class AbstractProofRule implements Proof.Rule {
 
 	public abstract Proof.State apply(Proof.State head, Formula truth) throws ResolutionError;
 
+	/**
+	 * Check that the budget for the proof containing a given state has not
+	 * been exhausted. This should be called periodically by rules which can
+	 * perform a large amount of work in a single application.
+	 *
+	 * @param state
+	 */
+	protected static void checkBudget(Proof.State state) {
+		state.getProof().getBudget().check();
+	}
+
+	/**
+	 * Find all instances of a given kind within a given syntactic item. For
+	 * items allocated in a proof heap, the result is cached and, hence, must
+	 * not be modified.
+	 *
+	 * @param e
+	 * @param kind
+	 * @return
+	 */
 	protected static <T extends SyntacticItem> List<T> findAllInstances(SyntacticItem e, Class<T> kind) {
-		List<T> result = Collections.EMPTY_LIST;
+		SideTable<List<T>> table = SideTable.of(e, Arrays.asList(FIND_ALL_INSTANCES, kind));
+		List<T> result = table == null ? null : table.get(e.getIndex());
+		if (result == null) {
+			ArrayList<T> instances = new ArrayList<>();
+			findAllInstances(e, kind, instances);
+			result = Collections.unmodifiableList(instances);
+			if (table != null) {
+				table.put(e.getIndex(), result);
+			}
+		}
+		return result;
+	}
+
+	private static <T extends SyntacticItem> void findAllInstances(SyntacticItem e, Class<T> kind, List<T> result) {
 		if(kind.isInstance(e)) {
-			result = new ArrayList<>();
 			result.add((T)e);
 		}
 		// Generic traversal, returning first split point encountered.
 		for (int i = 0; i != e.size(); ++i) {
 			SyntacticItem child = e.get(i);
 			if(child != null) {
-				result = union(result,findAllInstances(child,kind));
+				findAllInstances(child,kind,result);
 			}
 		}
-		//
-		return result;
 	}
 
 	/**
@@ -127,7 +165,19 @@ public abstract class AbstractProofRule implements Proof.Rule {
 	 *            Instances of this class will be extracted
 	 * @return
 	 */
-	public static <T extends Expr> List<T> extractDefinedTerms(SyntacticItem item, int kind,
+	public static <T extends Expr> List<T> extractDefinedTerms(SyntacticItem item, int kind) {
+		SideTable<List<T>> table = SideTable.of(item, Arrays.asList(EXTRACT_DEFINED_TERMS, kind));
+		List<T> result = table == null ? null : table.get(item.getIndex());
+		if (result == null) {
+			result = Collections.unmodifiableList(extractDefinedTerms(item, kind, new Formula.Quantifier[0]));
+			if (table != null) {
+				table.put(item.getIndex(), result);
+			}
+		}
+		return result;
+	}
+
+	private static <T extends Expr> List<T> extractDefinedTerms(SyntacticItem item, int kind,
 			Formula.Quantifier... stack) {
 		List<T> result = Collections.EMPTY_LIST;
 		// Attempt to match the given item
@@ -17,12 +17,41 @@ import java.math.BigInteger;
 import java.util.Arrays;
 
 import static wyal.lang.WyalFile.*;
+import wyal.heap.SideTable;
 import wyal.lang.WyalFile;
 import wyfs.util.ArrayUtils;
 
 public class Arithmetic {
+	/**
+	 * Identifies the side table used to cache the polynomial normal form of
+	 * expressions.
+	 */
+	private static final Object POLYNOMIALS = new Object();
 
+	/**
+	 * Convert an expression into a polynomial in normal form. For expressions
+	 * allocated in a proof heap, the result is cached alongside the expression
+	 * since the same expressions are repeatedly converted by different rules.
+	 *
+	 * @param e
+	 * @return
+	 * @throws IllegalArgumentException
+	 *             If the expression cannot be represented as a polynomial (e.g.
+	 *             because it involves division).
+	 */
 	public static Polynomial asPolynomial(Expr e) {
+		SideTable<Polynomial> table = SideTable.of(e, POLYNOMIALS);
+		Polynomial result = table == null ? null : table.get(e.getIndex());
+		if (result == null) {
+			result = toPolynomial(e);
+			if (table != null) {
+				table.put(e.getIndex(), result);
+			}
+		}
+		return result;
+	}
+
+	private static Polynomial toPolynomial(Expr e) {
 		switch (e.getOpcode()) {
 		case WyalFile.EXPR_const: {
 			Expr.Constant c = (Expr.Constant) e;
@@ -201,6 +230,25 @@ public class Arithmetic {
 		 * @return
 		 */
 		public Polynomial factorise() {
+			long smallFactor = 0;
+			for (int i = 0; i != terms.length && smallFactor >= 0; ++i) {
+				Term t = terms[i];
+				smallFactor = (t.big == null) ? gcd(smallFactor, t.coefficient) : -1;
+			}
+			if (smallFactor == 0 || smallFactor == 1) {
+				// No useful factor discovered
+				return this;
+			} else if (smallFactor > 0) {
+				// Yes, we found a useful factor. Therefore, divide all
+				// coefficients by this.
+				Polynomial r = Polynomial.ZERO;
+				for (int i = 0; i != terms.length; ++i) {
+					Polynomial.Term t = terms[i];
+					r = r.add(new Polynomial.Term(t.coefficient / smallFactor, t.getAtoms()));
+				}
+				return r;
+			}
+			// Some coefficient does not fit in a long
 			BigInteger factor = terms[0].getCoefficient();
 			// In case of just one coefficient which is negative, we need to compute
 			// abs() here.
@@ -284,18 +332,35 @@ public class Arithmetic {
 		}
 
 		public static class Term implements Comparable<Term> {
-			private final BigInteger coefficient;
+			/**
+			 * The coefficient of this term, provided it fits in a long.
+			 * Otherwise, this is zero and the coefficient is given by
+			 * <code>big</code>. Most coefficients are small and, hence, this
+			 * avoids allocating BigIntegers for the common case.
+			 */
+			private final long coefficient;
+			private final BigInteger big;
 			private final Expr[] atoms;
 
 			Term(BigInteger coefficient, Expr...atoms) {
-				if(coefficient.equals(BigInteger.ZERO) && atoms.length > 0) {
+				this(fitsLong(coefficient) ? coefficient.longValue() : 0, fitsLong(coefficient) ? null : coefficient,
+						atoms);
+			}
+
+			Term(long coefficient, Expr... atoms) {
+				this(coefficient, null, atoms);
+			}
+
+			private Term(long coefficient, BigInteger big, Expr[] atoms) {
+				if(big == null && coefficient == 0 && atoms.length > 0) {
 					throw new IllegalArgumentException("invalid zero term");
 				}
 				this.coefficient = coefficient;
+				this.big = big;
 				this.atoms = atoms;
 			}
 			public BigInteger getCoefficient() {
-				return coefficient;
+				return big != null ? big : BigInteger.valueOf(coefficient);
 			}
 			public boolean isConstant() {
 				return atoms.length == 0;
@@ -318,7 +383,11 @@ public class Arithmetic {
 							return c;
 						}
 					}
-					return coefficient.compareTo(t.coefficient);
+					if (big == null && t.big == null) {
+						return Long.compare(coefficient, t.coefficient);
+					} else {
+						return getCoefficient().compareTo(t.getCoefficient());
+					}
 				}
 			}
 
@@ -326,35 +395,71 @@ public class Arithmetic {
 			public boolean equals(Object o) {
 				if(o instanceof Term) {
 					Term t = (Term) o;
-					return coefficient.equals(t.coefficient) && Arrays.equals(atoms, t.atoms);
+					// NOTE: coefficients are always stored as longs when they
+					// fit and, hence, there is only one representation for
+					// each.
+					return coefficient == t.coefficient && (big == null ? t.big == null : big.equals(t.big))
+							&& Arrays.equals(atoms, t.atoms);
 				}
 				return false;
 			}
 
 			@Override
 			public int hashCode() {
-				return coefficient.hashCode() ^ Arrays.hashCode(atoms);
+				int h = big != null ? big.hashCode() : hashCode(coefficient);
+				return h ^ Arrays.hashCode(atoms);
 			}
 
 			public Term negate() {
-				return new Term(coefficient.negate(),atoms);
+				if (big == null && coefficient != Long.MIN_VALUE) {
+					return new Term(-coefficient, null, atoms);
+				} else {
+					return new Term(getCoefficient().negate(), atoms);
+				}
 			}
 
 			public Term multiply(BigInteger rhs) {
-				if (coefficient.equals(BigInteger.ZERO)) {
+				if (isZero(this)) {
 					return this;
-				} else if (rhs.equals(BigInteger.ZERO)) {
+				} else if (rhs.signum() == 0) {
 					return new Polynomial.Term(rhs);
-				} else {
-					BigInteger coefficient = this.coefficient.multiply(rhs);
-					return new Polynomial.Term(coefficient, atoms);
+				} else if (big == null && fitsLong(rhs)) {
+					try {
+						return new Polynomial.Term(Math.multiplyExact(coefficient, rhs.longValue()), null, atoms);
+					} catch (ArithmeticException e) {
+						// Overflow, so fall through to the general case
+					}
 				}
+				BigInteger coefficient = getCoefficient().multiply(rhs);
+				return new Polynomial.Term(coefficient, atoms);
+			}
+
+			private boolean isOne() {
+				return big == null && coefficient == 1;
+			}
+
+			/**
+			 * Compute the hash code of a long value as though it were a
+			 * BigInteger, such that the hash code of a term does not depend on
+			 * how its coefficient is represented.
+			 *
+			 * @param value
+			 * @return
+			 */
+			private static int hashCode(long value) {
+				// NOTE: negating Long.MIN_VALUE gives the correct unsigned
+				// magnitude
+				long magnitude = value < 0 ? -value : value;
+				int hi = (int) (magnitude >>> 32);
+				int lo = (int) magnitude;
+				int h = hi != 0 ? (31 * hi) + lo : lo;
+				return h * Long.signum(value);
 			}
 
 			public Expr toExpression() {
 				if (atoms.length == 0) {
-					return new Expr.Constant(new Value.Int(coefficient));
-				} else if (coefficient.equals(BigInteger.ONE)) {
+					return new Expr.Constant(new Value.Int(getCoefficient()));
+				} else if (isOne()) {
 					if(atoms.length == 1) {
 						return atoms[0];
 					} else {
@@ -362,7 +467,7 @@ public class Arithmetic {
 					}
 				} else {
 					Expr[] es = new Expr[atoms.length + 1];
-					es[0] = new Expr.Constant(new Value.Int(coefficient));
+					es[0] = new Expr.Constant(new Value.Int(getCoefficient()));
 					System.arraycopy(atoms, 0, es, 1, atoms.length);
 					return new Expr.Multiplication(es);
 				}
@@ -371,8 +476,8 @@ public class Arithmetic {
 			@Override
 			public String toString() {
 				String r = "";
-				if(!coefficient.equals(BigInteger.ONE) || atoms.length == 0) {
-					r += coefficient;
+				if(!isOne() || atoms.length == 0) {
+					r += getCoefficient();
 					if(atoms.length > 0) {
 						r += "*";
 					}
@@ -389,18 +494,25 @@ public class Arithmetic {
 	}
 
 	private static Polynomial.Term multiply(Polynomial.Term lhs, Polynomial.Term rhs) {
-		if (lhs.coefficient.equals(BigInteger.ZERO)) {
+		if (isZero(lhs)) {
 			return lhs;
-		} else if (rhs.coefficient.equals(BigInteger.ZERO)) {
+		} else if (isZero(rhs)) {
 			return rhs;
 		} else {
-			BigInteger coefficient = lhs.getCoefficient().multiply(rhs.getCoefficient());
 			Expr[] lhsAtoms = lhs.getAtoms();
 			Expr[] rhsAtoms = rhs.getAtoms();
 			Expr[] atoms = new Expr[lhsAtoms.length + rhsAtoms.length];
 			System.arraycopy(lhsAtoms, 0, atoms, 0, lhsAtoms.length);
 			System.arraycopy(rhsAtoms, 0, atoms, lhsAtoms.length, rhsAtoms.length);
 			Arrays.sort(atoms);
+			if (lhs.big == null && rhs.big == null) {
+				try {
+					return new Polynomial.Term(Math.multiplyExact(lhs.coefficient, rhs.coefficient), atoms);
+				} catch (ArithmeticException e) {
+					// Overflow, so fall through to the general case
+				}
+			}
+			BigInteger coefficient = lhs.getCoefficient().multiply(rhs.getCoefficient());
 			return new Polynomial.Term(coefficient, atoms);
 		}
 	}
@@ -431,8 +543,28 @@ public class Arithmetic {
 	}
 
 	private static boolean isZero(Polynomial.Term term) {
-		BigInteger coefficient = term.getCoefficient();
-		return coefficient.equals(BigInteger.ZERO);
+		return term.big == null && term.coefficient == 0;
+	}
+
+	private static boolean fitsLong(BigInteger value) {
+		return value.bitLength() < Long.SIZE;
+	}
+
+	/**
+	 * Compute the greatest common divisor of two longs, returning -1 if the
+	 * result does not fit (i.e. is 2^63).
+	 *
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	private static long gcd(long a, long b) {
+		while (b != 0) {
+			long t = a % b;
+			a = b;
+			b = t;
+		}
+		return a == Long.MIN_VALUE ? -1 : Math.abs(a);
 	}
 
 	/**
@@ -479,6 +611,16 @@ public class Arithmetic {
 	 * @return
 	 */
 	private static Polynomial.Term merge(Polynomial.Term lhs, Polynomial.Term rhs) {
+		if (lhs.big == null && rhs.big == null) {
+			long l = lhs.coefficient;
+			long r = rhs.coefficient;
+			long sum = l + r;
+			// Overflow occurs only when both operands have the same sign, and
+			// the sum has a different sign.
+			if (((l ^ sum) & (r ^ sum)) >= 0) {
+				return sum == 0 ? null : new Polynomial.Term(sum, lhs.getAtoms());
+			}
+		}
 		BigInteger lhsCoeff = lhs.getCoefficient();
 		BigInteger rhsCoeff = rhs.getCoefficient();
 		BigInteger r = lhsCoeff.add(rhsCoeff);
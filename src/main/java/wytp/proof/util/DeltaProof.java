@@ -13,9 +13,10 @@
 // limitations under the License.
 package wytp.proof.util;
 
-import java.util.BitSet;
+import java.util.ArrayList;
 
 import wyfs.util.ArrayUtils;
+import wytp.proof.Budget;
 import wytp.proof.Formula;
 import wytp.proof.Proof;
 import wytp.proof.util.AbstractProof.AbstractState;
@@ -31,47 +32,118 @@ import wyal.lang.WyalFile.VariableDeclaration;
 public class DeltaProof extends AbstractProof<DeltaProof.State> {
 
 	public DeltaProof(Assert assertion, SyntacticHeap heap, Formula axiom) {
-		super(assertion,heap);
+		this(assertion, heap, axiom, new Budget());
+	}
+
+	public DeltaProof(Assert assertion, SyntacticHeap heap, Formula axiom, Budget budget) {
+		super(assertion,heap,budget);
 		// Initialise the proof with the root state
 		states.add(new State(this, axiom));
 	}
 
+	/**
+	 * Construct a proof which continues from a given state of another proof,
+	 * followed by a given axiom. The branch from the root of the other proof to
+	 * that state is copied into this proof, such that its states appear first
+	 * (and in the same order). Since its states are copied as is, rather than
+	 * being derived again, this avoids redoing work which is common to several
+	 * proofs. The given heap must be (a descendant of) that of the other proof
+	 * so that the formulae in the copied states remain valid.
+	 *
+	 * @param assertion
+	 * @param heap
+	 * @param branch
+	 *            The final state of the branch to continue from.
+	 * @param axiom
+	 * @param budget
+	 */
+	public DeltaProof(Assert assertion, SyntacticHeap heap, State branch, Formula axiom, Budget budget) {
+		super(assertion, heap, budget);
+		ArrayList<State> path = new ArrayList<>();
+		for (State s = branch; s != null; s = s.parent) {
+			path.add(s);
+		}
+		State head = new State(this, path.get(path.size() - 1));
+		states.add(head);
+		for (int i = path.size() - 2; i >= 0; --i) {
+			head = register(new State(head, path.get(i)));
+		}
+		head.infer(null, axiom);
+	}
+
 	public static class State extends AbstractState<State> {
 		/**
 		 * The set of all known truths, including those which are subsumed.
 		 * Always a superset of activeTruths.
 		 */
-		private final BitSet truths;
+		private final PersistentBitSet truths;
 
 		private final Delta delta;
 
 		private final TypeInferer.Environment environment;
 
+		/**
+		 * The cumulative delta from the root of the proof to this state, or
+		 * <code>null</code> if not yet computed. This is memoised since it is
+		 * required for every rule application. If this has been computed then
+		 * so has that of every ancestor and, hence, it must be invalidated
+		 * for all descendants whenever the tree above them is restructured.
+		 */
+		private volatile Proof.Delta history;
+
 		public State(DeltaProof proof, Formula axiom) {
 			super(proof, null, null);
-			this.truths = new BitSet();
+			this.truths = PersistentBitSet.EMPTY.set(axiom.getIndex());
 			this.delta = new FastDelta(new FastDelta.Set(axiom), FastDelta.EMPTY_SET);
 			this.environment = new StdTypeEnvironment();
-			truths.set(axiom.getIndex());
+			proof.getTermIndex().add(delta.getAdditions());
+		}
+
+		/**
+		 * Construct a copy of the root state of another proof.
+		 *
+		 * @param proof
+		 * @param root
+		 */
+		private State(DeltaProof proof, State root) {
+			super(proof, null, root.rule, root.dependencies.toArray(new Formula[0]));
+			this.truths = root.truths;
+			this.delta = root.delta;
+			this.environment = root.environment;
+			proof.getTermIndex().add(delta.getAdditions());
+		}
+
+		/**
+		 * Construct a copy of a state from another proof as a child of a given
+		 * state. The original state's parent must correspond to the given
+		 * state.
+		 *
+		 * @param state
+		 * @param original
+		 */
+		private State(State state, State original) {
+			super((DeltaProof) state.getProof(), state, original.rule, original.dependencies.toArray(new Formula[0]));
+			this.truths = original.truths;
+			this.delta = original.delta;
+			this.environment = original.environment;
+			state.children.add(this);
+			proof.getTermIndex().add(delta.getAdditions());
 		}
 
 		private State(State state, Proof.Rule rule, FastDelta delta, Formula... dependencies) {
 			super((DeltaProof) state.getProof(), state, rule, dependencies);
-			this.truths = (BitSet) state.truths.clone();
+			// Update our state of the world, sharing as much as possible
+			// with our parent.
+			this.truths = state.truths.set(delta.getAdditions());
 			this.environment = state.getTypeEnvironment();
 			this.delta = delta;
 			state.children.add(this);
-			// Update our state of the world
-			FastDelta.Set additions = delta.getAdditions();
-			//
-			for (int i = 0; i != additions.size(); ++i) {
-				truths.set(additions.get(i).getIndex());
-			}
+			proof.getTermIndex().add(delta.getAdditions());
 		}
 
 		private State(State state, TypeInferer.Environment environment,  Proof.Rule rule, Formula... dependencies) {
 			super((DeltaProof) state.getProof(), state, rule, dependencies);
-			this.truths = (BitSet) state.truths.clone();
+			this.truths = state.truths;
 			this.environment = environment;
 			this.delta = FastDelta.EMPTY_DELTA;
 			state.children.add(this);
@@ -94,7 +166,9 @@ public class DeltaProof extends AbstractProof<DeltaProof.State> {
 		 */
 		@Override
 		public Proof.Delta getDelta(Proof.State ancestor) {
-			if(this == ancestor) {
+			if (ancestor == null) {
+				return getHistory();
+			} else if(this == ancestor) {
 				return FastDelta.EMPTY_DELTA;
 			} else if(parent == null) {
 				// At this point, we must be the root node. In which case, we
@@ -105,6 +179,47 @@ public class DeltaProof extends AbstractProof<DeltaProof.State> {
 			}
 		}
 
+		/**
+		 * Get the cumulative delta from the root of the proof to this state.
+		 * This is computed from that of the nearest ancestor for which it is
+		 * known, and memoised for every state on the way.
+		 *
+		 * @return
+		 */
+		private Proof.Delta getHistory() {
+			Proof.Delta h = history;
+			if (h == null) {
+				ArrayList<State> path = new ArrayList<>();
+				State s = this;
+				while (s != null && s.history == null) {
+					path.add(s);
+					s = s.parent;
+				}
+				h = s == null ? null : s.history;
+				for (int i = path.size() - 1; i >= 0; --i) {
+					State p = path.get(i);
+					h = (h == null) ? p.delta : h.apply(p.delta);
+					p.history = h;
+				}
+			}
+			return h;
+		}
+
+		@Override
+		public void applyBypass(Proof.State child) {
+			super.applyBypass(child);
+			// The ancestors of our (new) children have changed, hence so has
+			// the history of every state beneath us.
+			ArrayList<State> worklist = new ArrayList<>(children);
+			while (!worklist.isEmpty()) {
+				State s = worklist.remove(worklist.size() - 1);
+				if (s.history != null) {
+					s.history = null;
+					worklist.addAll(s.children);
+				}
+			}
+		}
+
 		/**
 		 * Determine whether a given truth is known or not.
 		 *
@@ -182,7 +297,10 @@ public class DeltaProof extends AbstractProof<DeltaProof.State> {
 
 		@Override
 		public Formula allocate(Formula truth) {
-			return proof.getHeap().allocate(truth);
+			SyntacticHeap heap = proof.getHeap();
+			truth = heap.allocate(truth);
+			proof.getBudget().checkHeapSize(heap.size());
+			return truth;
 		}
 	}
 }
@@ -97,6 +97,20 @@ public class FastDelta implements Proof.Delta {
 		}
 
 		private Set(BitSet bits, Formula[] items) {
+			this.bits = bits;
+			this.items = items;
+			// NOTE: checking the invariant is linear in the size of the set,
+			// hence it is only done when assertions are enabled.
+			assert checkInvariant();
+		}
+
+		/**
+		 * Check that the bits and items of this set are consistent, throwing
+		 * an exception if not.
+		 *
+		 * @return
+		 */
+		private boolean checkInvariant() {
 			if(items.length != bits.cardinality()) {
 				throw new IllegalArgumentException("invariant broken (i)");
 			}
@@ -105,8 +119,7 @@ public class FastDelta implements Proof.Delta {
 					throw new IllegalArgumentException("invariant broken (ii)");
 				}
 			}
-			this.bits = bits;
-			this.items = items;
+			return true;
 		}
 
 		@Override
@@ -164,20 +177,63 @@ public class FastDelta implements Proof.Delta {
 
 		@Override
 		public Set union(Proof.Delta.Set other) {
-			Set result = this;
-			for(int i=0;i!=other.size();++i) {
-				result = result.add(other.get(i));
+			// Count the items not already contained in this set, such that the
+			// result can be constructed in one go.
+			int count = 0;
+			for (int i = 0; i != other.size(); ++i) {
+				if (!bits.get(other.get(i).getIndex())) {
+					count++;
+				}
+			}
+			if (count == 0) {
+				// Every item is already contained in this set, hence this is
+				// a no-operation.
+				return this;
+			} else {
+				Formula[] nItems = Arrays.copyOf(items, items.length + count);
+				BitSet nBits = (BitSet) bits.clone();
+				int j = items.length;
+				for (int i = 0; i != other.size(); ++i) {
+					Formula ith = other.get(i);
+					int index = ith.getIndex();
+					if (!nBits.get(index)) {
+						nBits.set(index);
+						nItems[j++] = ith;
+					}
+				}
+				return new Set(nBits, nItems);
 			}
-			return result;
 		}
 
 		@Override
 		public Set remove(Proof.Delta.Set other) {
-			Set result = this;
-			for(int i=0;i!=other.size();++i) {
-				result = result.remove(other.get(i));
+			BitSet nBits = null;
+			int count = 0;
+			for (int i = 0; i != other.size(); ++i) {
+				int index = other.get(i).getIndex();
+				if (bits.get(index)) {
+					if (nBits == null) {
+						nBits = (BitSet) bits.clone();
+					}
+					nBits.clear(index);
+					count++;
+				}
+			}
+			if (nBits == null) {
+				// No item is contained in this set, hence this is a
+				// no-operation.
+				return this;
+			} else {
+				Formula[] nItems = new Formula[items.length - count];
+				int j = 0;
+				for (int i = 0; i != items.length; ++i) {
+					Formula ith = items[i];
+					if (nBits.get(ith.getIndex())) {
+						nItems[j++] = ith;
+					}
+				}
+				return new Set(nBits, nItems);
 			}
-			return result;
 		}
 
 		@Override
@@ -0,0 +1,151 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wytp.proof.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import wytp.proof.Formula;
+
+/**
+ * <p>
+ * Records the instances of quantifiers produced during a proof. An instance is
+ * determined entirely by the quantifier, the parameter being instantiated and
+ * the binding for it. Since all of these are items in the (hash-consed) proof
+ * heap, an instance is identified by their heap indices. The same instance is
+ * often derived along many branches of a proof and, using this table, the
+ * work of constructing and simplifying it is done only once.
+ * </p>
+ * <p>
+ * The table is shared by all states of a proof and, hence, can be safely
+ * shared between branches explored in parallel. It also counts the attempts
+ * to instantiate a quantifier, distinguishing those which were answered from
+ * the table and those which were redundant (i.e. the instance was already
+ * known in the state in question). These counts are useful for tuning.
+ * </p>
+ */
+public class InstantiationTable {
+	private final ConcurrentHashMap<Key, Formula> instances = new ConcurrentHashMap<>();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder redundant = new LongAdder();
+
+	/**
+	 * Get the instance previously produced for a given quantifier, parameter
+	 * and binding, or <code>null</code> if there is none.
+	 *
+	 * @param quantifier
+	 *            Heap index of the quantifier.
+	 * @param parameter
+	 *            Position of the parameter being instantiated.
+	 * @param binding
+	 *            Heap index of the binding.
+	 * @return
+	 */
+	public Formula get(int quantifier, int parameter, int binding) {
+		Formula instance = instances.get(new Key(quantifier, parameter, binding));
+		if (instance != null) {
+			hits.increment();
+		} else {
+			misses.increment();
+		}
+		return instance;
+	}
+
+	/**
+	 * Record the (allocated) instance produced for a given quantifier,
+	 * parameter and binding.
+	 *
+	 * @param quantifier
+	 *            Heap index of the quantifier.
+	 * @param parameter
+	 *            Position of the parameter being instantiated.
+	 * @param binding
+	 *            Heap index of the binding.
+	 * @param instance
+	 */
+	public void put(int quantifier, int parameter, int binding, Formula instance) {
+		instances.put(new Key(quantifier, parameter, binding), instance);
+	}
+
+	/**
+	 * Record an attempt to produce an instance which was already known.
+	 */
+	public void redundant() {
+		redundant.increment();
+	}
+
+	/**
+	 * Get the number of instances which were answered from this table.
+	 *
+	 * @return
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Get the number of instances which had to be constructed.
+	 *
+	 * @return
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Get the number of attempts to produce an instance which was already
+	 * known in the state in question.
+	 *
+	 * @return
+	 */
+	public long getRedundant() {
+		return redundant.sum();
+	}
+
+	/**
+	 * Get the number of instances recorded.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return instances.size();
+	}
+
+	private static final class Key {
+		private final int quantifier;
+		private final int parameter;
+		private final int binding;
+
+		public Key(int quantifier, int parameter, int binding) {
+			this.quantifier = quantifier;
+			this.parameter = parameter;
+			this.binding = binding;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (o instanceof Key) {
+				Key k = (Key) o;
+				return quantifier == k.quantifier && parameter == k.parameter && binding == k.binding;
+			}
+			return false;
+		}
+
+		@Override
+		public int hashCode() {
+			return (quantifier * 31 + parameter) * 31 + binding;
+		}
+	}
+}
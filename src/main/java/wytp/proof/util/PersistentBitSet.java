@@ -0,0 +1,134 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wytp.proof.util;
+
+import java.util.Arrays;
+
+import wytp.proof.Formula;
+import wytp.proof.Proof;
+
+/**
+ * An immutable set of bits which shares structure with the sets it was derived
+ * from. The bits are divided into fixed-size chunks, and setting a bit copies
+ * only the chunk containing it (and the array of chunks itself). All other
+ * chunks are shared. This is intended for the known truths of a proof state,
+ * which differ from those of the parent state in only a few bits. Furthermore,
+ * since new formulae are allocated at the end of the heap, those bits tend to
+ * fall within the same chunk.
+ */
+public final class PersistentBitSet {
+	public static final PersistentBitSet EMPTY = new PersistentBitSet(new long[0][]);
+
+	/**
+	 * Number of bits in a chunk, as a power of two.
+	 */
+	private static final int CHUNK_SHIFT = 9;
+
+	/**
+	 * Number of words (i.e. longs) in a chunk.
+	 */
+	private static final int CHUNK_WORDS = (1 << CHUNK_SHIFT) / Long.SIZE;
+
+	/**
+	 * The chunks making up this set. A <code>null</code> chunk has no bits
+	 * set. Chunks must never be modified once this set has been constructed,
+	 * since they may be shared with other sets.
+	 */
+	private final long[][] chunks;
+
+	private PersistentBitSet(long[][] chunks) {
+		this.chunks = chunks;
+	}
+
+	/**
+	 * Check whether a given bit is set.
+	 *
+	 * @param index
+	 * @return
+	 */
+	public boolean get(int index) {
+		int c = index >>> CHUNK_SHIFT;
+		if (c >= chunks.length || chunks[c] == null) {
+			return false;
+		} else {
+			int bit = index & ((1 << CHUNK_SHIFT) - 1);
+			return (chunks[c][bit >>> 6] & (1L << bit)) != 0;
+		}
+	}
+
+	/**
+	 * Return a set which additionally has a given bit set.
+	 *
+	 * @param index
+	 * @return
+	 */
+	public PersistentBitSet set(int index) {
+		if (get(index)) {
+			return this;
+		} else {
+			long[][] nChunks = copyChunks(index >>> CHUNK_SHIFT);
+			setBit(nChunks, index);
+			return new PersistentBitSet(nChunks);
+		}
+	}
+
+	/**
+	 * Return a set which additionally has the bits for a given set of formulae
+	 * set. This copies each affected chunk at most once, regardless of how
+	 * many bits within it are set.
+	 *
+	 * @param truths
+	 * @return
+	 */
+	public PersistentBitSet set(Proof.Delta.Set truths) {
+		long[][] nChunks = null;
+		for (int i = 0; i != truths.size(); ++i) {
+			Formula truth = truths.get(i);
+			int index = truth.getIndex();
+			if (!get(index)) {
+				int c = index >>> CHUNK_SHIFT;
+				if (nChunks == null) {
+					nChunks = copyChunks(c);
+				} else if (c >= nChunks.length) {
+					nChunks = Arrays.copyOf(nChunks, c + 1);
+				}
+				if (nChunks[c] == (c < chunks.length ? chunks[c] : null)) {
+					// Chunk is shared with this set, so copy it before
+					// modification.
+					nChunks[c] = nChunks[c] == null ? new long[CHUNK_WORDS] : nChunks[c].clone();
+				}
+				setBit(nChunks, index);
+			}
+		}
+		return nChunks == null ? this : new PersistentBitSet(nChunks);
+	}
+
+	/**
+	 * Copy the array of chunks such that it includes a given chunk, which is
+	 * itself copied (or created).
+	 *
+	 * @param c
+	 * @return
+	 */
+	private long[][] copyChunks(int c) {
+		long[][] nChunks = Arrays.copyOf(chunks, Math.max(chunks.length, c + 1));
+		nChunks[c] = nChunks[c] == null ? new long[CHUNK_WORDS] : nChunks[c].clone();
+		return nChunks;
+	}
+
+	private static void setBit(long[][] chunks, int index) {
+		int bit = index & ((1 << CHUNK_SHIFT) - 1);
+		chunks[index >>> CHUNK_SHIFT][bit >>> 6] |= (1L << bit);
+	}
+}
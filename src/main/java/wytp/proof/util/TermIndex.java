@@ -0,0 +1,582 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wytp.proof.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import wyal.lang.WyalFile;
+import wyal.lang.WyalFile.Expr;
+import wyal.lang.WyalFile.VariableDeclaration;
+import wybs.lang.SyntacticItem;
+import wytp.proof.Formula;
+import wytp.proof.Proof;
+
+/**
+ * <p>
+ * Indexes the truths arising in a proof, such that rules can quickly find
+ * those existing truths which are relevant to a new truth, rather than
+ * examining every existing truth. Truths are indexed by:
+ * </p>
+ * <ul>
+ * <li><b>Kind.</b> That is, the class (or interface) of formula, such as
+ * <code>Formula.Inequality</code>.</li>
+ * <li><b>Atoms.</b> That is, for an inequality, the atoms of each term in the
+ * polynomials on either side.</li>
+ * <li><b>Variables.</b> That is, the variables declarations referred to from
+ * anywhere within the truth.</li>
+ * <li><b>Symbols.</b> That is, the arrays, functions and fields applied by the
+ * ground terms of a truth or, for a quantifier, by its triggers (see
+ * <code>Symbol</code>).</li>
+ * </ul>
+ * <p>
+ * The index is shared by all states of a proof and, hence, contains truths
+ * from every branch. Therefore, every lookup is filtered against the existing
+ * truths of the state in question. Results are returned in the order truths
+ * were added to the index. Truths are recorded when a state is created, but
+ * are only analysed when the next lookup occurs.
+ * </p>
+ */
+public class TermIndex {
+	/**
+	 * Every truth added to the index, in the order it was added. Positions in
+	 * this list are used to order the results of lookups.
+	 */
+	private final ArrayList<Formula> truths = new ArrayList<>();
+
+	/**
+	 * Identifies which truths (by heap index) have been added already.
+	 */
+	private final BitSet added = new BitSet();
+
+	/**
+	 * The number of truths which have been analysed. Truths after this point
+	 * are recorded, but not yet included in the atom or variable indices.
+	 */
+	private int analysed;
+
+	/**
+	 * Maps each kind of truth which has been looked up to the positions of
+	 * all truths of that kind.
+	 */
+	private final HashMap<Class<?>, BitSet> kinds = new HashMap<>();
+
+	/**
+	 * Maps the atoms of each term of an inequality to the positions of all
+	 * inequalities containing a term with those atoms.
+	 */
+	private final HashMap<List<Expr>, BitSet> atoms = new HashMap<>();
+
+	/**
+	 * The positions of those inequalities whose atoms could not be
+	 * determined. These are returned by every lookup on atoms.
+	 */
+	private final BitSet unknownAtoms = new BitSet();
+
+	/**
+	 * Maps each variable declaration to the positions of all truths which
+	 * refer to it.
+	 */
+	private final IdentityHashMap<VariableDeclaration, BitSet> variables = new IdentityHashMap<>();
+
+	/**
+	 * Maps each symbol to the ground terms applying it, along with the
+	 * position of the truth in which each occurs. Quantifiers are not
+	 * included.
+	 */
+	private final HashMap<Symbol, ArrayList<Occurrence>> groundTerms = new HashMap<>();
+
+	/**
+	 * Maps each symbol to the positions of all quantifiers with a trigger
+	 * applying it.
+	 */
+	private final HashMap<Symbol, BitSet> triggers = new HashMap<>();
+
+	/**
+	 * Record a set of truths in the index.
+	 *
+	 * @param additions
+	 */
+	public synchronized void add(Proof.Delta.Set additions) {
+		for (int i = 0; i != additions.size(); ++i) {
+			Formula truth = additions.get(i);
+			int index = truth.getIndex();
+			if (!added.get(index)) {
+				added.set(index);
+				truths.add(truth);
+			}
+		}
+	}
+
+	/**
+	 * Get all existing truths of a given kind.
+	 *
+	 * @param kind
+	 *            The class of formula being looked for.
+	 * @param existingTruths
+	 *            The existing truths in the state of interest.
+	 * @return
+	 */
+	public synchronized <T extends Formula> List<T> getTruths(Class<T> kind, Proof.Delta.Set existingTruths) {
+		BitSet positions = kinds.get(kind);
+		if (positions == null) {
+			// First lookup of this kind, so index all truths seen so far.
+			positions = new BitSet();
+			for (int i = 0; i != truths.size(); ++i) {
+				if (kind.isInstance(truths.get(i))) {
+					positions.set(i);
+				}
+			}
+			kinds.put(kind, positions);
+		} else {
+			update();
+		}
+		return select(kind, positions, existingTruths);
+	}
+
+	/**
+	 * Get all existing inequalities containing a term whose atoms match those
+	 * of some term in a given inequality. In other words, all inequalities
+	 * which could be closed over with it.
+	 *
+	 * @param inequality
+	 * @param existingTruths
+	 *            The existing truths in the state of interest.
+	 * @return
+	 */
+	public synchronized List<Formula.Inequality> getInequalities(Formula.Inequality inequality,
+			Proof.Delta.Set existingTruths) {
+		update();
+		List<List<Expr>> keys = atomsOf(inequality);
+		if (keys == null) {
+			return getTruths(Formula.Inequality.class, existingTruths);
+		}
+		BitSet positions = (BitSet) unknownAtoms.clone();
+		for (List<Expr> key : keys) {
+			BitSet matches = atoms.get(key);
+			if (matches != null) {
+				positions.or(matches);
+			}
+		}
+		return select(Formula.Inequality.class, positions, existingTruths);
+	}
+
+	/**
+	 * Get all existing truths which refer to a given variable declaration.
+	 *
+	 * @param variable
+	 * @param existingTruths
+	 *            The existing truths in the state of interest.
+	 * @return
+	 */
+	public synchronized List<Formula> getTruths(VariableDeclaration variable, Proof.Delta.Set existingTruths) {
+		update();
+		BitSet positions = variables.get(variable);
+		if (positions == null) {
+			return new ArrayList<>();
+		}
+		return select(Formula.class, positions, existingTruths);
+	}
+
+	/**
+	 * Get all occurrences within the existing truths of ground terms applying
+	 * one of a given collection of symbols. Occurrences are returned in the
+	 * order their truths were added to the index, and each is returned once.
+	 *
+	 * @param symbols
+	 * @param existingTruths
+	 *            The existing truths in the state of interest.
+	 * @return
+	 */
+	public synchronized List<Occurrence> getGroundTerms(Collection<Symbol> symbols, Proof.Delta.Set existingTruths) {
+		update();
+		ArrayList<Occurrence> result = new ArrayList<>();
+		IdentityHashMap<Occurrence, Boolean> seen = new IdentityHashMap<>();
+		for (Symbol symbol : symbols) {
+			ArrayList<Occurrence> occurrences = groundTerms.get(symbol);
+			if (occurrences != null) {
+				for (int i = 0; i != occurrences.size(); ++i) {
+					Occurrence o = occurrences.get(i);
+					if (existingTruths.contains(o.truth) && seen.put(o, Boolean.TRUE) == null) {
+						result.add(o);
+					}
+				}
+			}
+		}
+		// Sorting is stable, hence occurrences within the same truth remain
+		// in order.
+		result.sort((a, b) -> Integer.compare(a.position, b.position));
+		return result;
+	}
+
+	/**
+	 * Get all existing quantifiers with a trigger applying one of a given
+	 * collection of symbols.
+	 *
+	 * @param symbols
+	 * @param existingTruths
+	 *            The existing truths in the state of interest.
+	 * @return
+	 */
+	public synchronized List<Formula.Quantifier> getQuantifiers(Collection<Symbol> symbols,
+			Proof.Delta.Set existingTruths) {
+		update();
+		BitSet positions = new BitSet();
+		for (Symbol symbol : symbols) {
+			BitSet matches = triggers.get(symbol);
+			if (matches != null) {
+				positions.or(matches);
+			}
+		}
+		return select(Formula.Quantifier.class, positions, existingTruths);
+	}
+
+	/**
+	 * Analyse any truths added since the last lookup.
+	 */
+	private void update() {
+		for (; analysed < truths.size(); ++analysed) {
+			Formula truth = truths.get(analysed);
+			for (Map.Entry<Class<?>, BitSet> e : kinds.entrySet()) {
+				if (e.getKey().isInstance(truth)) {
+					e.getValue().set(analysed);
+				}
+			}
+			if (truth instanceof Formula.Inequality) {
+				List<List<Expr>> keys = atomsOf((Formula.Inequality) truth);
+				if (keys == null) {
+					unknownAtoms.set(analysed);
+				} else {
+					for (List<Expr> key : keys) {
+						lookup(atoms, key).set(analysed);
+					}
+				}
+			}
+			for (VariableDeclaration var : findVariables(truth)) {
+				lookup(variables, var).set(analysed);
+			}
+			if (truth instanceof Formula.Quantifier) {
+				for (Symbol symbol : findTriggers((Formula.Quantifier) truth)) {
+					lookup(triggers, symbol).set(analysed);
+				}
+			} else {
+				for (Expr term : findTerms(truth)) {
+					Occurrence occurrence = new Occurrence(analysed, truth, term);
+					for (Symbol symbol : Symbol.of(term, Collections.emptyList())) {
+						ArrayList<Occurrence> occurrences = groundTerms.get(symbol);
+						if (occurrences == null) {
+							occurrences = new ArrayList<>();
+							groundTerms.put(symbol, occurrences);
+						}
+						occurrences.add(occurrence);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Select those truths at the given positions which are existing truths.
+	 *
+	 * @param kind
+	 *            The class of every truth at the given positions.
+	 * @param positions
+	 * @param existingTruths
+	 * @return
+	 */
+	private <T extends Formula> List<T> select(Class<T> kind, BitSet positions, Proof.Delta.Set existingTruths) {
+		ArrayList<T> result = new ArrayList<>();
+		for (int i = positions.nextSetBit(0); i >= 0; i = positions.nextSetBit(i + 1)) {
+			Formula truth = truths.get(i);
+			if (existingTruths.contains(truth)) {
+				result.add(kind.cast(truth));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Determine the atoms of every (non-constant) term in the polynomials on
+	 * either side of an inequality, or <code>null</code> if they cannot be
+	 * determined (e.g. because division is involved).
+	 *
+	 * @param inequality
+	 * @return
+	 */
+	private static List<List<Expr>> atomsOf(Formula.Inequality inequality) {
+		try {
+			List<List<Expr>> keys = new ArrayList<>();
+			for (int i = 0; i != 2; ++i) {
+				Arithmetic.Polynomial p = Arithmetic.asPolynomial(inequality.get(i));
+				for (int j = 0; j != p.size(); ++j) {
+					Expr[] atoms = p.getTerm(j).getAtoms();
+					if (atoms.length > 0) {
+						keys.add(Arrays.asList(atoms));
+					}
+				}
+			}
+			return keys;
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Find all variable declarations referred to from within a given item.
+	 * Each declaration is reported at most once.
+	 *
+	 * @param item
+	 * @return
+	 */
+	public static List<VariableDeclaration> findVariables(SyntacticItem item) {
+		ArrayList<VariableDeclaration> vars = new ArrayList<>();
+		ArrayList<SyntacticItem> worklist = new ArrayList<>();
+		IdentityHashMap<SyntacticItem, Boolean> visited = new IdentityHashMap<>();
+		worklist.add(item);
+		while (!worklist.isEmpty()) {
+			SyntacticItem ith = worklist.remove(worklist.size() - 1);
+			if (ith != null && visited.put(ith, Boolean.TRUE) == null) {
+				if (ith instanceof VariableDeclaration) {
+					vars.add((VariableDeclaration) ith);
+				}
+				for (int i = 0; i != ith.size(); ++i) {
+					worklist.add(ith.get(i));
+				}
+			}
+		}
+		return vars;
+	}
+
+	/**
+	 * Find the symbols applied by the triggers of a quantifier. That is, by
+	 * those terms which apply an array, function or field to something
+	 * depending on a quantified variable.
+	 *
+	 * @param quantifier
+	 * @return
+	 */
+	public static List<Symbol> findTriggers(Formula.Quantifier quantifier) {
+		ArrayList<VariableDeclaration> parameters = new ArrayList<>();
+		for (int i = 0; i != quantifier.getParameters().size(); ++i) {
+			parameters.add(quantifier.getParameters().get(i));
+		}
+		ArrayList<Symbol> symbols = new ArrayList<>();
+		for (Expr term : findTerms(quantifier.getBody())) {
+			if (Symbol.isTrigger(term, parameters)) {
+				for (Symbol symbol : Symbol.of(term, parameters)) {
+					if (!symbols.contains(symbol)) {
+						symbols.add(symbol);
+					}
+				}
+			}
+		}
+		return symbols;
+	}
+
+	/**
+	 * Find the distinct subterms of a given item which apply some symbol.
+	 * Subterms are reported before the terms containing them.
+	 *
+	 * @param item
+	 * @return
+	 */
+	public static List<Expr> findTerms(SyntacticItem item) {
+		ArrayList<Expr> terms = new ArrayList<>();
+		findTerms(item, terms, new IdentityHashMap<>());
+		return terms;
+	}
+
+	private static void findTerms(SyntacticItem item, List<Expr> terms,
+			IdentityHashMap<SyntacticItem, Boolean> visited) {
+		if (item != null && visited.put(item, Boolean.TRUE) == null) {
+			for (int i = 0; i != item.size(); ++i) {
+				findTerms(item.get(i), terms, visited);
+			}
+			if (Symbol.isApplication(item)) {
+				terms.add((Expr) item);
+			}
+		}
+	}
+
+	private static <K> BitSet lookup(Map<K, BitSet> map, K key) {
+		BitSet positions = map.get(key);
+		if (positions == null) {
+			positions = new BitSet();
+			map.put(key, positions);
+		}
+		return positions;
+	}
+
+	/**
+	 * An occurrence of a ground term within a truth.
+	 */
+	public static final class Occurrence {
+		/**
+		 * The position of the truth in the index.
+		 */
+		private final int position;
+		private final Formula truth;
+		private final Expr term;
+
+		private Occurrence(int position, Formula truth, Expr term) {
+			this.position = position;
+			this.truth = truth;
+			this.term = term;
+		}
+
+		public Formula getTruth() {
+			return truth;
+		}
+
+		public Expr getTerm() {
+			return term;
+		}
+	}
+
+	/**
+	 * <p>
+	 * Identifies what is applied by a term. That is, the array being accessed
+	 * by an array access, the function being invoked, or the field being read.
+	 * A quantifier can only be usefully instantiated against a ground term
+	 * which applies the same symbol as one of its triggers.
+	 * </p>
+	 * <p>
+	 * When the array being accessed by a trigger itself depends on a
+	 * quantified variable, there is no way to know which array it will end up
+	 * accessing. Such triggers apply the "wildcard" array symbol, which every
+	 * ground array access also applies.
+	 * </p>
+	 */
+	public static final class Symbol {
+		private final int opcode;
+		private final SyntacticItem name;
+
+		private Symbol(int opcode, SyntacticItem name) {
+			this.opcode = opcode;
+			this.name = name;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (o instanceof Symbol) {
+				Symbol s = (Symbol) o;
+				return opcode == s.opcode && Objects.equals(name, s.name);
+			}
+			return false;
+		}
+
+		@Override
+		public int hashCode() {
+			return opcode * 31 + Objects.hashCode(name);
+		}
+
+		@Override
+		public String toString() {
+			return name == null ? "*[]" : name.toString();
+		}
+
+		/**
+		 * Determine whether a given item applies some symbol.
+		 *
+		 * @param item
+		 * @return
+		 */
+		public static boolean isApplication(SyntacticItem item) {
+			switch (item.getOpcode()) {
+			case WyalFile.EXPR_arridx:
+			case WyalFile.EXPR_invoke:
+			case WyalFile.EXPR_recfield:
+				return item instanceof Expr;
+			default:
+				return false;
+			}
+		}
+
+		/**
+		 * Determine whether a given term is a trigger for some variables. That
+		 * is, an array access whose index depends on them, an invocation with
+		 * an argument which depends on them, or a field read from something
+		 * which depends on them.
+		 *
+		 * @param term
+		 * @param variables
+		 * @return
+		 */
+		public static boolean isTrigger(Expr term, Collection<VariableDeclaration> variables) {
+			switch (term.getOpcode()) {
+			case WyalFile.EXPR_arridx:
+				return dependsOn(term.get(1), variables);
+			case WyalFile.EXPR_invoke:
+				return dependsOn(((Expr.Invoke) term).getArguments(), variables);
+			case WyalFile.EXPR_recfield:
+				return dependsOn(term.get(0), variables);
+			default:
+				return false;
+			}
+		}
+
+		/**
+		 * Determine the symbols applied by a given term, where the given
+		 * variables are quantified. This is empty if the term applies no
+		 * symbol.
+		 *
+		 * @param term
+		 * @param variables
+		 * @return
+		 */
+		public static List<Symbol> of(Expr term, Collection<VariableDeclaration> variables) {
+			switch (term.getOpcode()) {
+			case WyalFile.EXPR_arridx:
+				if (dependsOn(term.get(0), variables)) {
+					return Collections.singletonList(ARRAY);
+				} else if (variables.isEmpty()) {
+					// A ground access may match a wildcard trigger
+					return Arrays.asList(new Symbol(WyalFile.EXPR_arridx, term.get(0)), ARRAY);
+				} else {
+					return Collections.singletonList(new Symbol(WyalFile.EXPR_arridx, term.get(0)));
+				}
+			case WyalFile.EXPR_invoke:
+				return Collections.singletonList(new Symbol(WyalFile.EXPR_invoke, ((Expr.Invoke) term).getName()));
+			case WyalFile.EXPR_recfield:
+				return Collections.singletonList(new Symbol(WyalFile.EXPR_recfield, term.get(1)));
+			default:
+				return Collections.emptyList();
+			}
+		}
+
+		/**
+		 * The symbol applied by any array access.
+		 */
+		private static final Symbol ARRAY = new Symbol(WyalFile.EXPR_arridx, null);
+
+		private static boolean dependsOn(SyntacticItem item, Collection<VariableDeclaration> variables) {
+			if (!variables.isEmpty()) {
+				for (VariableDeclaration v : findVariables(item)) {
+					if (variables.contains(v)) {
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+	}
+}
@@ -13,7 +13,20 @@
 // limitations under the License.
 package wytp.provers;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import wyal.heap.StructurallyEquivalentHeap;
 import wyal.lang.WyalFile;
@@ -24,12 +37,14 @@ import wyal.util.NameResolver.ResolutionError;
 import wybs.lang.SyntacticException;
 import wybs.lang.SyntacticHeap;
 import wybs.lang.SyntacticItem;
+import wytp.proof.Budget;
 import wytp.proof.Formula;
 import wytp.proof.Proof;
 import wytp.proof.io.ProofPrinter;
 import wytp.proof.rules.CongruenceClosure;
 import wytp.proof.rules.EqualityCaseAnalysis;
 import wytp.proof.rules.Simplification;
+import wytp.proof.rules.arithmetic.FourierMotzkinElimination;
 import wytp.proof.rules.arithmetic.InequalityIntroduction;
 import wytp.proof.rules.array.ArrayEqualityCaseAnalysis;
 import wytp.proof.rules.array.ArrayIndexAxiom;
@@ -61,6 +76,30 @@ public class AutomatedTheoremProver {
 	 */
 	private int maxProofSize = 5000;
 
+	/**
+	 * Determines the maximum time (in milliseconds) permitted for proving any
+	 * given assertion. A negative value indicates no limit.
+	 */
+	private long timeout = -1;
+
+	/**
+	 * Determines the maximum number of rule applications permitted for proving
+	 * any given assertion.
+	 */
+	private int maxSteps = Integer.MAX_VALUE;
+
+	/**
+	 * Determines the maximum heap size permitted for proving any given
+	 * assertion.
+	 */
+	private int maxHeapSize = Integer.MAX_VALUE;
+
+	/**
+	 * Determines the maximum depth of nested case splits permitted for proving
+	 * any given assertion.
+	 */
+	private int maxSplitDepth = Integer.MAX_VALUE;
+
 	/**
 	 * Debugging option which prints the proof to the console. This should
 	 * eventually be deprecated in favour of a more formal mechanism for
@@ -75,9 +114,38 @@ public class AutomatedTheoremProver {
 
 	/**
 	 * The list of proof rules which can be applied by this theorem prover.
+	 * Rules carry no state between applications and, hence, can be shared
+	 * between assertions being checked concurrently.
 	 */
 	private Proof.Rule[] rules;
 
+	/**
+	 * The executor used for checking assertions in parallel. Every assertion is
+	 * checked using its own heap and proof and, hence, assertions can be
+	 * checked independently of each other. When this is <code>null</code>,
+	 * assertions are checked one after the other on the calling thread.
+	 */
+	private ExecutorService executor;
+
+	/**
+	 * The pool used for exploring the cases of a split in parallel. When this
+	 * is <code>null</code>, cases are explored one after the other according
+	 * to the search strategy.
+	 */
+	private ForkJoinPool splitPool;
+
+	/**
+	 * The strategy used for proof search.
+	 */
+	private Strategy strategy = Strategy.DEPTH_FIRST;
+
+	/**
+	 * Determines whether assertions in the same file which share a common
+	 * prefix of hypotheses should reuse the work of saturating that prefix.
+	 * This is disabled by default.
+	 */
+	private boolean shareHypotheses = false;
+
 	public void setPrintProof(boolean flag) {
 		this.printProof = flag;
 	}
@@ -86,10 +154,42 @@ public class AutomatedTheoremProver {
 		this.maxProofSize = size;
 	}
 
+	public void setTimeout(long millis) {
+		this.timeout = millis;
+	}
+
+	public void setStepLimit(int steps) {
+		this.maxSteps = steps;
+	}
+
+	public void setHeapLimit(int size) {
+		this.maxHeapSize = size;
+	}
+
+	public void setSplitLimit(int depth) {
+		this.maxSplitDepth = depth;
+	}
+
 	public void setProofWidth(int width) {
 		this.proofWidth= width;
 	}
 
+	public void setStrategy(Strategy strategy) {
+		this.strategy = strategy;
+	}
+
+	public void setSplitPool(ForkJoinPool pool) {
+		this.splitPool = pool;
+	}
+
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	public void setShareHypotheses(boolean flag) {
+		this.shareHypotheses = flag;
+	}
+
 	public AutomatedTheoremProver(TypeSystem typeSystem) {
 		this.types = typeSystem;
 		//
@@ -98,6 +198,7 @@ public class AutomatedTheoremProver {
 		this.rules = new Proof.Rule[] {
 				simplify,
 				new CongruenceClosure(simplify,types),
+				new FourierMotzkinElimination(simplify,types),
 				new InequalityIntroduction(simplify,types),
 				new AndElimination(simplify,types),
 				new ExistentialElimination(simplify,types),
@@ -116,42 +217,291 @@ public class AutomatedTheoremProver {
 	}
 
 	public void check(WyalFile source) {
+		check(source, null);
+	}
+
+	/**
+	 * Check all assertions in a given source file, skipping those which a cache
+	 * records as holding (if one is provided). Any assertions newly shown to
+	 * hold are recorded in the cache.
+	 *
+	 * @param source
+	 * @param cache
+	 *            The assertions previously shown to hold, or <code>null</code>
+	 *            if none.
+	 */
+	public void check(WyalFile source, ProofCache cache) {
+		List<WyalFile.Declaration.Assert> assertions = new ArrayList<>();
 		for (int i = 0; i != source.size(); ++i) {
 			SyntacticItem item = source.getSyntacticItem(i);
 			if (item instanceof WyalFile.Declaration.Assert) {
-				WyalFile.Declaration.Assert ast = (WyalFile.Declaration.Assert) item;
-				try {
-					if (!check(ast)) {
-						String msg = ast.getMessage();
-						msg = msg != null ? msg : "assertion failure";
-						throw new SyntacticException(msg,null, ast);
-					}
-				} catch (NameResolver.ResolutionError e) {
-					throw new SyntacticException(e.getMessage(), null, item, e);
+				assertions.add((WyalFile.Declaration.Assert) item);
+			}
+		}
+		SharedHypotheses shared = shareHypotheses ? new SharedHypotheses(assertions) : null;
+		if (executor == null) {
+			for (WyalFile.Declaration.Assert ast : assertions) {
+				SyntacticException error = verify(ast, cache, shared);
+				if (error != null) {
+					throw error;
+				}
+			}
+		} else {
+			checkAll(assertions, cache, shared);
+		}
+	}
+
+	/**
+	 * Check a list of assertions in parallel using the executor. Errors are
+	 * reported in the order the assertions appear in the source file,
+	 * regardless of the order in which they are actually checked. Hence, the
+	 * error reported is always the same as for sequential checking.
+	 *
+	 * @param assertions
+	 * @param cache
+	 * @param shared
+	 */
+	private void checkAll(List<WyalFile.Declaration.Assert> assertions, ProofCache cache, SharedHypotheses shared) {
+		List<Future<SyntacticException>> results = new ArrayList<>();
+		for (WyalFile.Declaration.Assert ast : assertions) {
+			results.add(executor.submit(() -> verify(ast, cache, shared)));
+		}
+		try {
+			for (int i = 0; i != results.size(); ++i) {
+				SyntacticException error = results.get(i).get();
+				if (error != null) {
+					throw error;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			} else {
+				throw new RuntimeException(cause);
+			}
+		} finally {
+			// Cancel anything still outstanding (e.g. following a failure)
+			for (Future<SyntacticException> f : results) {
+				f.cancel(false);
+			}
+		}
+	}
+
+	/**
+	 * Check a given assertion, returning the error which should be reported
+	 * for it (or <code>null</code> if the assertion holds). An assertion which
+	 * could not be proved within its budget is reported as a timeout, rather
+	 * than as an assertion failure. In this case, the cause of the error is
+	 * the <code>Budget.Exhausted</code> exception.
+	 *
+	 * @param ast
+	 * @param cache
+	 *            The assertions previously shown to hold, or <code>null</code>
+	 *            if none.
+	 * @param shared
+	 *            The hypotheses shared between assertions, or <code>null</code>
+	 *            if these are not being reused.
+	 * @return
+	 */
+	private SyntacticException verify(WyalFile.Declaration.Assert ast, ProofCache cache, SharedHypotheses shared) {
+		try {
+			String key = null;
+			if (cache != null) {
+				key = ProofCache.key(ast, types);
+				if (cache.contains(key)) {
+					return null;
 				}
 			}
+			boolean verdict = check(ast, shared);
+			if (verdict && cache != null) {
+				cache.add(key);
+			}
+			if (!verdict) {
+				String msg = ast.getMessage();
+				msg = msg != null ? msg : "assertion failure";
+				return new SyntacticException(msg, null, ast);
+			}
+			return null;
+		} catch (NameResolver.ResolutionError e) {
+			return new SyntacticException(e.getMessage(), null, ast, e);
+		} catch (Budget.Exhausted e) {
+			return new SyntacticException("verification timeout (" + e.getMessage() + ")", null, ast, e);
 		}
 	}
 
-	private boolean check(WyalFile.Declaration.Assert decl) throws ResolutionError {
+	private boolean check(WyalFile.Declaration.Assert decl, SharedHypotheses shared) throws ResolutionError {
+		// The same budget covers any attempt using shared hypotheses, as well
+		// as checking from scratch after that.
+		Budget budget = new Budget(timeout, maxSteps, maxHeapSize, maxSplitDepth);
+		SharedHypotheses.Member member = shared == null ? null : shared.get(decl);
+		if (member != null && checkShared(decl, member, budget)) {
+			return true;
+		}
 		// Convert the body of the assertion into "expression form". That is,
 		// where every node is an expression.
 		Formula root = Formulae.toFormula(decl.getBody(), types);
 		// Check whether or not this formula is valid.
-		return checkValidity(decl, root);
+		return checkValidity(decl, root, budget);
 		//
 	}
 
+	/**
+	 * Check an assertion by continuing from the saturated state of the
+	 * hypotheses it shares with other assertions. The shared prefix is
+	 * saturated once (by whichever member gets there first) and then every
+	 * member copies that branch into its own heap and proof, before adding its
+	 * remaining hypotheses and negated goal. The work of saturating the prefix
+	 * is charged to the member which performs it. Members never wait for
+	 * another to finish saturating the prefix and, instead, are checked from
+	 * scratch. Since truths are processed in a different order than when
+	 * checking the assertion from scratch, only a successful proof is trusted.
+	 * Otherwise, the assertion should be checked from scratch using whatever
+	 * remains of the budget.
+	 *
+	 * @param decl
+	 * @param member
+	 * @param budget
+	 *            The budget for checking this assertion.
+	 * @return True if a contradiction was found.
+	 * @throws ResolutionError
+	 */
+	private boolean checkShared(WyalFile.Declaration.Assert decl, SharedHypotheses.Member member, Budget budget)
+			throws ResolutionError {
+		SharedHypotheses.Group group = member.getGroup();
+		if (group.claim()) {
+			group.setSnapshot(saturate(decl.getHeap(), group, budget));
+		} else if (!group.isSaturated()) {
+			// Another member is still saturating the prefix
+			return false;
+		}
+		SharedHypotheses.Snapshot snapshot = group.getSnapshot();
+		if (snapshot == null) {
+			return false;
+		}
+		DeltaProof.State branch = snapshot.getHead();
+		SyntacticHeap heap = new StructurallyEquivalentHeap(branch.getProof().getHeap());
+		Formula.Truth FALSE = heap.allocate(new Formula.Truth(false));
+		if (branch.isKnown(FALSE)) {
+			// The shared hypotheses are themselves contradictory
+			return true;
+		}
+		try {
+			Formula remainder = heap.allocate(member.getRemainder(types));
+			DeltaProof proof = new DeltaProof(null, heap, branch, remainder, budget);
+			if (snapshot.getProcessed() >= proof.size()) {
+				// The remainder was already known, hence nothing further can
+				// be derived.
+				return false;
+			}
+			Proof.State root = proof.getState(0);
+			Proof.State current = proof.getState(snapshot.getProcessed());
+			Proof.State head = proof.getState(proof.size() - 1);
+			//
+			boolean r = search(new Goal(current, head, 0), FALSE, null);
+			//
+			if (r) {
+				simplifyProof(root, FALSE);
+				//
+				if (printProof) {
+					print(proof);
+				}
+			}
+			return r;
+		} catch (Budget.Exhausted e) {
+			// Fall back on checking from scratch, which will report this
+			// properly if the remaining budget is exhausted as well.
+			return false;
+		}
+	}
+
+	/**
+	 * Saturate the shared prefix of hypotheses for a given group. This follows
+	 * the same rounds as the proof search, except that it stops at the first
+	 * split (if any). This is because members must continue from a single
+	 * state, and the split will be made again by each member anyway. In that
+	 * case, the round in which the split was made is considered incomplete.
+	 *
+	 * @param parent
+	 *            The heap of the file containing the group.
+	 * @param group
+	 * @param budget
+	 *            The budget of the member saturating the prefix.
+	 * @return The saturated branch, or <code>null</code> if the prefix could
+	 *         not be saturated within the budget.
+	 */
+	private SharedHypotheses.Snapshot saturate(SyntacticHeap parent, SharedHypotheses.Group group, Budget budget) {
+		try {
+			SyntacticHeap heap = new StructurallyEquivalentHeap(parent);
+			Formula.Truth FALSE = heap.allocate(new Formula.Truth(false));
+			Formula axiom = heap.allocate(group.getPrefix(types));
+			DeltaProof proof = new DeltaProof(null, heap, axiom, budget);
+			DeltaProof.State current = proof.getState(0);
+			DeltaProof.State head = current;
+			//
+			while (!head.isKnown(FALSE) && proof.size() <= maxProofSize) {
+				for (int j = 0; j != rules.length; ++j) {
+					Proof.Rule rule = rules[j];
+					budget.step();
+					if (rule instanceof Proof.LinearRule) {
+						head = (DeltaProof.State) ((Proof.LinearRule) rule).apply(current, head);
+					} else {
+						Proof.State[] heads = ((Proof.NonLinearRule) rule).apply(current, head);
+						if (heads.length > 1) {
+							return new SharedHypotheses.Snapshot(head, depth(current));
+						}
+						head = (DeltaProof.State) heads[0];
+					}
+				}
+				if (current == head) {
+					// Nothing further can be derived
+					break;
+				}
+				current = (DeltaProof.State) next(current, head);
+			}
+			if (head.isKnown(FALSE) || current == head) {
+				return new SharedHypotheses.Snapshot(head, depth(head) + 1);
+			}
+			return null;
+		} catch (Budget.Exhausted | ResolutionError e) {
+			// Any resolution error will be reported when the members are
+			// checked from scratch.
+			return null;
+		}
+	}
+
+	/**
+	 * Determine the number of ancestors of a given state.
+	 *
+	 * @param state
+	 * @return
+	 */
+	private static int depth(Proof.State state) {
+		int depth = 0;
+		for (Proof.State s = state.getParent(); s != null; s = s.getParent()) {
+			depth = depth + 1;
+		}
+		return depth;
+	}
+
 	/**
 	 * Check whether a given formula is unsatisfiable or not. That is, whether
 	 * or not it can be reduces to false.
 	 *
 	 * @param axiom
+	 * @param budget
+	 *            The budget for checking this assertion.
 	 * @return
 	 * @throws AmbiguousNameError
 	 * @throws NameNotFoundError
 	 */
-	private boolean checkValidity(WyalFile.Declaration.Assert decl, Formula axiom) throws ResolutionError {
+	private boolean checkValidity(WyalFile.Declaration.Assert decl, Formula axiom, Budget budget)
+			throws ResolutionError {
 		SyntacticHeap heap = new StructurallyEquivalentHeap(decl.getHeap());
 		Formula.Truth FALSE = heap.allocate(new Formula.Truth(false));
 		// Invert the body of the assertion in order to perform a
@@ -161,10 +511,10 @@ public class AutomatedTheoremProver {
 		// Allocate initial formula to the heap
 		axiom = heap.allocate(axiom);
 		// Create initial state
-		DeltaProof proof = new DeltaProof(null, heap, axiom);
+		DeltaProof proof = new DeltaProof(null, heap, axiom, budget);
 		Proof.State head = proof.getState(0);
 		//
-		boolean r = checkUnsat(head, head, FALSE);
+		boolean r = checkUnsat(head, FALSE);
 		//
 		simplifyProof(head, FALSE);
 		//
@@ -176,117 +526,315 @@ public class AutomatedTheoremProver {
 	}
 
 	/**
+	 * <p>
 	 * Check whether a given state is unsatisfiable or not. That is, whether or
-	 * not we can reach a contradiction from this state. One or more new truths
-	 * are carried forward to be investigated. If there are no more new truths
-	 * to investigate, then we are done. This method will apply all known rules
-	 * to this set of truths and generate a set of new truths, to be used in any
-	 * subsequent calls to this method.
+	 * not we can reach a contradiction from this state. The search proceeds in
+	 * "rounds", where each round applies all known rules to the truths
+	 * between the current state and the head of its branch, producing a new
+	 * head. If there are no more new truths to investigate, then we are done.
+	 * When a rule splits a branch into several cases, a contradiction must be
+	 * found for every case.
+	 * </p>
+	 * <p>
+	 * The search is iterative, rather than recursive, and maintains an
+	 * explicit frontier of goals yet to be investigated. The order in which
+	 * goals are taken from the frontier is determined by the search strategy.
+	 * Since every case of a split must be refuted, the search fails as soon
+	 * as any goal fails, regardless of the strategy.
+	 * </p>
 	 *
-	 * @param current
-	 *            The current state being investigated to see whether or not it
-	 *            leads to a contradiction.
-	 * @param head
-	 *            The current tip of the proof branch. This maybe some
-	 *            distance in the future from the current state, and
-	 *            identifies truths which have yet to be processed.
+	 * @param root
+	 *            The initial state of the proof.
 	 * @param FALSE
 	 * @return
 	 */
-	private boolean checkUnsat(Proof.State current, Proof.State head, Formula.Truth FALSE) throws ResolutionError {
-		// Sanity check whether we have reached the hard limit on the amount of
-		// computation permitted.
-		if (head.getProof().size() > maxProofSize) {
-			// throw new IllegalArgumentException("Maximum proof size reached");
-			return false;
-		} else if (head.isKnown(FALSE)) {
-			// We established a contradiction at some point during this round,
-			// therefore we're done.
-			return true;
-		}
-		// Apply all rules one after the other
-		for (int j = 0; j != rules.length; ++j) {
-			Proof.Rule rule = rules[j];
-			// Apply the rule
-			if (rule instanceof Proof.LinearRule) {
-				Proof.LinearRule linearRule = (Proof.LinearRule) rule;
-				// Linear rules are the easy case as they can only
-				// produce one follow on case.
-				head = linearRule.apply(current, head);
-			} else {
-				Proof.NonLinearRule nonLinearRule = (Proof.NonLinearRule) rule;
-				// Non-linear rules are more complex as they can result
-				// in multiple branches being taken.
-				Proof.State[] heads = nonLinearRule.apply(current, head);
-				if (heads.length > 1) {
-					// Yes, we have multiple branches so handle that.
-					return applySplit(current, heads, FALSE);
+	private boolean checkUnsat(Proof.State root, Formula.Truth FALSE) throws ResolutionError {
+		return search(new Goal(root, root, 0), FALSE, null);
+	}
+
+	/**
+	 * Search for a contradiction from a given goal. When case splits are
+	 * explored in parallel, each case is searched independently from the
+	 * others and, hence, this is called once for each case.
+	 *
+	 * @param start
+	 *            The goal from which to begin.
+	 * @param FALSE
+	 * @param cancellation
+	 *            Signals when the search is no longer required, or is
+	 *            <code>null</code> if it cannot be cancelled.
+	 * @return
+	 * @throws ResolutionError
+	 */
+	private boolean search(Goal start, Formula.Truth FALSE, Cancellation cancellation) throws ResolutionError {
+		Budget budget = start.head.getProof().getBudget();
+		Queue<Goal> frontier = createFrontier();
+		schedule(frontier, start);
+		//
+		while (!frontier.isEmpty()) {
+			Goal goal = frontier.poll();
+			Proof.State current = goal.current;
+			Proof.State head = goal.head;
+			//
+			if (goal.isAbandoned()) {
+				// Some enclosing split has already been resolved, hence there
+				// is no need to consider this goal any further.
+				continue;
+			} else if (cancellation != null && cancellation.isCancelled()) {
+				// The outcome no longer matters
+				return false;
+			} else if (head.getProof().size() > maxProofSize) {
+				// Sanity check whether we have reached the hard limit on the
+				// amount of computation permitted.
+				return false;
+			} else if (head.isKnown(FALSE)) {
+				// We established a contradiction at some point during the
+				// last round, therefore this branch is done.
+				if (succeed(goal.split, goal.branch, frontier, FALSE)) {
+					return true;
+				}
+				continue;
+			}
+			Proof.State[] heads = null;
+			// Apply all rules one after the other
+			for (int j = 0; j != rules.length; ++j) {
+				Proof.Rule rule = rules[j];
+				budget.step();
+				if (cancellation != null && cancellation.isCancelled()) {
+					return false;
+				}
+				// Apply the rule
+				if (rule instanceof Proof.LinearRule) {
+					Proof.LinearRule linearRule = (Proof.LinearRule) rule;
+					// Linear rules are the easy case as they can only
+					// produce one follow on case.
+					head = linearRule.apply(current, head);
 				} else {
-					// In this case, either the rule did not apply or
-					// there was only one child anyway.
-					head = heads[0];
+					Proof.NonLinearRule nonLinearRule = (Proof.NonLinearRule) rule;
+					// Non-linear rules are more complex as they can result
+					// in multiple branches being taken.
+					heads = nonLinearRule.apply(current, head);
+					if (heads.length > 1) {
+						// Yes, we have multiple branches so stop here.
+						break;
+					} else {
+						// In this case, either the rule did not apply or
+						// there was only one child anyway.
+						head = heads[0];
+						heads = null;
+					}
 				}
 			}
+			if (heads != null && splitPool == null) {
+				split(goal, heads, frontier);
+			} else if (heads != null) {
+				if (!splitInParallel(goal, heads, FALSE, cancellation)) {
+					return false;
+				} else if (succeed(goal.split, goal.branch, frontier, FALSE)) {
+					return true;
+				}
+			} else if (current == head) {
+				// We're out of options, therefore we're failing to find a
+				// contradiction and we give up on the whole thing.
+				return false;
+			} else {
+				schedule(frontier, goal.split == null ? new Goal(next(current, head), head, goal.depth)
+						: new Goal(next(current, head), head, goal.split, goal.branch));
+			}
 		}
-		if(current == head) {
-			// We're out of options, therefore we're failing to find a
-			// contradiction and we give up on the whole thing.
-			return false;
-		} else {
-			return checkUnsat(next(current, head), head, FALSE);
+		// Unreachable, since the root goal either succeeds or fails.
+		throw new IllegalArgumentException("proof search terminated unexpectedly");
+	}
+
+	/**
+	 * Split a goal into several cases, each of which is added to the frontier
+	 * as a new goal. For depth-first search, cases are investigated one at a
+	 * time such that later cases can be skipped when an earlier case turns out
+	 * not to matter (see <code>succeed()</code>).
+	 *
+	 * @param goal
+	 *            The goal being split.
+	 * @param heads
+	 *            The heads of the resulting cases.
+	 * @param frontier
+	 */
+	private void split(Goal goal, Proof.State[] heads, Queue<Goal> frontier) {
+		Split split = new Split(goal, heads);
+		goal.current.getProof().getBudget().checkSplitDepth(split.depth);
+		int n = strategy == Strategy.DEPTH_FIRST ? 1 : heads.length;
+		for (int i = 0; i != n; ++i) {
+			schedule(frontier, split.branch(i));
 		}
 	}
 
 	/**
-	 * Determine whether a given state is an "ancestor" of a given "descendant"
-	 * or not. This is done by traversing from the ancestor on the assumption
-	 * that they are unlikely to be far apart at any given moment.
+	 * <p>
+	 * Split a goal into several cases, and search each case in parallel. If
+	 * some case fails then the split as a whole fails and, hence, the remaining
+	 * cases are cancelled. Likewise, if the dependency cone of a successful
+	 * case shows the split was not required, then it is bypassed and the
+	 * remaining cases are cancelled. In either case, this waits for all cases
+	 * to stop before returning, since they share the same proof.
+	 * </p>
+	 * <p>
+	 * Proof states are not themselves thread safe. Instead, each case owns the
+	 * subtree rooted at its head, and only ever modifies states within it (new
+	 * states are always added beneath the head of a branch, and nested splits
+	 * are only bypassed within it). States above the split are shared by all
+	 * cases and must not be modified until every case has stopped. Hence,
+	 * their cumulative deltas are computed before the cases are started, and
+	 * bypassing this split is deferred until afterwards. The heap, proof,
+	 * term index and budget are shared as well, but are thread safe.
+	 * </p>
 	 *
-	 * @param ancestor
-	 * @param descendant
-	 * @return
+	 * @param goal
+	 *            The goal being split.
+	 * @param heads
+	 *            The heads of the resulting cases.
+	 * @param FALSE
+	 * @param cancellation
+	 *            Signals when the enclosing search is no longer required, or
+	 *            <code>null</code> if it cannot be cancelled.
+	 * @return True if a contradiction was found for the split.
+	 * @throws ResolutionError
 	 */
-	private boolean isAncestor(Proof.State ancestor, Proof.State descendant) {
-		if (ancestor == descendant) {
-			return true;
-		} else {
-			for (int i = 0; i != ancestor.numberOfChildren(); ++i) {
-				Proof.State child = ancestor.getChild(i);
-				if (isAncestor(child, descendant)) {
-					return true;
+	private boolean splitInParallel(Goal goal, Proof.State[] heads, Formula.Truth FALSE, Cancellation cancellation)
+			throws ResolutionError {
+		goal.current.getProof().getBudget().checkSplitDepth(goal.depth + 1);
+		Cancellation siblings = new Cancellation(cancellation);
+		AtomicBoolean failed = new AtomicBoolean();
+		AtomicInteger bypass = new AtomicInteger(-1);
+		List<ForkJoinTask<Boolean>> tasks = new ArrayList<>();
+		for (int i = 0; i != heads.length; ++i) {
+			// Memoise the deltas of the states above the split now, since
+			// otherwise every case would do so concurrently.
+			heads[i].getDelta(null);
+		}
+		for (int i = 0; i != heads.length; ++i) {
+			final int branch = i;
+			Goal start = new Goal(next(goal.current, heads[i]), heads[i], goal.depth + 1);
+			ForkJoinTask<Boolean> task = ForkJoinTask.adapt(() -> {
+				boolean r = search(start, FALSE, siblings);
+				if (siblings.isCancelled()) {
+					// Outcome is irrelevant
+				} else if (!r) {
+					failed.set(true);
+					siblings.cancel();
+				} else if (stateNotRequired(goal.current, computeDependencyCone(heads[branch], FALSE))
+						&& bypass.compareAndSet(-1, branch)) {
+					siblings.cancel();
 				}
+				return r;
+			});
+			if (ForkJoinTask.getPool() == splitPool) {
+				task.fork();
+			} else {
+				splitPool.execute(task);
+			}
+			tasks.add(task);
+		}
+		// Wait for all cases to stop
+		RuntimeException error = null;
+		for (ForkJoinTask<Boolean> task : tasks) {
+			try {
+				task.join();
+			} catch (RuntimeException e) {
+				// Cancel remaining cases, but report the first error only.
+				siblings.cancel();
+				error = error == null ? e : error;
 			}
-			return false;
+		}
+		if (error != null) {
+			if (error.getCause() instanceof ResolutionError) {
+				throw (ResolutionError) error.getCause();
+			}
+			throw error;
+		} else if (bypass.get() >= 0) {
+			// Bypass the split where one of the clauses was assumed
+			Proof.State head = heads[bypass.get()];
+			head.getParent().applyBypass(head);
+			return true;
+		} else {
+			return !failed.get();
 		}
 	}
 
-	private boolean applySplit(Proof.State current, Proof.State[] heads, Formula.Truth FALSE) throws ResolutionError {
-		// Now, try to find a contradiction for each case
-		for (int j = 0; j != heads.length; ++j) {
-			Proof.State head = heads[j];
-			Proof.State next = next(current,head);
+	/**
+	 * Record that a contradiction has been found for a given case of a split.
+	 * At this point, we need to analyse the proof and see whether or not this
+	 * case actually had a part to play or not. If not, then we can terminate
+	 * the split early (which can lead to significant reductions in the state
+	 * space). When a split is resolved, this in turn resolves the case of the
+	 * enclosing split which contained it, and so on.
+	 *
+	 * @param split
+	 *            The split containing the case in question, or
+	 *            <code>null</code> if there is no enclosing split.
+	 * @param branch
+	 *            The index of the case in question.
+	 * @param frontier
+	 * @param FALSE
+	 * @return True if this resolves the entire proof.
+	 */
+	private boolean succeed(Split split, int branch, Queue<Goal> frontier, Formula.Truth FALSE) {
+		while (split != null) {
+			Proof.State head = split.heads[branch];
+			BitSet cone = computeDependencyCone(head, FALSE);
 			//
-			if (!checkUnsat(next, head, FALSE)) {
-				// Unable to find a proof down this branch, therefore done.
-				return false;
-			} else {
-				// We did find a proof for this branch. At this point, we need
-				// to analyse the proof and see whether or not this disjunct
-				// actually had a part to play or not. If not, then we can
-				// terminate this disjunct early (which can lead to significant
-				// reductions in the state space).
-				BitSet cone = computeDependencyCone(head, FALSE);
-				//
-				if (stateNotRequired(current, cone)) {
-					// Bypass the split where one of the clauses was assumed
-					head.getParent().applyBypass(head);
-					break;
+			if (stateNotRequired(split.current, cone)) {
+				// Bypass the split where one of the clauses was assumed
+				head.getParent().applyBypass(head);
+			} else if (--split.remaining != 0) {
+				// Other cases remain to be refuted.
+				if (strategy == Strategy.DEPTH_FIRST) {
+					schedule(frontier, split.branch(split.heads.length - split.remaining));
 				}
+				return false;
 			}
+			// The split is resolved and, hence, so is the enclosing case.
+			split.resolved = true;
+			branch = split.branch;
+			split = split.parent;
 		}
 		return true;
 	}
 
+	/**
+	 * Construct an empty frontier appropriate for the search strategy.
+	 *
+	 * @return
+	 */
+	private Queue<Goal> createFrontier() {
+		switch (strategy) {
+		case DEPTH_FIRST:
+			return Collections.asLifoQueue(new ArrayDeque<>());
+		case BREADTH_FIRST:
+			return new ArrayDeque<>();
+		default:
+			return new PriorityQueue<>((g1, g2) -> g1.score != g2.score ? Integer.compare(g1.score, g2.score)
+					: Integer.compare(g1.depth, g2.depth));
+		}
+	}
+
+	/**
+	 * Add a goal to the frontier. For best-first search, the goal is scored by
+	 * the number of truths which remain to be processed along its branch.
+	 * Goals with fewer outstanding truths are preferred (with ties broken in
+	 * favour of shallower goals), on the basis that they
+	 * are closest to either reaching a contradiction or running out of
+	 * options. Since any failing goal causes the search to fail, finding such
+	 * goals early helps to avoid unnecessary work.
+	 *
+	 * @param frontier
+	 * @param goal
+	 */
+	private void schedule(Queue<Goal> frontier, Goal goal) {
+		if (strategy == Strategy.BEST_FIRST) {
+			goal.score = goal.head.getDelta(goal.current).getAdditions().size();
+		}
+		frontier.offer(goal);
+	}
+
 	private boolean stateNotRequired(Proof.State current, BitSet cone) {
 		Proof.Delta.Set additions = current.getDelta().getAdditions();
 		for(int i=0;i!=additions.size();++i) {
@@ -302,7 +850,10 @@ public class AutomatedTheoremProver {
 	/**
 	 * Determine the next state along a given branch. This is a little tricky
 	 * when there are multiple children as, using the head only, we need to
-	 * determine which child we should follow.
+	 * determine which child we should follow. This is done by traversing from
+	 * the head towards the root, such that only states on the branch itself
+	 * are examined. In particular, this never examines the children of a state
+	 * and, hence, never reads states owned by other cases of a parallel split.
 	 *
 	 * @param current
 	 *            The state which we want to advance to the next successor
@@ -310,11 +861,10 @@ public class AutomatedTheoremProver {
 	 *            The tip of the branch we are following
 	 * @return
 	 */
-	private Proof.State next(Proof.State current, Proof.State head) {
-		for(int i=0;i!=current.numberOfChildren();++i) {
-			Proof.State child = current.getChild(i);
-			if(isAncestor(child,head)) {
-				return child;
+	private static Proof.State next(Proof.State current, Proof.State head) {
+		for (Proof.State state = head; state != null; state = state.getParent()) {
+			if (state.getParent() == current) {
+				return state;
 			}
 		}
 		return current;
@@ -332,55 +882,104 @@ public class AutomatedTheoremProver {
 	 * @return
 	 */
 	private BitSet computeDependencyCone(Proof.State state, Formula.Truth FALSE) {
-		Proof.Delta delta = state.getDelta();
-		if (delta.isAddition(FALSE)) {
-			// This is the leaf case
-			BitSet dependencies = new BitSet();
-			for (Formula dep : state.getDependencies()) {
-				dependencies.set(dep.getIndex());
-			}
-			return dependencies;
-		} else {
-			BitSet dependencies = new BitSet();
-			// Determine recursive dependencies
-			for (int i = 0; i != state.numberOfChildren(); ++i) {
-				Proof.State child = state.getChild(i);
-				dependencies.or(computeDependencyCone(child, FALSE));
+		// NOTE: an explicit stack is used here since the proof may be deep.
+		// The cone of each state is computed after those of its children.
+		ArrayDeque<Frame> stack = new ArrayDeque<>();
+		stack.push(new Frame(state));
+		BitSet cone = null;
+		while (!stack.isEmpty()) {
+			Frame frame = stack.peek();
+			Proof.State current = frame.state;
+			if (cone != null) {
+				// Include the dependencies of the child just completed
+				frame.dependencies.or(cone);
+				cone = null;
 			}
-			//
-			Proof.Delta.Set additions = delta.getAdditions();
-			for (int i = 0; i != additions.size(); ++i) {
-				Formula addition = additions.get(i);
-				if (dependencies.get(addition.getIndex())) {
-					// One of the additions for this state contributed to the
-					// contradiction. Therefore, include our dependencies.
-					for (Formula dep : state.getDependencies()) {
-						dependencies.set(dep.getIndex());
+			if (current.getDelta().isAddition(FALSE)) {
+				// This is the leaf case
+				stack.pop();
+				cone = frame.dependencies;
+				for (Formula dep : current.getDependencies()) {
+					cone.set(dep.getIndex());
+				}
+			} else if (frame.index < current.numberOfChildren()) {
+				// Determine dependencies of the next child
+				stack.push(new Frame(current.getChild(frame.index++)));
+			} else {
+				stack.pop();
+				cone = frame.dependencies;
+				Proof.Delta.Set additions = current.getDelta().getAdditions();
+				for (int i = 0; i != additions.size(); ++i) {
+					Formula addition = additions.get(i);
+					if (cone.get(addition.getIndex())) {
+						// One of the additions for this state contributed to
+						// the contradiction. Therefore, include our
+						// dependencies.
+						for (Formula dep : current.getDependencies()) {
+							cone.set(dep.getIndex());
+						}
+						break;
 					}
-					break;
 				}
 			}
-			//
-			return dependencies;
 		}
+		return cone;
 	}
 
-	private boolean simplifyProof(Proof.State state, Formula.Truth FALSE) {
-		Proof.Delta delta = state.getDelta();
-		Proof.Delta.Set additions = delta.getAdditions();
-		// First, simplify children
-		for (int i = 0; i < state.numberOfChildren(); ++i) {
-			Proof.State child = state.getChild(i);
-			if (!simplifyProof(child, FALSE) && !additions.contains(FALSE)) {
-				return false;
-			} else if (child.getParent() != state) {
-				// This indicates the given child has been bypassed. Therefore,
-				// all remaining children would have been moved down and
-				// therefore, we want to rewind one step.
-				i = i - 1;
+	/**
+	 * Simplify a proof by bypassing those states which did not contribute to
+	 * the final contradiction. Children are simplified before their parents.
+	 *
+	 * @param root
+	 * @param FALSE
+	 * @return
+	 */
+	private boolean simplifyProof(Proof.State root, Formula.Truth FALSE) {
+		// NOTE: an explicit stack is used here since the proof may be deep.
+		ArrayDeque<Frame> stack = new ArrayDeque<>();
+		stack.push(new Frame(root));
+		boolean result = true;
+		while (!stack.isEmpty()) {
+			Frame frame = stack.peek();
+			Proof.State state = frame.state;
+			Proof.Delta.Set additions = state.getDelta().getAdditions();
+			if (frame.child != null) {
+				// The child just completed has been simplified
+				Proof.State child = frame.child;
+				frame.child = null;
+				if (!result && !additions.contains(FALSE)) {
+					stack.pop();
+					continue;
+				} else if (child.getParent() == state) {
+					frame.index = frame.index + 1;
+				}
+				// Otherwise, the given child has been bypassed. Therefore, all
+				// remaining children would have been moved down and,
+				// therefore, we want to stay at the same index.
+			}
+			if (frame.index < state.numberOfChildren()) {
+				// First, simplify children
+				frame.child = state.getChild(frame.index);
+				stack.push(new Frame(frame.child));
+			} else {
+				stack.pop();
+				result = simplifyState(state, FALSE);
 			}
 		}
-		// Now, see whether we can bypass this state or not
+		return result;
+	}
+
+	/**
+	 * Bypass a given state, whose children have already been simplified, if
+	 * it did not contribute to the final contradiction.
+	 *
+	 * @param state
+	 * @param FALSE
+	 * @return
+	 */
+	private boolean simplifyState(Proof.State state, Formula.Truth FALSE) {
+		Proof.Delta.Set additions = state.getDelta().getAdditions();
+		// See whether we can bypass this state or not
 		if (additions.contains(FALSE)) {
 			state.applyBypass(null);
 			return true;
@@ -400,22 +999,210 @@ public class AutomatedTheoremProver {
 		}
 		// If we get here, then we didn't fine anything in this state which
 		// was actually required for the final proof. Therefore, we can
-		// eliminate this state
+		// eliminate this state (unless it is the root, which can happen when
+		// the proof continues from a shared prefix).
 		Proof.State parent = state.getParent();
-		if (parent.numberOfChildren() == 1) {
+		if (parent != null && parent.numberOfChildren() == 1) {
 			parent.applyBypass(state);
 		}
 		return true;
 	}
 
+	/**
+	 * A state on the explicit stack used when traversing a proof, along with
+	 * the index of the next child to visit.
+	 */
+	private static class Frame {
+		private final Proof.State state;
+		private int index;
+		/**
+		 * The child currently being visited (if any).
+		 */
+		private Proof.State child;
+		/**
+		 * The dependencies accumulated so far for this state.
+		 */
+		private final BitSet dependencies = new BitSet();
+
+		public Frame(Proof.State state) {
+			this.state = state;
+		}
+	}
+
+	/**
+	 * Determines the order in which goals are investigated during proof
+	 * search.
+	 */
+	public enum Strategy {
+		/**
+		 * Investigate the most recently created goal first. Cases of a split
+		 * are investigated one at a time, in order.
+		 */
+		DEPTH_FIRST,
+		/**
+		 * Investigate goals in the order they are created. All cases of a
+		 * split are investigated together, one round at a time.
+		 */
+		BREADTH_FIRST,
+		/**
+		 * Investigate the goal with the fewest truths remaining to be
+		 * processed first.
+		 */
+		BEST_FIRST
+	}
+
+	/**
+	 * A goal represents a branch of the proof for which a contradiction has yet
+	 * to be found. The truths between the current state and the head of the
+	 * branch have yet to be processed.
+	 */
+	private static class Goal {
+		private final Proof.State current;
+		private final Proof.State head;
+		/**
+		 * The innermost split enclosing this goal, or <code>null</code> if
+		 * there is none.
+		 */
+		private final Split split;
+		/**
+		 * The case of the enclosing split to which this goal belongs.
+		 */
+		private final int branch;
+		/**
+		 * The number of splits enclosing this goal.
+		 */
+		private final int depth;
+		/**
+		 * The score used for best-first search.
+		 */
+		private int score;
+
+		public Goal(Proof.State current, Proof.State head, int depth) {
+			this.current = current;
+			this.head = head;
+			this.split = null;
+			this.branch = 0;
+			this.depth = depth;
+		}
+
+		public Goal(Proof.State current, Proof.State head, Split split, int branch) {
+			this.current = current;
+			this.head = head;
+			this.split = split;
+			this.branch = branch;
+			this.depth = split.depth;
+		}
+
+		/**
+		 * Check whether any enclosing split has been resolved already, in
+		 * which case this goal is no longer required.
+		 *
+		 * @return
+		 */
+		public boolean isAbandoned() {
+			for (Split s = split; s != null; s = s.parent) {
+				if (s.resolved) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * A split represents a point in the proof where a goal was split into
+	 * several cases, each of which must be refuted.
+	 */
+	private static class Split {
+		/**
+		 * The state from which the split was made.
+		 */
+		private final Proof.State current;
+		/**
+		 * The initial heads of each case.
+		 */
+		private final Proof.State[] heads;
+		/**
+		 * The split enclosing this split, or <code>null</code> if there is
+		 * none.
+		 */
+		private final Split parent;
+		/**
+		 * The case of the enclosing split to which this split belongs.
+		 */
+		private final int branch;
+		/**
+		 * The number of splits enclosing this split, including itself.
+		 */
+		private final int depth;
+		/**
+		 * The number of cases yet to be refuted.
+		 */
+		private int remaining;
+		/**
+		 * Indicates whether or not this split has been resolved.
+		 */
+		private boolean resolved;
+
+		public Split(Goal goal, Proof.State[] heads) {
+			this.current = goal.current;
+			this.heads = heads;
+			this.parent = goal.split;
+			this.branch = goal.branch;
+			this.depth = goal.depth + 1;
+			this.remaining = heads.length;
+		}
+
+		/**
+		 * Construct the initial goal for a given case of this split.
+		 *
+		 * @param i
+		 * @return
+		 */
+		public Goal branch(int i) {
+			return new Goal(next(current, heads[i]), heads[i], this, i);
+		}
+	}
+
+	/**
+	 * Signals that a search is no longer required. Cancellation is inherited,
+	 * such that cancelling a search also cancels any searches started within
+	 * it.
+	 */
+	private static class Cancellation {
+		private final Cancellation parent;
+		private volatile boolean cancelled;
+
+		public Cancellation(Cancellation parent) {
+			this.parent = parent;
+		}
+
+		public void cancel() {
+			cancelled = true;
+		}
+
+		public boolean isCancelled() {
+			for (Cancellation c = this; c != null; c = c.parent) {
+				if (c.cancelled) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
 	// Useful for debugging
 	public void print(Proof proof) {
-		ProofPrinter printer = new ProofPrinter(System.out).setWidth(proofWidth);
-		for(int i=0;i!=proofWidth;++i) {
-			System.out.print("=");
+		// Synchronise to prevent proofs being interleaved when assertions are
+		// checked in parallel.
+		synchronized (System.out) {
+			ProofPrinter printer = new ProofPrinter(System.out).setWidth(proofWidth);
+			for (int i = 0; i != proofWidth; ++i) {
+				System.out.print("=");
+			}
+			System.out.println();
+			printer.print(proof);
+			printer.flush();
 		}
-		System.out.println();
-		printer.print(proof);
-		printer.flush();
 	}
 }
@@ -0,0 +1,263 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wytp.provers;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import wyal.lang.WyalFile;
+import wyal.util.NameResolver.ResolutionError;
+import wybs.lang.SyntacticItem;
+import wybs.util.AbstractCompilationUnit.Name;
+import wyfs.lang.Content;
+import wyfs.lang.Path;
+import wytp.types.TypeSystem;
+
+/**
+ * <p>
+ * Records the assertions shown to hold in a previous build, such that they
+ * need not be checked again if they have not changed. Each assertion is
+ * identified by a structural hash of its body, along with the transitive
+ * closure of all named declarations (e.g. types, macros and functions) it
+ * refers to. Source locations play no part in the hash and, hence, an
+ * assertion which is simply moved within a file will not be checked again.
+ * </p>
+ * <p>
+ * A cache is constructed from the cache of the previous build (if any). Only
+ * those assertions which are looked up or recorded during the current build
+ * are retained when it is written. Thus, entries for assertions which no
+ * longer exist are discarded. Assertions which could not be shown to hold are
+ * never recorded, since the key does not cover the prover's configuration.
+ * Such an assertion may well hold with a larger budget or an improved prover,
+ * and so must be checked again in every build.
+ * </p>
+ */
+public class ProofCache {
+	/**
+	 * Identifies the format of the cache file. This should be changed
+	 * whenever the hash computation, or the prover itself, changes in such a
+	 * way that previously recorded verdicts can no longer be trusted.
+	 */
+	private static final String VERSION = "wyal-proof-cache 2";
+
+	public static final Content.Type<ProofCache> ContentType = new Content.Type<ProofCache>() {
+		@SuppressWarnings("unchecked")
+		public Path.Entry<ProofCache> accept(Path.Entry<?> e) {
+			if (e.contentType() == this) {
+				return (Path.Entry<ProofCache>) e;
+			}
+			return null;
+		}
+
+		@Override
+		public ProofCache read(Path.Entry<ProofCache> e, InputStream input) throws IOException {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+			ProofCache cache = new ProofCache();
+			if (VERSION.equals(reader.readLine())) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (!line.isEmpty()) {
+						cache.valid.add(line);
+					}
+				}
+			}
+			return cache;
+		}
+
+		@Override
+		public void write(OutputStream output, ProofCache cache) throws IOException {
+			PrintWriter writer = new PrintWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+			writer.println(VERSION);
+			// Sort entries to ensure the file is deterministic
+			for (String key : new TreeSet<>(cache.valid)) {
+				writer.println(key);
+			}
+			writer.flush();
+		}
+
+		@Override
+		public String toString() {
+			return "Content-Type: wyalcache";
+		}
+
+		@Override
+		public String getSuffix() {
+			return "wyalcache";
+		}
+	};
+
+	/**
+	 * The assertions shown to hold in the previous build.
+	 */
+	private final Set<String> previous;
+
+	/**
+	 * The assertions shown to hold which were looked up or recorded during
+	 * this build.
+	 */
+	private final Set<String> valid = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Construct an empty cache.
+	 */
+	public ProofCache() {
+		this.previous = Collections.emptySet();
+	}
+
+	/**
+	 * Construct a cache for a new build from that of the previous build.
+	 *
+	 * @param previous
+	 */
+	public ProofCache(ProofCache previous) {
+		this.previous = new HashSet<>(previous.valid);
+	}
+
+	/**
+	 * Check whether the assertion identified by a given key is known to hold.
+	 *
+	 * @param key
+	 * @return
+	 */
+	public boolean contains(String key) {
+		if (valid.contains(key)) {
+			return true;
+		} else if (previous.contains(key)) {
+			valid.add(key);
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	/**
+	 * Record that the assertion identified by a given key holds.
+	 *
+	 * @param key
+	 */
+	public void add(String key) {
+		valid.add(key);
+	}
+
+	/**
+	 * Get the number of assertions recorded as holding in this build.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return valid.size();
+	}
+
+	/**
+	 * Compute the key identifying a given assertion. This covers the structure
+	 * of the assertion itself, along with that of every named declaration it
+	 * transitively depends upon.
+	 *
+	 * @param assertion
+	 *            The assertion to be identified.
+	 * @param types
+	 *            Used to resolve names within the assertion.
+	 * @return
+	 * @throws ResolutionError
+	 *             If some name cannot be resolved.
+	 */
+	public static String key(WyalFile.Declaration.Assert assertion, TypeSystem types) throws ResolutionError {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream output = new DataOutputStream(bytes);
+			new Hasher(types, output).hash(assertion);
+			output.flush();
+			StringBuilder r = new StringBuilder();
+			for (byte b : MessageDigest.getInstance("SHA-256").digest(bytes.toByteArray())) {
+				r.append(String.format("%02x", b));
+			}
+			return r.toString();
+		} catch (NoSuchAlgorithmException | IOException e) {
+			// Should be unreachable, since SHA-256 is always available and
+			// writing to a byte array does not perform any I/O.
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Responsible for writing a canonical description of a syntactic item
+	 * into a stream. Items which are reached more than once are written only
+	 * the first time, and subsequently written as references. This ensures
+	 * recursive declarations are handled and, furthermore, that items shared
+	 * in the heap (e.g. variable declarations) are distinguished from those
+	 * which are merely equivalent.
+	 */
+	private static class Hasher {
+		private final TypeSystem types;
+		private final DataOutputStream output;
+		private final IdentityHashMap<SyntacticItem, Integer> visited = new IdentityHashMap<>();
+
+		public Hasher(TypeSystem types, DataOutputStream output) {
+			this.types = types;
+			this.output = output;
+		}
+
+		public void hash(SyntacticItem item) throws IOException, ResolutionError {
+			if (item == null) {
+				output.writeInt(-1);
+				return;
+			}
+			Integer index = visited.get(item);
+			if (index != null) {
+				output.writeInt(-2);
+				output.writeInt(index);
+				return;
+			}
+			visited.put(item, visited.size());
+			output.writeInt(item.getOpcode());
+			byte[] data = item.getData();
+			if (data == null) {
+				output.writeInt(-1);
+			} else {
+				output.writeInt(data.length);
+				output.write(data);
+			}
+			output.writeInt(item.size());
+			for (int i = 0; i != item.size(); ++i) {
+				hash(item.get(i));
+			}
+			if (item instanceof Name) {
+				// Include whatever this name refers to
+				List<WyalFile.Declaration.Named> decls = types.resolveAll((Name) item,
+						WyalFile.Declaration.Named.class);
+				output.writeInt(decls.size());
+				for (WyalFile.Declaration.Named decl : decls) {
+					hash(decl);
+				}
+			}
+		}
+	}
+}
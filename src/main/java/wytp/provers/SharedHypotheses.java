@@ -0,0 +1,379 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wytp.provers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import wyal.lang.WyalFile;
+import wyal.lang.WyalFile.Declaration.Assert;
+import wyal.lang.WyalFile.Stmt;
+import wyal.lang.WyalFile.VariableDeclaration;
+import wyal.util.NameResolver.ResolutionError;
+import wybs.lang.SyntacticItem;
+import wybs.util.AbstractCompilationUnit.Tuple;
+import wyfs.util.ArrayUtils;
+import wytp.proof.Formula;
+import wytp.proof.util.DeltaProof;
+import wytp.proof.util.Formulae;
+import wytp.types.TypeSystem;
+
+/**
+ * <p>
+ * Identifies assertions in a file which share a common prefix of hypotheses.
+ * Verification conditions generated from the same function typically have the
+ * following form, where the same preconditions, loop invariants and so on
+ * appear at the start of many assertions:
+ * </p>
+ *
+ * <pre>
+ * assert:
+ *     forall(int[] xs, int i):
+ *         if:
+ *             |xs| > 0
+ *             i >= 0
+ *             ...
+ *         then:
+ *             ...
+ * </pre>
+ *
+ * <p>
+ * Assertions are grouped together when their parameters and (at least) their
+ * first hypothesis are the same, up to the renaming of variables. Every group
+ * has a representative (the first assertion in the group) and the longest
+ * prefix of hypotheses shared by all members. The idea is that the prefix
+ * need only be saturated once for the group, after which each member
+ * continues from a snapshot of the saturated state with its remaining
+ * hypotheses and (negated) goal.
+ * </p>
+ */
+public class SharedHypotheses {
+	private final IdentityHashMap<Assert, Member> members = new IdentityHashMap<>();
+
+	/**
+	 * Group a given list of assertions (which should be from the same file).
+	 *
+	 * @param assertions
+	 */
+	public SharedHypotheses(List<Assert> assertions) {
+		ArrayList<Group> groups = new ArrayList<>();
+		for (Assert assertion : assertions) {
+			Member member = decompose(assertion);
+			if (member != null) {
+				for (int i = 0; i != groups.size() && member.group == null; ++i) {
+					groups.get(i).join(member);
+				}
+				if (member.group == null) {
+					groups.add(new Group(member));
+				}
+				members.put(assertion, member);
+			}
+		}
+		// Only groups with more than one member are worth sharing
+		members.values().removeIf(m -> m.group.size < 2);
+	}
+
+	/**
+	 * Get the member for a given assertion, or <code>null</code> if it shares
+	 * no hypotheses with any other assertion.
+	 *
+	 * @param assertion
+	 * @return
+	 */
+	public Member get(Assert assertion) {
+		return members.get(assertion);
+	}
+
+	/**
+	 * Decompose an assertion into its parameters, hypotheses and goal. Only
+	 * assertions consisting of a single implication (which may be universally
+	 * quantified) can be decomposed.
+	 *
+	 * @param assertion
+	 * @return The decomposed assertion, or <code>null</code> if it does not
+	 *         have the required form.
+	 */
+	private static Member decompose(Assert assertion) {
+		Stmt.Block body = assertion.getBody();
+		if (body.size() != 1) {
+			return null;
+		}
+		Stmt stmt = body.get(0);
+		Tuple<VariableDeclaration> parameters = null;
+		if (stmt.getOpcode() == WyalFile.STMT_forall) {
+			Stmt.Quantifier forall = (Stmt.Quantifier) stmt;
+			if (forall.getBody().size() != 1) {
+				return null;
+			}
+			parameters = forall.getParameters();
+			stmt = forall.getBody().get(0);
+		}
+		if (stmt.getOpcode() != WyalFile.STMT_ifthen) {
+			return null;
+		}
+		Stmt.IfThen it = (Stmt.IfThen) stmt;
+		return new Member(parameters, it.getIfBody().getAll(), it.getThenBody());
+	}
+
+	/**
+	 * Holds the saturated state of a group's shared prefix. Subsequent proofs
+	 * continue from the end of this branch, where the states before
+	 * <code>processed</code> have already been processed.
+	 */
+	public static class Snapshot {
+		private final DeltaProof.State head;
+		private final int processed;
+
+		public Snapshot(DeltaProof.State head, int processed) {
+			this.head = head;
+			this.processed = processed;
+		}
+
+		public DeltaProof.State getHead() {
+			return head;
+		}
+
+		public int getProcessed() {
+			return processed;
+		}
+	}
+
+	/**
+	 * A group of assertions sharing a common prefix of hypotheses.
+	 */
+	public static class Group {
+		private final Member representative;
+		/**
+		 * The number of hypotheses shared by all members.
+		 */
+		private int length;
+		/**
+		 * The number of members in this group.
+		 */
+		private int size;
+		/**
+		 * The saturated state of the shared prefix, which is computed lazily.
+		 * Once computed, this is <code>null</code> if the prefix could not be
+		 * saturated.
+		 */
+		private volatile Snapshot snapshot;
+		private volatile boolean saturated;
+		/**
+		 * Set once some member has taken responsibility for saturating the
+		 * shared prefix.
+		 */
+		private final AtomicBoolean claimed = new AtomicBoolean();
+
+		public Group(Member representative) {
+			this.representative = representative;
+			this.length = representative.hypotheses.length;
+			this.size = 1;
+			representative.group = this;
+		}
+
+		/**
+		 * Add a given member to this group if it shares the parameters and at
+		 * least the first hypothesis of the representative.
+		 *
+		 * @param member
+		 */
+		private void join(Member member) {
+			IdentityHashMap<SyntacticItem, SyntacticItem> renaming = new IdentityHashMap<>();
+			if ((member.parameters == null) != (representative.parameters == null)
+					|| (member.parameters != null && !equivalent(representative.parameters, member.parameters, renaming))) {
+				return;
+			}
+			// Determine the parameter renaming before considering hypotheses,
+			// since they may declare variables of their own.
+			IdentityHashMap<SyntacticItem, SyntacticItem> parameters = new IdentityHashMap<>(renaming);
+			int n = Math.min(length, member.hypotheses.length);
+			int k = 0;
+			while (k < n && equivalent(representative.hypotheses[k], member.hypotheses[k], renaming)) {
+				k = k + 1;
+			}
+			if (k > 0) {
+				length = k;
+				size = size + 1;
+				member.group = this;
+				member.renaming = parameters;
+			}
+		}
+
+		/**
+		 * Take responsibility for saturating the shared prefix. This succeeds
+		 * for exactly one caller, which should then set the snapshot.
+		 *
+		 * @return True if the caller should saturate the prefix.
+		 */
+		public boolean claim() {
+			return claimed.compareAndSet(false, true);
+		}
+
+		/**
+		 * Determine whether the shared prefix has been saturated already. This
+		 * may be false after the prefix has been claimed, whilst it is still
+		 * being saturated.
+		 *
+		 * @return
+		 */
+		public boolean isSaturated() {
+			return saturated;
+		}
+
+		public Snapshot getSnapshot() {
+			return snapshot;
+		}
+
+		public void setSnapshot(Snapshot snapshot) {
+			// Set before the flag, so the snapshot is visible to anyone who
+			// sees the flag.
+			this.snapshot = snapshot;
+			this.saturated = true;
+		}
+
+		/**
+		 * Construct the formula for the shared prefix. That is, the existential
+		 * closure of the shared hypotheses over the representative's
+		 * parameters. Skolemising this gives the same variables used in every
+		 * member's remainder.
+		 *
+		 * @param types
+		 * @return
+		 * @throws ResolutionError
+		 */
+		public Formula getPrefix(TypeSystem types) throws ResolutionError {
+			Stmt[] prefix = Arrays.copyOf(representative.hypotheses, length);
+			Formula body = new Formula.Conjunct(Formulae.toFormulae(prefix, types));
+			if (representative.parameters == null) {
+				return body;
+			} else {
+				return new Formula.Quantifier(false, representative.parameters, body);
+			}
+		}
+	}
+
+	/**
+	 * An assertion which belongs to some group.
+	 */
+	public static class Member {
+		private final Tuple<VariableDeclaration> parameters;
+		private final Stmt[] hypotheses;
+		private final Stmt.Block goal;
+		private Group group;
+		/**
+		 * Maps the parameters of this member to those of the representative
+		 * (and is empty for the representative itself).
+		 */
+		private IdentityHashMap<SyntacticItem, SyntacticItem> renaming = new IdentityHashMap<>();
+
+		public Member(Tuple<VariableDeclaration> parameters, Stmt[] hypotheses, Stmt.Block goal) {
+			this.parameters = parameters;
+			this.hypotheses = hypotheses;
+			this.goal = goal;
+		}
+
+		public Group getGroup() {
+			return group;
+		}
+
+		/**
+		 * Construct the formula which remains to be refuted once the shared
+		 * prefix is known. That is, the remaining hypotheses along with the
+		 * negated goal, expressed in terms of the representative's parameters.
+		 *
+		 * @param types
+		 * @return
+		 * @throws ResolutionError
+		 */
+		public Formula getRemainder(TypeSystem types) throws ResolutionError {
+			Stmt[] rest = Arrays.copyOfRange(hypotheses, group.length, hypotheses.length);
+			Formula negatedGoal = Formulae.invert(Formulae.toFormula(goal, types));
+			Formula remainder = new Formula.Conjunct(
+					ArrayUtils.append(Formula.class, Formulae.toFormulae(rest, types), negatedGoal));
+			return (Formula) rename(remainder, new IdentityHashMap<>(renaming));
+		}
+	}
+
+	/**
+	 * Determine whether two items are equivalent up to the renaming of
+	 * variables. The renaming maps variables of the right-hand side to those of
+	 * the left-hand side, and is extended as new variable declarations are
+	 * encountered.
+	 *
+	 * @param lhs
+	 * @param rhs
+	 * @param renaming
+	 * @return
+	 */
+	private static boolean equivalent(SyntacticItem lhs, SyntacticItem rhs,
+			IdentityHashMap<SyntacticItem, SyntacticItem> renaming) {
+		if (lhs instanceof VariableDeclaration || rhs instanceof VariableDeclaration) {
+			if (!(lhs instanceof VariableDeclaration) || !(rhs instanceof VariableDeclaration)) {
+				return false;
+			}
+			SyntacticItem existing = renaming.get(rhs);
+			if (existing != null) {
+				return existing == lhs;
+			} else if (renaming.containsValue(lhs) || !equivalent(((VariableDeclaration) lhs).getType(),
+					((VariableDeclaration) rhs).getType(), renaming)) {
+				return false;
+			}
+			renaming.put(rhs, lhs);
+			return true;
+		} else if (lhs.getClass() != rhs.getClass() || lhs.getOpcode() != rhs.getOpcode() || lhs.size() != rhs.size()
+				|| !Arrays.equals(lhs.getData(), rhs.getData())) {
+			return false;
+		}
+		for (int i = 0; i != lhs.size(); ++i) {
+			SyntacticItem l = lhs.get(i);
+			SyntacticItem r = rhs.get(i);
+			if (l == null || r == null) {
+				if (l != r) {
+					return false;
+				}
+			} else if (!equivalent(l, r, renaming)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Apply a renaming of variables to a given item, producing a new item only
+	 * where necessary. The renaming is extended with the result for every item
+	 * visited so that shared subterms are only renamed once.
+	 *
+	 * @param item
+	 * @param renaming
+	 * @return
+	 */
+	private static SyntacticItem rename(SyntacticItem item, IdentityHashMap<SyntacticItem, SyntacticItem> renaming) {
+		SyntacticItem result = renaming.get(item);
+		if (result == null) {
+			SyntacticItem[] children = new SyntacticItem[item.size()];
+			boolean changed = false;
+			for (int i = 0; i != children.length; ++i) {
+				SyntacticItem child = item.get(i);
+				children[i] = child == null ? null : rename(child, renaming);
+				changed |= children[i] != child;
+			}
+			result = changed ? item.clone(children) : item;
+			renaming.put(item, result);
+		}
+		return result;
+	}
+}
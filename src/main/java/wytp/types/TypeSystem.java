@@ -28,6 +28,7 @@ import wytp.types.extractors.ReadableArrayExtractor;
 import wytp.types.extractors.ReadableRecordExtractor;
 import wytp.types.extractors.ReadableReferenceExtractor;
 import wytp.types.extractors.TypeInvariantExtractor;
+import wytp.types.subtyping.CachingSubtypeOperator;
 import wytp.types.subtyping.CoerciveSubtypeOperator;
 import wytp.types.util.StdTypeEnvironment;
 import wytp.types.util.StdTypeInfererence;
@@ -41,7 +42,7 @@ public class TypeSystem {
 	public  final static TypeInferer.Environment NULL_ENVIRONMENT = new StdTypeEnvironment();
 	//
 	private final NameResolver resolver;
-	private final SubtypeOperator coerciveSubtypeOperator;
+	private final CachingSubtypeOperator coerciveSubtypeOperator;
 	private final TypeExtractor<Type.Record,Object> readableRecordExtractor;
 	private final TypeExtractor<Type.Array,Object> readableArrayExtractor;
 	private final TypeExtractor<Type.Reference,Object> readableReferenceExtractor;
@@ -51,7 +52,7 @@ public class TypeSystem {
 
 	public TypeSystem(Build.Project project) {
 		this.resolver = new WyalFileResolver(project);
-		this.coerciveSubtypeOperator = new CoerciveSubtypeOperator(resolver);
+		this.coerciveSubtypeOperator = new CachingSubtypeOperator(new CoerciveSubtypeOperator(resolver));
 		this.readableRecordExtractor = new ReadableRecordExtractor(resolver,this);
 		this.readableArrayExtractor = new ReadableArrayExtractor(resolver,this);
 		this.readableReferenceExtractor = new ReadableReferenceExtractor(resolver,this);
@@ -99,6 +100,17 @@ public class TypeSystem {
 		return coerciveSubtypeOperator.isSubtype(lhs,rhs) != SubtypeOperator.Result.False;
 	}
 
+	/**
+	 * Get the cache of subtype results, which is shared by all queries made
+	 * through this type system. This is primarily useful for inspecting the
+	 * number of cache hits and misses.
+	 *
+	 * @return
+	 */
+	public CachingSubtypeOperator getSubtypeCache() {
+		return coerciveSubtypeOperator;
+	}
+
 	/**
 	 * For a given type, extract its effective record type. For example, the
 	 * type <code>({int x, int y}|{int x, int z})</code> has effective record
@@ -17,6 +17,7 @@ import static wytp.proof.util.Formulae.*;
 
 import java.util.BitSet;
 import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import wyal.lang.WyalFile;
 import static wyal.lang.WyalFile.*;
@@ -50,7 +51,7 @@ import wytp.types.TypeExtractor;
  */
 public class TypeInvariantExtractor implements TypeExtractor<Formula,Expr> {
 	private final NameResolver resolver;
-	private int skolem = 0;
+	private final AtomicInteger skolem = new AtomicInteger();
 
 	public TypeInvariantExtractor(NameResolver resolver) {
 		this.resolver = resolver;
@@ -126,7 +127,7 @@ public class TypeInvariantExtractor implements TypeExtractor<Formula,Expr> {
 			Type.Array t = (Type.Array) type;
 			// FIXME: trying to get rid of this would somehow be useful
 			WyalFile.VariableDeclaration var = new WyalFile.VariableDeclaration(new Type.Int(),
-					new Identifier("i:" + skolem++));
+					new Identifier("i:" + skolem.getAndIncrement()));
 			Expr va = new Expr.VariableAccess(var);
 			Expr el = new Expr.ArrayAccess(root, va);
 			Formula inv = extractTypeInvariant(t.getElement(), el, visited);
@@ -0,0 +1,285 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wytp.types.subtyping;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import wyal.lang.WyalFile;
+import wyal.lang.WyalFile.Type;
+import wyal.util.NameResolver.ResolutionError;
+import wybs.lang.SyntacticHeap;
+import wybs.lang.SyntacticItem;
+import wytp.types.SubtypeOperator;
+
+/**
+ * <p>
+ * Memoises the results of an underlying subtype operator. The same subtype
+ * queries are made repeatedly during a proof (and across proofs), often on
+ * types which are structurally identical but allocated separately. Therefore,
+ * each query is identified by the interned identifiers of the types involved.
+ * Types which are structurally equivalent receive the same identifier. Nested
+ * unions and intersections are flattened and their operands sorted and
+ * deduplicated, since neither order nor repetition affects the meaning of
+ * such types.
+ * </p>
+ * <p>
+ * Nominal types are resolved relative to the compilation unit in which they
+ * occur. Therefore, the identifier of a type containing a nominal type
+ * depends on the root heap (i.e. compilation unit) it was allocated in. Root
+ * heaps are held weakly, and the interned structure of types consists only of
+ * opcodes, data and identifiers. Hence, the cache never retains a heap and
+ * entries for a compilation unit cannot be matched once it is rebuilt (since
+ * this produces a new root heap).
+ * </p>
+ * <p>
+ * The cache is bounded and, when full, arbitrary results are evicted. It can
+ * be safely shared between threads. Queries which fail to resolve some name
+ * are not cached.
+ * </p>
+ */
+public class CachingSubtypeOperator implements SubtypeOperator {
+	/**
+	 * The default maximum number of results retained.
+	 */
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+
+	private final SubtypeOperator operator;
+	private final int capacity;
+	/**
+	 * Maps a pair of type identifiers to the result of the query.
+	 */
+	private final ConcurrentHashMap<Long, Result> cache = new ConcurrentHashMap<>();
+	/**
+	 * Maps the structure of every item encountered to its identifier.
+	 */
+	private final ConcurrentHashMap<Node, Integer> nodes = new ConcurrentHashMap<>();
+	/**
+	 * Maps every root heap encountered to its identifier.
+	 */
+	private final Map<SyntacticHeap, Integer> roots = Collections.synchronizedMap(new WeakHashMap<>());
+	/**
+	 * The next identifier to assign. Identifiers are never reused, even when
+	 * the cache is cleared, such that a stale identifier can never match.
+	 */
+	private final AtomicInteger next = new AtomicInteger();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	public CachingSubtypeOperator(SubtypeOperator operator) {
+		this(operator, DEFAULT_CAPACITY);
+	}
+
+	public CachingSubtypeOperator(SubtypeOperator operator, int capacity) {
+		this.operator = operator;
+		this.capacity = capacity;
+	}
+
+	@Override
+	public Result isSubtype(Type lhs, Type rhs) throws ResolutionError {
+		if (nodes.size() >= capacity) {
+			// Distinct types are not evicted individually, since results refer
+			// to them.
+			clear();
+		}
+		Long key = ((long) intern(lhs) << 32) | (intern(rhs) & 0xFFFFFFFFL);
+		Result result = cache.get(key);
+		if (result != null) {
+			hits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+			result = operator.isSubtype(lhs, rhs);
+			if (cache.size() >= capacity) {
+				evict();
+			}
+			cache.put(key, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Get the number of queries answered from the cache.
+	 *
+	 * @return
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Get the number of queries passed to the underlying operator.
+	 *
+	 * @return
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Get the number of results currently retained.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return cache.size();
+	}
+
+	/**
+	 * Discard all retained results, for example because the declarations of
+	 * nominal types may have changed.
+	 */
+	public void clear() {
+		cache.clear();
+		nodes.clear();
+		roots.clear();
+	}
+
+	/**
+	 * Remove arbitrary entries until the cache is three quarters full.
+	 */
+	private void evict() {
+		Iterator<Long> iterator = cache.keySet().iterator();
+		while (cache.size() > (capacity / 4) * 3 && iterator.hasNext()) {
+			iterator.next();
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * Determine the identifier of a given item, such that structurally
+	 * equivalent items have the same identifier.
+	 *
+	 * @param item
+	 * @return
+	 */
+	private int intern(SyntacticItem item) {
+		if (item == null) {
+			return -1;
+		}
+		int opcode = item.getOpcode();
+		int[] children;
+		if (opcode == WyalFile.TYPE_or || opcode == WyalFile.TYPE_and) {
+			children = new int[count(item, opcode)];
+			flatten(item, opcode, children, 0);
+			Arrays.sort(children);
+			int n = 0;
+			for (int i = 0; i != children.length; ++i) {
+				if (n == 0 || children[n - 1] != children[i]) {
+					children[n++] = children[i];
+				}
+			}
+			children = Arrays.copyOf(children, n);
+		} else {
+			children = new int[item.size()];
+			for (int i = 0; i != children.length; ++i) {
+				children[i] = intern(item.get(i));
+			}
+			if (opcode == WyalFile.TYPE_nom) {
+				// The root heap determines how the name is resolved
+				children = Arrays.copyOf(children, children.length + 1);
+				children[children.length - 1] = root(item.getHeap());
+			}
+		}
+		return nodes.computeIfAbsent(new Node(opcode, item.getData(), children), n -> next.getAndIncrement());
+	}
+
+	/**
+	 * Flatten nested unions (or intersections) into a single array of operand
+	 * identifiers, starting from a given position.
+	 *
+	 * @param item
+	 * @param opcode
+	 * @param operands
+	 * @param index
+	 * @return The position after the last operand written.
+	 */
+	private int flatten(SyntacticItem item, int opcode, int[] operands, int index) {
+		for (int i = 0; i != item.size(); ++i) {
+			SyntacticItem operand = item.get(i);
+			if (operand != null && operand.getOpcode() == opcode) {
+				index = flatten(operand, opcode, operands, index);
+			} else {
+				operands[index++] = intern(operand);
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Count the operands of nested unions (or intersections) once flattened.
+	 *
+	 * @param item
+	 * @param opcode
+	 * @return
+	 */
+	private static int count(SyntacticItem item, int opcode) {
+		int n = 0;
+		for (int i = 0; i != item.size(); ++i) {
+			SyntacticItem operand = item.get(i);
+			n += (operand != null && operand.getOpcode() == opcode) ? count(operand, opcode) : 1;
+		}
+		return n;
+	}
+
+	/**
+	 * Determine the identifier of the root heap of a given heap.
+	 *
+	 * @param heap
+	 * @return
+	 */
+	private int root(SyntacticHeap heap) {
+		while (heap != null && heap.getParent() != null) {
+			heap = heap.getParent();
+		}
+		return heap == null ? -1 : roots.computeIfAbsent(heap, h -> next.getAndIncrement());
+	}
+
+	/**
+	 * The interned structure of an item, consisting of its opcode, data and
+	 * the identifiers of its children.
+	 */
+	private static final class Node {
+		private final int opcode;
+		private final byte[] data;
+		private final int[] children;
+		private final int hash;
+
+		public Node(int opcode, byte[] data, int[] children) {
+			this.opcode = opcode;
+			this.data = data;
+			this.children = children;
+			this.hash = (opcode * 31 + Arrays.hashCode(data)) * 31 + Arrays.hashCode(children);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (o instanceof Node) {
+				Node n = (Node) o;
+				return opcode == n.opcode && Arrays.equals(data, n.data) && Arrays.equals(children, n.children);
+			}
+			return false;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+}
@@ -16,13 +16,13 @@ package wytp.types.subtyping;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
-import java.util.HashSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 
 import wyal.lang.WyalFile;
 import wyal.lang.WyalFile.FieldDeclaration;
 import wybs.util.AbstractCompilationUnit.*;
 import wyal.lang.WyalFile.Type;
-import wyfs.util.Pair;
 import wyal.lang.WyalFile.Declaration.Named;
 import wyal.util.NameResolver;
 import wyal.util.NameResolver.ResolutionError;
@@ -39,7 +39,7 @@ public class CoerciveSubtypeOperator implements SubtypeOperator {
 	public Result isSubtype(Type parent, Type child) throws ResolutionError {
 		// FIXME: we can do better in some situations here. For example, if we
 		// have the same nominal types they can cancel each other.
-		HashSetAssumptions assumptions = new HashSetAssumptions();
+		BitSetAssumptions assumptions = new BitSetAssumptions();
 		Term<?> lhsMaxTerm = new Term<>(false, parent, true);
 		Term<?> rhsMaxTerm = new Term<>(true, child, true);
 		boolean max = isVoidTerm(lhsMaxTerm, rhsMaxTerm, assumptions);
@@ -659,79 +659,90 @@ public class CoerciveSubtypeOperator implements SubtypeOperator {
 		public void clearAssumedVoid(Term<?> lhs, Term<?> rhs);
 	}
 
-	private static final class HashSetAssumptions implements Assumptions {
-		private final HashSet<Pair<Term,Term>> assumptions;
-
-		public HashSetAssumptions() {
-			this.assumptions = new HashSet<>();
-		}
+	/**
+	 * Records assumptions as bits in a bitset. Every distinct type encountered
+	 * during a query is assigned a small integer identifier and, hence, each
+	 * term (i.e. type, sign and maximise flag) is identified by a small
+	 * integer key. Then, each pair of keys is mapped to a unique bit. This
+	 * avoids repeatedly hashing the structure of types and allocating pairs
+	 * of terms. Since identifiers are local to a query, this must not be
+	 * shared between queries.
+	 */
+	private static final class BitSetAssumptions implements Assumptions {
+		private final BitSet assumptions = new BitSet();
+		private final TypeInterner interner = new TypeInterner();
 
 		@Override
 		public boolean isAssumedVoid(Term<?> lhs, Term<?> rhs) {
-			return assumptions.contains(new Pair<>(lhs,rhs));
+			return assumptions.get(indexOf(lhs, rhs));
 		}
 
 		@Override
 		public void setAssumedVoid(Term<?> lhs, Term<?> rhs) {
-			assumptions.add(new Pair<>(lhs,rhs));
+			assumptions.set(indexOf(lhs, rhs));
 		}
 
 		@Override
 		public void clearAssumedVoid(Term<?> lhs, Term<?> rhs) {
-			assumptions.remove(new Pair<>(lhs,rhs));
-		}
-	}
-
-	private static final class BitSetAssumptions implements Assumptions {
-		private final BitSet assumptions;
-
-		public BitSetAssumptions(int size) {
-			this.assumptions = new BitSet(size);
-		}
-
-		public BitSetAssumptions(BitSet assumptions) {
-			this.assumptions = assumptions;
+			assumptions.clear(indexOf(lhs, rhs));
 		}
 
-		public int size() {
-			return assumptions.size();
-		}
-
-		@Override
-		public boolean isAssumedVoid(Term<?> lhs, Term<?> rhs) {
-			if (assumptions != null) {
-				return assumptions.get(indexOf(lhs.sign, lhs.type, rhs.sign, rhs.type));
-			} else {
-				return false;
+		/**
+		 * Map a pair of terms to a unique bit. Keys are paired along
+		 * diagonals, such that bits are densely packed regardless of how many
+		 * types are eventually encountered.
+		 *
+		 * @param lhs
+		 * @param rhs
+		 * @return
+		 */
+		private int indexOf(Term<?> lhs, Term<?> rhs) {
+			int lhsKey = keyOf(lhs);
+			int rhsKey = keyOf(rhs);
+			int diagonal = lhsKey + rhsKey;
+			long index = (((long) diagonal * (diagonal + 1)) / 2) + rhsKey;
+			if (index > Integer.MAX_VALUE) {
+				// Should be unreachable, as this requires tens of thousands of
+				// distinct types in a single query.
+				throw new IllegalArgumentException("too many types for subtype query");
 			}
+			return (int) index;
 		}
 
-		@Override
-		public void setAssumedVoid(Term<?> lhs, Term<?> rhs) {
-			if (assumptions != null) {
-				assumptions.set(indexOf(lhs.sign, lhs.type, rhs.sign, rhs.type));
+		private int keyOf(Term<?> term) {
+			int key = interner.intern(term.type) << 2;
+			if (term.sign) {
+				key |= 2;
 			}
-		}
-
-		@Override
-		public void clearAssumedVoid(Term<?> lhs, Term<?> rhs) {
-			if (assumptions != null) {
-				assumptions.clear(indexOf(lhs.sign, lhs.type, rhs.sign, rhs.type));
+			if (term.maximise) {
+				key |= 1;
 			}
+			return key;
 		}
+	}
 
-		protected int indexOf(boolean lhsSign, Type lhs, boolean rhsSign, Type rhs) {
-			int lhsSize = lhs.getHeap().size();
-			int rhsSize = rhs.getHeap().size();
-			int lhsIndex = lhs.getIndex();
-			int rhsIndex = rhs.getIndex();
-			if (lhsSign) {
-				lhsIndex += lhsSize;
-			}
-			if (rhsSign) {
-				rhsIndex += rhsSize;
+	/**
+	 * Assigns a small integer identifier to every distinct type. Types which
+	 * are structurally equivalent receive the same identifier. Since the same
+	 * type objects are typically encountered repeatedly (e.g. those from a
+	 * given type declaration), these are first looked up by identity to avoid
+	 * hashing their structure.
+	 */
+	private static final class TypeInterner {
+		private final IdentityHashMap<Type, Integer> identities = new IdentityHashMap<>();
+		private final HashMap<Type, Integer> types = new HashMap<>();
+
+		public int intern(Type type) {
+			Integer id = identities.get(type);
+			if (id == null) {
+				id = types.get(type);
+				if (id == null) {
+					id = types.size();
+					types.put(type, id);
+				}
+				identities.put(type, id);
 			}
-			return (lhsIndex * rhsSize * 2) + rhsIndex;
+			return id;
 		}
 	}
 }
@@ -0,0 +1,297 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyal.testing.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+
+import org.junit.Test;
+
+import wyal.lang.WyalFile;
+import wyal.util.TestUtils;
+import wybs.lang.SyntacticException;
+import wytp.proof.Budget;
+import wytp.provers.AutomatedTheoremProver;
+import wytp.types.TypeSystem;
+
+public class AutomatedTheoremProverTest {
+	/**
+	 * A file where the second and fourth assertions do not hold. The fourth
+	 * is much quicker to refute than the second.
+	 */
+	private static final String FAILURES = lines(
+			"assert \"first\":",
+			"    forall(int x, int y):",
+			"        if:",
+			"            x < y",
+			"        then:",
+			"            (x + 1) <= y",
+			"",
+			"assert \"second\":",
+			"    forall(int x, int y, int z):",
+			"        if:",
+			"            x < y",
+			"            y < z",
+			"            z < (x + 3)",
+			"        then:",
+			"            z == (x + 3)",
+			"",
+			"assert \"third\":",
+			"    forall(int x):",
+			"        (x + 1) > x",
+			"",
+			"assert \"fourth\":",
+			"    forall(int x):",
+			"        x > 0");
+
+	/**
+	 * Holds only if the quantifier is instantiated through a function trigger.
+	 */
+	private static final String INVOKE = lines(
+			"function f(int x) -> (int y)",
+			"assert:",
+			"    forall(int n):",
+			"        if:",
+			"            forall(int i):",
+			"                f(i) >= 0",
+			"        then:",
+			"            f(n) >= 0");
+
+	/**
+	 * Holds only if the quantifier is instantiated through a field trigger.
+	 */
+	private static final String FIELD = lines(
+			"type Point is ({int x, int y} p)",
+			"assert:",
+			"    forall(Point p):",
+			"        if:",
+			"            forall(Point q):",
+			"                q.x >= 0",
+			"        then:",
+			"            p.x >= 0");
+
+	/**
+	 * Does not hold, since the quantifier says nothing about values of Other.
+	 */
+	private static final String FIELD_INVALID = lines(
+			"type Point is ({int x} p)",
+			"type Other is ({int x, int z} p)",
+			"assert:",
+			"    forall(Other p):",
+			"        if:",
+			"            forall(Point q):",
+			"                q.x >= 0",
+			"        then:",
+			"            p.x >= 0");
+
+	private static final String VALID = lines(
+			"assert:",
+			"    forall(int x, int y):",
+			"        if:",
+			"            x < y",
+			"            y < (x + 2)",
+			"        then:",
+			"            y == (x + 1)");
+
+	@Test
+	public void test_01() {
+		// Sequential checking reports the first failure
+		assertEquals("second", check(FAILURES, new AutomatedTheoremProver(new TypeSystem(null))));
+	}
+
+	@Test
+	public void test_02() {
+		// Parallel checking reports the same failure, regardless of which
+		// assertion finishes first.
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			for (int i = 0; i != 10; ++i) {
+				AutomatedTheoremProver prover = new AutomatedTheoremProver(new TypeSystem(null));
+				prover.setExecutor(pool);
+				assertEquals("second", check(FAILURES, prover));
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void test_03() {
+		// Exceeding the step limit is reported as a timeout, not a failure
+		AutomatedTheoremProver prover = new AutomatedTheoremProver(new TypeSystem(null));
+		prover.setStepLimit(1);
+		SyntacticException e = verify(VALID, prover);
+		assertEquals("verification timeout (step limit reached)", e.getMessage());
+		assertTrue(e.getCause() instanceof Budget.Exhausted);
+	}
+
+	@Test
+	public void test_04() {
+		// Likewise for the time limit
+		AutomatedTheoremProver prover = new AutomatedTheoremProver(new TypeSystem(null));
+		prover.setTimeout(0);
+		SyntacticException e = verify(VALID, prover);
+		assertEquals("verification timeout (time limit reached)", e.getMessage());
+		assertTrue(e.getCause() instanceof Budget.Exhausted);
+	}
+
+	@Test
+	public void test_05() {
+		// A sufficient budget gives the usual verdicts
+		AutomatedTheoremProver prover = new AutomatedTheoremProver(new TypeSystem(null));
+		prover.setStepLimit(10000);
+		prover.setTimeout(60000);
+		assertNull(verify(VALID, prover));
+		assertEquals("second", check(FAILURES, prover));
+	}
+
+	@Test
+	public void test_06() throws IOException {
+		// Exploring case splits in parallel gives the same verdicts
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			assertSameVerdicts(types -> {
+				AutomatedTheoremProver prover = new AutomatedTheoremProver(types);
+				prover.setSplitPool(pool);
+				return prover;
+			});
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void test_07() throws IOException {
+		// Sharing hypotheses between assertions gives the same verdicts
+		assertSameVerdicts(types -> {
+			AutomatedTheoremProver prover = new AutomatedTheoremProver(types);
+			prover.setShareHypotheses(true);
+			return prover;
+		});
+	}
+
+	@Test
+	public void test_08() throws IOException {
+		// Likewise when assertions sharing hypotheses are checked in parallel
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			assertSameVerdicts(types -> {
+				AutomatedTheoremProver prover = new AutomatedTheoremProver(types);
+				prover.setShareHypotheses(true);
+				prover.setExecutor(pool);
+				return prover;
+			});
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void test_09() throws IOException {
+		// Investigating goals breadth first gives the same verdicts
+		assertSameVerdicts(types -> {
+			AutomatedTheoremProver prover = new AutomatedTheoremProver(types);
+			prover.setStrategy(AutomatedTheoremProver.Strategy.BREADTH_FIRST);
+			return prover;
+		});
+	}
+
+	@Test
+	public void test_10() throws IOException {
+		// Likewise for investigating the goal with fewest truths remaining
+		assertSameVerdicts(types -> {
+			AutomatedTheoremProver prover = new AutomatedTheoremProver(types);
+			prover.setStrategy(AutomatedTheoremProver.Strategy.BEST_FIRST);
+			return prover;
+		});
+	}
+
+	@Test
+	public void test_11() {
+		// Quantifiers are instantiated by matching function triggers
+		assertNull(check(INVOKE, new AutomatedTheoremProver(new TypeSystem(null))));
+	}
+
+	@Test
+	public void test_12() {
+		// Likewise for field triggers
+		assertNull(check(FIELD, new AutomatedTheoremProver(new TypeSystem(null))));
+	}
+
+	@Test
+	public void test_13() {
+		// But a field trigger only matches terms of the quantified type
+		assertEquals("assertion failure", check(FIELD_INVALID, new AutomatedTheoremProver(new TypeSystem(null))));
+	}
+
+	/**
+	 * Check that a given prover configuration gives the same verdicts as the
+	 * default configuration for all valid and invalid tests.
+	 *
+	 * @param prover
+	 * @throws IOException
+	 */
+	static void assertSameVerdicts(Function<TypeSystem, AutomatedTheoremProver> prover) throws IOException {
+		assertSameVerdicts(ValidTest.WYAL_SRC_DIR, ValidTest.IGNORED, prover);
+		assertSameVerdicts(InvalidTest.WYAL_SRC_DIR, InvalidTest.IGNORED, prover);
+	}
+
+	private static void assertSameVerdicts(String dir, Map<String, String> ignored,
+			Function<TypeSystem, AutomatedTheoremProver> prover) throws IOException {
+		Map<String, Boolean> expected = TestUtils.check(new File(dir), ignored.keySet(), AutomatedTheoremProver::new);
+		Map<String, Boolean> actual = TestUtils.check(new File(dir), ignored.keySet(), prover);
+		assertFalse(expected.isEmpty());
+		assertEquals(expected, actual);
+	}
+
+	private static String lines(String... lines) {
+		return String.join("\n", lines) + "\n";
+	}
+
+	/**
+	 * Check a given source file, returning the message of the error reported
+	 * (or <code>null</code> if none).
+	 *
+	 * @param source
+	 * @param prover
+	 * @return
+	 */
+	private static String check(String source, AutomatedTheoremProver prover) {
+		SyntacticException e = verify(source, prover);
+		return e == null ? null : e.getMessage();
+	}
+
+	/**
+	 * Check a given source file, returning the error reported (or
+	 * <code>null</code> if none).
+	 *
+	 * @param source
+	 * @param prover
+	 * @return
+	 */
+	private static SyntacticException verify(String source, AutomatedTheoremProver prover) {
+		WyalFile file = TestUtils.parse(source);
+		try {
+			prover.check(file);
+			return null;
+		} catch (SyntacticException e) {
+			return e;
+		}
+	}
+}
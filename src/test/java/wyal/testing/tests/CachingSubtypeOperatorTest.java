@@ -0,0 +1,108 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyal.testing.tests;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import wyal.lang.WyalFile;
+import wyal.lang.WyalFile.Type;
+import wyal.util.NameResolver.ResolutionError;
+import wyal.util.TestUtils;
+import wytp.types.SubtypeOperator;
+import wytp.types.subtyping.CachingSubtypeOperator;
+
+public class CachingSubtypeOperatorTest {
+	private static final String NAT = "type nat is (int x) where x >= 0\n"
+			+ "assert:\n    forall(nat x):\n        x >= 0\n";
+
+	@Test
+	public void test_01() throws ResolutionError {
+		// Repeating a query is a hit
+		CachingSubtypeOperator cache = new CachingSubtypeOperator(new Constant());
+		cache.isSubtype(new Type.Int(), new Type.Bool());
+		cache.isSubtype(new Type.Int(), new Type.Bool());
+		assertEquals(1, cache.getMisses());
+		assertEquals(1, cache.getHits());
+	}
+
+	@Test
+	public void test_02() throws ResolutionError {
+		// Unions are equivalent regardless of the order, repetition and
+		// nesting of their operands.
+		CachingSubtypeOperator cache = new CachingSubtypeOperator(new Constant());
+		Type lhs = union(new Type.Int(), new Type.Bool());
+		Type rhs = union(new Type.Bool(), union(new Type.Int(), new Type.Bool()));
+		cache.isSubtype(lhs, new Type.Int());
+		cache.isSubtype(rhs, new Type.Int());
+		assertEquals(1, cache.getMisses());
+		assertEquals(1, cache.getHits());
+	}
+
+	@Test
+	public void test_03() throws ResolutionError {
+		// Different queries are misses, including the same query reversed
+		CachingSubtypeOperator cache = new CachingSubtypeOperator(new Constant());
+		cache.isSubtype(new Type.Int(), new Type.Bool());
+		cache.isSubtype(new Type.Bool(), new Type.Int());
+		cache.isSubtype(union(new Type.Int(), new Type.Null()), new Type.Int());
+		cache.isSubtype(new Type.Int(), new Type.Int());
+		assertEquals(4, cache.getMisses());
+		assertEquals(0, cache.getHits());
+	}
+
+	@Test
+	public void test_04() throws ResolutionError {
+		// Nominal types are only equivalent within the same compilation unit,
+		// since a rebuilt unit may declare them differently.
+		CachingSubtypeOperator cache = new CachingSubtypeOperator(new Constant());
+		WyalFile file = TestUtils.parse(NAT);
+		cache.isSubtype(new Type.Int(), nominal(file));
+		cache.isSubtype(new Type.Int(), nominal(file));
+		cache.isSubtype(new Type.Int(), nominal(TestUtils.parse(NAT)));
+		assertEquals(2, cache.getMisses());
+		assertEquals(1, cache.getHits());
+	}
+
+	@Test
+	public void test_05() throws ResolutionError {
+		// Clearing the cache discards all results
+		CachingSubtypeOperator cache = new CachingSubtypeOperator(new Constant());
+		cache.isSubtype(new Type.Int(), new Type.Bool());
+		assertEquals(1, cache.size());
+		cache.clear();
+		assertEquals(0, cache.size());
+		cache.isSubtype(new Type.Int(), new Type.Bool());
+		assertEquals(2, cache.getMisses());
+	}
+
+	private static Type union(Type... types) {
+		return new Type.Union(types);
+	}
+
+	private static Type nominal(WyalFile file) {
+		return file.getSyntacticItems(WyalFile.VariableDeclaration.class).get(1).getType();
+	}
+
+	/**
+	 * A subtype operator which gives the same result for every query.
+	 */
+	private static class Constant implements SubtypeOperator {
+		@Override
+		public Result isSubtype(Type lhs, Type rhs) {
+			return Result.True;
+		}
+	}
+}
@@ -0,0 +1,110 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyal.testing.tests;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import wyal.heap.StructurallyEquivalentHeap;
+import wyal.lang.WyalFile;
+import wyal.lang.WyalFile.Stmt;
+import wyal.util.NameResolver.ResolutionError;
+import wyal.util.TestUtils;
+import wytp.proof.Formula;
+import wytp.proof.Proof;
+import wytp.proof.rules.Simplification;
+import wytp.proof.rules.quantifier.ExhaustiveQuantifierInstantiation;
+import wytp.proof.util.DeltaProof;
+import wytp.proof.util.Formulae;
+import wytp.proof.util.InstantiationTable;
+import wytp.types.TypeSystem;
+
+public class InstantiationTableTest {
+	/**
+	 * Both ground terms give the same binding (i.e. 0) for the quantifier.
+	 */
+	private static final String SOURCE = lines(
+			"assert:",
+			"    forall(int[] xs):",
+			"        if:",
+			"            forall(int i):",
+			"                xs[i] >= 0",
+			"            xs[0] < 0",
+			"            xs[0] < 1",
+			"        then:",
+			"            xs[1] >= 0");
+
+	@Test
+	public void test_01() {
+		// Repeated lookups of the same instance are counted as hits
+		InstantiationTable table = new InstantiationTable();
+		Formula instance = new Formula.Truth(true);
+		assertNull(table.get(1, 0, 2));
+		table.put(1, 0, 2, instance);
+		assertSame(instance, table.get(1, 0, 2));
+		assertSame(instance, table.get(1, 0, 2));
+		assertNull(table.get(1, 0, 3));
+		assertEquals(2, table.getHits());
+		assertEquals(2, table.getMisses());
+		assertEquals(1, table.size());
+	}
+
+	@Test
+	public void test_02() {
+		InstantiationTable table = new InstantiationTable();
+		table.redundant();
+		table.redundant();
+		assertEquals(2, table.getRedundant());
+	}
+
+	@Test
+	public void test_03() throws ResolutionError {
+		// Instantiating the same quantifier, parameter and binding again is
+		// answered from the table and, since the instance is already known,
+		// counted as redundant.
+		TypeSystem types = new TypeSystem(null);
+		WyalFile file = TestUtils.parse(SOURCE);
+		Stmt.Quantifier forall = (Stmt.Quantifier) file.getSyntacticItems(WyalFile.Declaration.Assert.class).get(0)
+				.getBody().get(0);
+		Stmt.IfThen it = (Stmt.IfThen) forall.getBody().get(0);
+		Formula[] hypotheses = Formulae.toFormulae(it.getIfBody().getAll(), types);
+		StructurallyEquivalentHeap heap = new StructurallyEquivalentHeap(file);
+		for (int i = 0; i != hypotheses.length; ++i) {
+			hypotheses[i] = heap.allocate(hypotheses[i]);
+		}
+		assertTrue(hypotheses[0] instanceof Formula.Quantifier);
+		DeltaProof proof = new DeltaProof(null, heap, hypotheses[0]);
+		Proof.State first = proof.getState(0).infer(null, hypotheses[1]);
+		Proof.State second = first.infer(null, hypotheses[2]);
+		//
+		ExhaustiveQuantifierInstantiation rule = new ExhaustiveQuantifierInstantiation(new Simplification(types),
+				types);
+		Proof.State head = rule.apply(first, second);
+		assertNotSame(second, head);
+		InstantiationTable table = proof.getInstantiationTable();
+		assertEquals(0, table.getHits());
+		assertEquals(1, table.getMisses());
+		assertEquals(0, table.getRedundant());
+		//
+		assertSame(head, rule.apply(second, head));
+		assertEquals(1, table.getHits());
+		assertEquals(1, table.getMisses());
+		assertEquals(1, table.getRedundant());
+	}
+
+	private static String lines(String... lines) {
+		return String.join("\n", lines) + "\n";
+	}
+}
@@ -0,0 +1,215 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyal.testing.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+
+import org.junit.Test;
+
+import wyal.lang.WyalFile;
+import wyal.util.Interpreter;
+import wyal.util.NameResolver;
+import wyal.util.SmallWorldDomain;
+import wyal.util.StagedInterpreter;
+import wyal.util.TestUtils;
+import wyal.util.WyalFileResolver;
+import wytp.types.extractors.TypeInvariantExtractor;
+
+public class InterpreterTest {
+	/**
+	 * Holds only if every operand of an n-ary subtraction is used, rather than
+	 * the second operand repeatedly.
+	 */
+	private static final String SUBTRACTION = lines(
+			"assert:",
+			"    forall(int x, int y, int z):",
+			"        (x - y - z) == (x - (y + z))");
+
+	/**
+	 * Division by zero is undefined, so no point is a counterexample. Note
+	 * that the zero here is not the same object as BigInteger.ZERO.
+	 */
+	private static final String DIVISION = lines(
+			"assert:",
+			"    forall(int x):",
+			"        (x / 0) == 0");
+
+	/**
+	 * Fails only for x == 0, which requires the invariant of nat to be
+	 * checked.
+	 */
+	private static final String NAT = lines(
+			"type nat is (int x) where x >= 0",
+			"assert:",
+			"    forall(nat x):",
+			"        x > 0");
+
+	/**
+	 * Holds only if the invariant of nat is checked for values of pos.
+	 */
+	private static final String NESTED = lines(
+			"type nat is (int x) where x != 5",
+			"type pos is (nat x) where x > 0",
+			"assert:",
+			"    forall(pos x):",
+			"        x != 5");
+
+	/**
+	 * Has many counterexamples, all of which are found after the first
+	 * values of z have been exhausted.
+	 */
+	private static final String MANY = lines(
+			"assert:",
+			"    forall(int x, int y, int z):",
+			"        (z <= 0) || ((x + y) != 2)");
+
+	@Test
+	public void test_01() throws Interpreter.UndefinedException {
+		assertTrue(evaluate(SUBTRACTION, Interpreter::new).holds());
+		assertTrue(evaluate(SUBTRACTION, StagedInterpreter::new).holds());
+	}
+
+	@Test
+	public void test_02() throws Interpreter.UndefinedException {
+		assertTrue(evaluate(DIVISION, Interpreter::new).holds());
+		assertTrue(evaluate(DIVISION, StagedInterpreter::new).holds());
+	}
+
+	@Test
+	public void test_03() throws IOException {
+		// Both interpreters agree on all valid tests
+		assertSameOutcomes(ValidTest.WYAL_SRC_DIR, ValidTest.IGNORED);
+	}
+
+	@Test
+	public void test_04() throws IOException {
+		// Both interpreters agree on all invalid tests, including the
+		// counterexamples they find.
+		assertSameOutcomes(InvalidTest.WYAL_SRC_DIR, InvalidTest.IGNORED);
+	}
+
+	@Test
+	public void test_05() throws Interpreter.UndefinedException {
+		// Extracted type invariants are not allocated into the file itself,
+		// even when an assertion is evaluated repeatedly.
+		WyalFile file = TestUtils.parse(NAT);
+		int size = file.size();
+		for (Constructor constructor : new Constructor[] { Interpreter::new, StagedInterpreter::new }) {
+			Interpreter interpreter = create(constructor, new WyalFileResolver(null));
+			WyalFile.Declaration.Assert assertion = file.getSyntacticItems(WyalFile.Declaration.Assert.class).get(0);
+			Interpreter.Result result = interpreter.evaluate(assertion);
+			assertFalse(result.holds());
+			assertEquals("{x=0}", result.getEnvironment().toString());
+			interpreter.evaluate(assertion);
+			assertEquals(size, file.size());
+		}
+	}
+
+	@Test
+	public void test_06() throws Interpreter.UndefinedException {
+		// Searching in parallel finds the first counterexample in the order
+		// points are enumerated, rather than whichever is found first.
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			WyalFile file = TestUtils.parse(MANY);
+			WyalFile.Declaration.Assert assertion = file.getSyntacticItems(WyalFile.Declaration.Assert.class).get(0);
+			String expected = create(StagedInterpreter::new, new WyalFileResolver(null)).evaluate(assertion)
+					.getEnvironment().toString();
+			assertEquals("{x=2, y=0, z=1}", expected);
+			for (int i = 0; i != 10; ++i) {
+				assertEquals(expected, parallel(pool, new WyalFileResolver(null)).evaluate(assertion)
+						.getEnvironment().toString());
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void test_07() throws IOException {
+		// Searching in parallel gives the same outcomes as searching
+		// sequentially on all valid and invalid tests.
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			Function<NameResolver, Interpreter> sequential = resolver -> create(StagedInterpreter::new, resolver);
+			Function<NameResolver, Interpreter> parallel = resolver -> parallel(pool, resolver);
+			assertSameOutcomes(ValidTest.WYAL_SRC_DIR, ValidTest.IGNORED, sequential, parallel);
+			assertSameOutcomes(InvalidTest.WYAL_SRC_DIR, InvalidTest.IGNORED, sequential, parallel);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void test_08() throws Interpreter.UndefinedException {
+		// The invariant of a nominal type includes that of its underlying
+		// nominal type.
+		assertTrue(evaluate(NESTED, Interpreter::new).holds());
+		assertTrue(evaluate(NESTED, StagedInterpreter::new).holds());
+	}
+
+	private static void assertSameOutcomes(String dir, Map<String, String> ignored) throws IOException {
+		assertSameOutcomes(dir, ignored, resolver -> create(Interpreter::new, resolver),
+				resolver -> create(StagedInterpreter::new, resolver));
+	}
+
+	private static void assertSameOutcomes(String dir, Map<String, String> ignored,
+			Function<NameResolver, Interpreter> expected, Function<NameResolver, Interpreter> actual)
+			throws IOException {
+		Map<String, List<String>> e = TestUtils.evaluate(new File(dir), ignored.keySet(), expected);
+		Map<String, List<String>> a = TestUtils.evaluate(new File(dir), ignored.keySet(), actual);
+		assertFalse(e.isEmpty());
+		assertEquals(e, a);
+	}
+
+	private static StagedInterpreter parallel(ForkJoinPool pool, NameResolver resolver) {
+		StagedInterpreter interpreter = (StagedInterpreter) create(StagedInterpreter::new, resolver);
+		interpreter.setPool(pool);
+		return interpreter;
+	}
+
+	private static String lines(String... lines) {
+		return String.join("\n", lines) + "\n";
+	}
+
+	/**
+	 * Evaluate the first assertion of a given source file.
+	 *
+	 * @param source
+	 * @param constructor
+	 * @return
+	 * @throws Interpreter.UndefinedException
+	 */
+	private static Interpreter.Result evaluate(String source, Constructor constructor)
+			throws Interpreter.UndefinedException {
+		WyalFile file = TestUtils.parse(source);
+		Interpreter interpreter = create(constructor, new WyalFileResolver(null));
+		return interpreter.evaluate(file.getSyntacticItems(WyalFile.Declaration.Assert.class).get(0));
+	}
+
+	private static Interpreter create(Constructor constructor, NameResolver resolver) {
+		return constructor.apply(new SmallWorldDomain(resolver), resolver, new TypeInvariantExtractor(resolver));
+	}
+
+	private interface Constructor {
+		public Interpreter apply(SmallWorldDomain domain, NameResolver resolver, TypeInvariantExtractor extractor);
+	}
+}
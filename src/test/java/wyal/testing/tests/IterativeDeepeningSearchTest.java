@@ -0,0 +1,112 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyal.testing.tests;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import wyal.lang.WyalFile;
+import wyal.util.Interpreter;
+import wyal.util.IterativeDeepeningSearch;
+import wyal.util.NameResolver;
+import wyal.util.StagedInterpreter;
+import wyal.util.TestUtils;
+import wyal.util.WyalFileResolver;
+import wytp.types.extractors.TypeInvariantExtractor;
+
+public class IterativeDeepeningSearchTest {
+	/**
+	 * Fails first for x=3, y=0 in the order points of the largest world are
+	 * enumerated, but for x=2, y=1 in the smallest world which has a
+	 * counterexample.
+	 */
+	private static final String MONOTONE = lines(
+			"assert:",
+			"    forall(int x, int y):",
+			"        (x + y) < 3");
+
+	/**
+	 * Has no witness in the smallest worlds, but does in the largest.
+	 */
+	private static final String NON_MONOTONE = lines(
+			"assert:",
+			"    exists(int x):",
+			"        x == 3");
+
+	/**
+	 * As for MONOTONE, but invoking a function. Since the result of a function
+	 * is drawn from the world, this is (conservatively) not deepened.
+	 */
+	private static final String FUNCTION = lines(
+			"function f(int x) -> (int y)",
+			"assert:",
+			"    forall(int x, int y):",
+			"        ((x + y) < 3) || (f(x) < 0)");
+
+	@Test
+	public void test_01() throws Interpreter.UndefinedException {
+		// Counterexamples in smaller worlds are found first
+		Interpreter.Result result = evaluate(MONOTONE, search());
+		assertFalse(result.holds());
+		assertEquals("{x=2, y=1}", result.getEnvironment().toString());
+	}
+
+	@Test
+	public void test_02() throws Interpreter.UndefinedException {
+		// An existential in positive position is only evaluated over the
+		// largest world, since it may have no witness in the smaller ones.
+		assertTrue(evaluate(NON_MONOTONE, search()).holds());
+	}
+
+	@Test
+	public void test_03() throws Interpreter.UndefinedException {
+		// Invoking a function prevents deepening
+		Interpreter.Result result = evaluate(FUNCTION, search());
+		assertFalse(result.holds());
+		assertEquals("{x=3, y=0}", result.getEnvironment().toString());
+	}
+
+	@Test
+	public void test_04() throws Interpreter.UndefinedException {
+		// The search is abandoned once the time budget is exceeded
+		IterativeDeepeningSearch search = search();
+		search.setBounds(-50, 50, 3, 3);
+		search.setTimeout(10);
+		try {
+			evaluate(lines("assert:", "    forall(int w, int x, int y, int z):", "        (w + x + y + z) < 1000"),
+					search);
+			fail("search should have timed out");
+		} catch (StagedInterpreter.TimeoutError e) {
+			// expected
+		}
+	}
+
+	private static String lines(String... lines) {
+		return String.join("\n", lines) + "\n";
+	}
+
+	private static IterativeDeepeningSearch search() {
+		NameResolver resolver = new WyalFileResolver(null);
+		IterativeDeepeningSearch search = new IterativeDeepeningSearch(resolver, new TypeInvariantExtractor(resolver));
+		search.setBounds(-3, 3, 3, 3);
+		return search;
+	}
+
+	private static Interpreter.Result evaluate(String source, IterativeDeepeningSearch search)
+			throws Interpreter.UndefinedException {
+		WyalFile file = TestUtils.parse(source);
+		return search.evaluate(file.getSyntacticItems(WyalFile.Declaration.Assert.class).get(0));
+	}
+}
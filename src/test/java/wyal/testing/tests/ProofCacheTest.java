@@ -0,0 +1,146 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyal.testing.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import wyal.lang.WyalFile;
+import wyal.util.NameResolver.ResolutionError;
+import wyal.util.TestUtils;
+import wybs.lang.SyntacticException;
+import wytp.provers.AutomatedTheoremProver;
+import wytp.provers.ProofCache;
+import wytp.types.TypeSystem;
+
+public class ProofCacheTest {
+	private static final String NAT = "type nat is (int x) where x >= 0\n";
+
+	private static final String VALID = NAT + "assert:\n    forall(nat x):\n        (x + 1) > 0\n";
+
+	private static final String CHANGED = NAT + "assert:\n    forall(nat x):\n        (x + 2) > 0\n";
+
+	private static final String RETYPED = "type nat is (int x) where x >= 1\n"
+			+ "assert:\n    forall(nat x):\n        (x + 1) > 0\n";
+
+	private static final String INVALID = NAT + "assert:\n    forall(nat x):\n        x > 0\n";
+
+	@Test
+	public void test_01() {
+		// A miss checks the assertion and records it as holding
+		ProofCache cache = new ProofCache();
+		assertNull(check(VALID, cache, new AutomatedTheoremProver(new TypeSystem(null))));
+		assertEquals(1, cache.size());
+		assertTrue(cache.contains(key(VALID)));
+	}
+
+	@Test
+	public void test_02() {
+		// A hit skips the assertion altogether, even with an insufficient
+		// budget.
+		ProofCache previous = new ProofCache();
+		check(VALID, previous, new AutomatedTheoremProver(new TypeSystem(null)));
+		ProofCache cache = new ProofCache(previous);
+		assertNull(check(VALID, cache, exhausted()));
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void test_03() {
+		// Changing the assertion, or a type it depends on, invalidates the
+		// entry and so forces it to be checked again.
+		ProofCache previous = new ProofCache();
+		check(VALID, previous, new AutomatedTheoremProver(new TypeSystem(null)));
+		assertNotEquals(key(VALID), key(CHANGED));
+		assertNotEquals(key(VALID), key(RETYPED));
+		assertTimeout(check(CHANGED, new ProofCache(previous), exhausted()));
+		assertTimeout(check(RETYPED, new ProofCache(previous), exhausted()));
+	}
+
+	@Test
+	public void test_04() {
+		// Assertions which do not hold (or which run out of budget) are never
+		// recorded, since they may hold with a different configuration.
+		ProofCache cache = new ProofCache();
+		assertNotNull(check(INVALID, cache, new AutomatedTheoremProver(new TypeSystem(null))));
+		assertTimeout(check(VALID, cache, exhausted()));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void test_05() throws IOException {
+		// Only the entries looked up or recorded in a build are written
+		ProofCache first = new ProofCache();
+		first.add("a");
+		first.add("b");
+		ProofCache second = new ProofCache(roundTrip(first));
+		assertTrue(second.contains("b"));
+		second.add("c");
+		ProofCache third = new ProofCache(roundTrip(second));
+		assertFalse(third.contains("a"));
+		assertTrue(third.contains("b"));
+		assertTrue(third.contains("c"));
+	}
+
+	private static AutomatedTheoremProver exhausted() {
+		AutomatedTheoremProver prover = new AutomatedTheoremProver(new TypeSystem(null));
+		prover.setStepLimit(1);
+		return prover;
+	}
+
+	private static void assertTimeout(SyntacticException e) {
+		assertNotNull(e);
+		assertEquals("verification timeout (step limit reached)", e.getMessage());
+	}
+
+	private static ProofCache roundTrip(ProofCache cache) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		ProofCache.ContentType.write(output, cache);
+		return ProofCache.ContentType.read(null, new ByteArrayInputStream(output.toByteArray()));
+	}
+
+	private static String key(String source) {
+		WyalFile file = TestUtils.parse(source);
+		try {
+			return ProofCache.key(file.getSyntacticItems(WyalFile.Declaration.Assert.class).get(0),
+					new TypeSystem(null));
+		} catch (ResolutionError e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Check a given source file against a cache, returning the error reported
+	 * (or <code>null</code> if none).
+	 *
+	 * @param source
+	 * @param cache
+	 * @param prover
+	 * @return
+	 */
+	private static SyntacticException check(String source, ProofCache cache, AutomatedTheoremProver prover) {
+		WyalFile file = TestUtils.parse(source);
+		try {
+			prover.check(file, cache);
+			return null;
+		} catch (SyntacticException e) {
+			return e;
+		}
+	}
+}
@@ -0,0 +1,219 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyal.testing.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import org.junit.Test;
+
+import wyal.lang.WyalFile;
+import wyal.lang.WyalFile.Declaration.Assert;
+import wyal.lang.WyalFile.VariableDeclaration;
+import wyal.util.NameResolver.ResolutionError;
+import wyal.util.TestUtils;
+import wybs.lang.SyntacticItem;
+import wybs.util.AbstractCompilationUnit.Tuple;
+import wytp.proof.Formula;
+import wytp.provers.SharedHypotheses;
+import wytp.types.TypeSystem;
+
+public class SharedHypothesesTest {
+	/**
+	 * The first two assertions share their first hypothesis, up to the
+	 * renaming of variables. The third differs in its first hypothesis, and
+	 * the fourth in the type of its parameters.
+	 */
+	private static final String GROUPS = lines(
+			"assert:",
+			"    forall(int x, int y):",
+			"        if:",
+			"            x < y",
+			"            y < 10",
+			"        then:",
+			"            x < 10",
+			"",
+			"assert:",
+			"    forall(int a, int b):",
+			"        if:",
+			"            a < b",
+			"            b < 5",
+			"        then:",
+			"            a < 5",
+			"",
+			"assert:",
+			"    forall(int x, int y):",
+			"        if:",
+			"            x <= y",
+			"        then:",
+			"            x <= (y + 1)",
+			"",
+			"assert:",
+			"    forall(bool x, bool y):",
+			"        if:",
+			"            x == y",
+			"        then:",
+			"            y == x");
+
+	/**
+	 * Both assertions share a hypothesis which declares a variable of its
+	 * own, and which is named differently in each.
+	 */
+	private static final String BOUND = lines(
+			"assert:",
+			"    forall(int[] xs, int n):",
+			"        if:",
+			"            forall(int i):",
+			"                if:",
+			"                    (0 <= i) && (i < n)",
+			"                then:",
+			"                    xs[i] >= 0",
+			"        then:",
+			"            (n <= 0) || (xs[0] >= 0)",
+			"",
+			"assert:",
+			"    forall(int[] ys, int m):",
+			"        if:",
+			"            forall(int j):",
+			"                if:",
+			"                    (0 <= j) && (j < m)",
+			"                then:",
+			"                    ys[j] >= 0",
+			"        then:",
+			"            (m <= 1) || (ys[1] >= 0)");
+
+	@Test
+	public void test_01() {
+		// Assertions join a group when their parameters and first hypothesis
+		// are equivalent up to renaming.
+		List<Assert> assertions = assertions(GROUPS);
+		SharedHypotheses shared = new SharedHypotheses(assertions);
+		SharedHypotheses.Member first = shared.get(assertions.get(0));
+		SharedHypotheses.Member second = shared.get(assertions.get(1));
+		assertNotNull(first);
+		assertNotNull(second);
+		assertSame(first.getGroup(), second.getGroup());
+	}
+
+	@Test
+	public void test_02() {
+		// Assertions which share nothing with another are not grouped
+		List<Assert> assertions = assertions(GROUPS);
+		SharedHypotheses shared = new SharedHypotheses(assertions);
+		assertNull(shared.get(assertions.get(2)));
+		assertNull(shared.get(assertions.get(3)));
+	}
+
+	@Test
+	public void test_03() throws ResolutionError {
+		// The prefix is the longest run of hypotheses shared by all members,
+		// and is given over the representative's parameters.
+		List<Assert> assertions = assertions(GROUPS);
+		SharedHypotheses shared = new SharedHypotheses(assertions);
+		SharedHypotheses.Group group = shared.get(assertions.get(0)).getGroup();
+		Formula.Quantifier prefix = (Formula.Quantifier) group.getPrefix(new TypeSystem(null));
+		assertFalse(prefix.getSign());
+		assertEquals(parameters(assertions.get(0)), parameters(prefix.getParameters()));
+		assertEquals(1, prefix.getBody().size());
+	}
+
+	@Test
+	public void test_04() throws ResolutionError {
+		// The remainder of a member is renamed to the representative's
+		// parameters, whilst that of the representative is unchanged.
+		List<Assert> assertions = assertions(GROUPS);
+		SharedHypotheses shared = new SharedHypotheses(assertions);
+		TypeSystem types = new TypeSystem(null);
+		SyntacticItem first = shared.get(assertions.get(0)).getRemainder(types);
+		SyntacticItem second = shared.get(assertions.get(1)).getRemainder(types);
+		assertTrue(declarations(first).keySet().containsAll(parameters(assertions.get(0))));
+		assertTrue(declarations(second).keySet().containsAll(parameters(assertions.get(0))));
+		for (VariableDeclaration v : parameters(assertions.get(1))) {
+			assertFalse(declarations(second).containsKey(v));
+		}
+	}
+
+	@Test
+	public void test_05() throws ResolutionError {
+		// Variables declared within a hypothesis are matched as well, and
+		// renaming the remainder leaves them alone.
+		List<Assert> assertions = assertions(BOUND);
+		SharedHypotheses shared = new SharedHypotheses(assertions);
+		SharedHypotheses.Member first = shared.get(assertions.get(0));
+		SharedHypotheses.Member second = shared.get(assertions.get(1));
+		assertNotNull(first);
+		assertNotNull(second);
+		assertSame(first.getGroup(), second.getGroup());
+		SyntacticItem remainder = second.getRemainder(new TypeSystem(null));
+		assertTrue(declarations(remainder).keySet().containsAll(parameters(assertions.get(0))));
+		for (VariableDeclaration v : parameters(assertions.get(1))) {
+			assertFalse(declarations(remainder).containsKey(v));
+		}
+	}
+
+	private static String lines(String... lines) {
+		return String.join("\n", lines) + "\n";
+	}
+
+	private static List<Assert> assertions(String source) {
+		WyalFile file = TestUtils.parse(source);
+		return file.getSyntacticItems(Assert.class);
+	}
+
+	/**
+	 * Get the parameters of an assertion of the form forall(P): ...
+	 *
+	 * @param assertion
+	 * @return
+	 */
+	private static List<VariableDeclaration> parameters(Assert assertion) {
+		WyalFile.Stmt.Quantifier forall = (WyalFile.Stmt.Quantifier) assertion.getBody().get(0);
+		return parameters(forall.getParameters());
+	}
+
+	private static List<VariableDeclaration> parameters(Tuple<VariableDeclaration> parameters) {
+		List<VariableDeclaration> result = new ArrayList<>();
+		for (int i = 0; i != parameters.size(); ++i) {
+			result.add(parameters.get(i));
+		}
+		return result;
+	}
+
+	/**
+	 * Determine every variable declaration reachable from a given item.
+	 *
+	 * @param item
+	 * @return
+	 */
+	private static IdentityHashMap<VariableDeclaration, Boolean> declarations(SyntacticItem item) {
+		IdentityHashMap<VariableDeclaration, Boolean> declarations = new IdentityHashMap<>();
+		declarations(item, declarations, new IdentityHashMap<>());
+		return declarations;
+	}
+
+	private static void declarations(SyntacticItem item, IdentityHashMap<VariableDeclaration, Boolean> declarations,
+			IdentityHashMap<SyntacticItem, Boolean> visited) {
+		if (item != null && visited.put(item, true) == null) {
+			if (item instanceof VariableDeclaration) {
+				declarations.put((VariableDeclaration) item, true);
+			}
+			for (int i = 0; i != item.size(); ++i) {
+				declarations(item.get(i), declarations, visited);
+			}
+		}
+	}
+}
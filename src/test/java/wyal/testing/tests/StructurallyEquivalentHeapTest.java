@@ -0,0 +1,93 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyal.testing.tests;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import wyal.heap.StructurallyEquivalentHeap;
+import wyal.lang.WyalFile;
+import wyal.lang.WyalFile.Expr;
+import wyal.lang.WyalFile.VariableDeclaration;
+import wyal.util.TestUtils;
+import wybs.lang.SyntacticItem;
+import wybs.util.AbstractCompilationUnit.Identifier;
+import wybs.util.AbstractCompilationUnit.Value;
+
+public class StructurallyEquivalentHeapTest {
+	private static final String SOURCE = "assert:\n    forall(int x):\n        (x + 1) > x\n";
+
+	@Test
+	public void test_01() {
+		// Structurally equivalent items are the same item
+		StructurallyEquivalentHeap heap = new StructurallyEquivalentHeap(TestUtils.parse(SOURCE));
+		Expr lhs = heap.allocate(new Expr.Addition(constant(1), constant(2)));
+		Expr rhs = heap.allocate(new Expr.Addition(constant(1), constant(2)));
+		assertSame(lhs, rhs);
+		assertSame(lhs.get(0), heap.allocate(constant(1)));
+	}
+
+	@Test
+	public void test_02() {
+		// Different items remain different
+		StructurallyEquivalentHeap heap = new StructurallyEquivalentHeap(TestUtils.parse(SOURCE));
+		Expr lhs = heap.allocate(new Expr.Addition(constant(1), constant(2)));
+		Expr rhs = heap.allocate(new Expr.Addition(constant(2), constant(1)));
+		assertNotSame(lhs, rhs);
+	}
+
+	@Test
+	public void test_03() {
+		// Variable declarations are never shared
+		StructurallyEquivalentHeap heap = new StructurallyEquivalentHeap(TestUtils.parse(SOURCE));
+		VariableDeclaration x1 = heap.allocate(variable("x"));
+		VariableDeclaration x2 = heap.allocate(variable("x"));
+		assertNotSame(x1, x2);
+		assertNotSame(heap.allocate(new Expr.VariableAccess(x1)), heap.allocate(new Expr.VariableAccess(x2)));
+		assertSame(heap.allocate(new Expr.VariableAccess(x1)), heap.allocate(new Expr.VariableAccess(x1)));
+	}
+
+	@Test
+	public void test_04() {
+		// Items inherited from the parent are matched by their equivalents
+		WyalFile file = TestUtils.parse(SOURCE);
+		StructurallyEquivalentHeap heap = new StructurallyEquivalentHeap(file);
+		Expr.Addition inherited = file.getSyntacticItems(Expr.Addition.class).get(0);
+		Expr.Addition fresh = new Expr.Addition(inherited.get(0), constant(1));
+		assertSame(inherited, heap.allocate(fresh));
+		assertSame(inherited, heap.allocate(inherited));
+	}
+
+	@Test
+	public void test_05() {
+		// Items inherited from an ancestor are matched by their equivalents
+		WyalFile file = TestUtils.parse(SOURCE);
+		StructurallyEquivalentHeap parent = new StructurallyEquivalentHeap(file);
+		SyntacticItem item = parent.allocate(new Expr.Addition(constant(3), constant(4)));
+		StructurallyEquivalentHeap child = new StructurallyEquivalentHeap(parent);
+		Expr.Addition inherited = file.getSyntacticItems(Expr.Addition.class).get(0);
+		assertSame(item, child.allocate(new Expr.Addition(constant(3), constant(4))));
+		assertSame(inherited, child.allocate(new Expr.Addition(inherited.get(0), constant(1))));
+		assertEquals(parent.size(), child.size());
+	}
+
+	private static Expr constant(int value) {
+		return new Expr.Constant(new Value.Int(value));
+	}
+
+	private static VariableDeclaration variable(String name) {
+		return new VariableDeclaration(new WyalFile.Type.Int(), new Identifier(name));
+	}
+}
@@ -0,0 +1,163 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyal.testing.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import wyal.heap.StructurallyEquivalentHeap;
+import wyal.lang.WyalFile;
+import wyal.lang.WyalFile.Expr;
+import wyal.lang.WyalFile.Stmt;
+import wyal.util.NameResolver.ResolutionError;
+import wyal.util.TestUtils;
+import wytp.proof.Formula;
+import wytp.proof.Proof;
+import wytp.proof.util.DeltaProof;
+import wytp.proof.util.Formulae;
+import wytp.proof.util.TermIndex;
+import wytp.types.TypeSystem;
+
+public class TermIndexTest {
+	/**
+	 * The hypotheses are two quantifiers followed by ground truths.
+	 */
+	private static final String SOURCE = lines(
+			"type Point is ({int x, int y} p)",
+			"function f(int x) -> (int y)",
+			"assert:",
+			"    forall(int[] xs, int[] ys, Point p, int n):",
+			"        if:",
+			"            forall(int i):",
+			"                xs[i] >= f(i)",
+			"            forall(int[][] zs, int j):",
+			"                zs[j][0] >= 0",
+			"            xs[n] < 0",
+			"            ys[0] < p.x",
+			"            f(n) == 1",
+			"        then:",
+			"            false");
+
+	@Test
+	public void test_01() throws ResolutionError {
+		// Ground terms are indexed by the array, function or field they apply.
+		// Every array access also applies the wildcard array symbol.
+		Index index = new Index(SOURCE);
+		Expr xs = index.get(2, 0);
+		Expr px = index.get(3, 0);
+		Expr ys = index.get(3, 1);
+		Expr f = index.get(4, 0);
+		assertEquals(Arrays.asList(xs, ys), index.groundTerms(xs));
+		assertEquals(Arrays.asList(px), index.groundTerms(px));
+		assertEquals(Arrays.asList(f), index.groundTerms(f));
+	}
+
+	@Test
+	public void test_02() throws ResolutionError {
+		// Quantifiers are indexed by the symbols of their triggers
+		Index index = new Index(SOURCE);
+		Formula first = index.hypotheses[0];
+		Formula second = index.hypotheses[1];
+		assertEquals(Arrays.asList(first, second), index.quantifiers(index.get(2, 0)));
+		assertEquals(Arrays.asList(first), index.quantifiers(index.get(4, 0)));
+		assertEquals(Collections.emptyList(), index.quantifiers(index.get(3, 0)));
+		// The array accessed by the second depends on a quantified variable,
+		// so it could match any array access.
+		assertEquals(Arrays.asList(second), index.quantifiers(index.get(3, 1)));
+	}
+
+	@Test
+	public void test_03() throws ResolutionError {
+		// Truths which are not existing truths are filtered out
+		Index index = new Index(SOURCE);
+		TermIndex terms = index.proof.getTermIndex();
+		List<TermIndex.Symbol> symbol = TermIndex.Symbol.of(index.get(4, 0), Collections.emptyList());
+		assertEquals(1, terms.getGroundTerms(symbol, index.head.getDelta(null).getAdditions()).size());
+		assertEquals(0, terms.getGroundTerms(symbol, index.head.getParent().getDelta(null).getAdditions()).size());
+	}
+
+	private static String lines(String... lines) {
+		return String.join("\n", lines) + "\n";
+	}
+
+	/**
+	 * A proof whose states each add one hypothesis of the first assertion in
+	 * a given source file.
+	 */
+	private static class Index {
+		private final Formula[] hypotheses;
+		private final DeltaProof proof;
+		private final Proof.State head;
+
+		public Index(String source) throws ResolutionError {
+			TypeSystem types = new TypeSystem(null);
+			WyalFile file = TestUtils.parse(source);
+			Stmt.Quantifier forall = (Stmt.Quantifier) file.getSyntacticItems(WyalFile.Declaration.Assert.class)
+					.get(0).getBody().get(0);
+			Stmt.IfThen it = (Stmt.IfThen) forall.getBody().get(0);
+			StructurallyEquivalentHeap heap = new StructurallyEquivalentHeap(file);
+			hypotheses = Formulae.toFormulae(it.getIfBody().getAll(), types);
+			for (int i = 0; i != hypotheses.length; ++i) {
+				hypotheses[i] = heap.allocate(hypotheses[i]);
+			}
+			proof = new DeltaProof(null, heap, hypotheses[0]);
+			Proof.State state = proof.getState(0);
+			for (int i = 1; i != hypotheses.length; ++i) {
+				state = state.infer(null, hypotheses[i]);
+			}
+			head = state;
+		}
+
+		/**
+		 * Get the ith term applying a symbol within a given hypothesis.
+		 *
+		 * @param hypothesis
+		 * @param i
+		 * @return
+		 */
+		public Expr get(int hypothesis, int i) {
+			return TermIndex.findTerms(hypotheses[hypothesis]).get(i);
+		}
+
+		/**
+		 * Get the ground terms applying the same symbols as a given term.
+		 *
+		 * @param term
+		 * @return
+		 */
+		public List<Expr> groundTerms(Expr term) {
+			List<Expr> result = new ArrayList<>();
+			for (TermIndex.Occurrence o : proof.getTermIndex()
+					.getGroundTerms(TermIndex.Symbol.of(term, Collections.emptyList()), existing())) {
+				result.add(o.getTerm());
+			}
+			return result;
+		}
+
+		public List<Formula.Quantifier> quantifiers(Expr term) {
+			return proof.getTermIndex().getQuantifiers(TermIndex.Symbol.of(term, Collections.emptyList()),
+					existing());
+		}
+
+		private Proof.Delta.Set existing() {
+			return head.getDelta(null).getAdditions();
+		}
+	}
+}